@@ -41,15 +41,18 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.tuscany.maven.osgi.ExecutionEnvironmentProfile;
+import org.apache.tuscany.maven.osgi.JarMetadata;
+import org.apache.tuscany.maven.osgi.OSGIArtifactVersion;
+import org.apache.tuscany.maven.osgi.OSGIVersionRange;
 import org.eclipse.osgi.framework.internal.core.Constants;
 import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
 import org.eclipse.osgi.util.ManifestElement;
@@ -84,10 +87,10 @@ public final class BundleUtil {
                 bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
             }
         } else {
-            JarFile jar = new JarFile(file, false);
-            Manifest manifest = jar.getManifest();
-            bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
-            jar.close();
+            Manifest manifest = JarMetadata.get(file).getManifest();
+            if (manifest != null) {
+                bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
+            }
         }
         if (bundleName == null) {
             return bundleName;
@@ -115,10 +118,10 @@ public final class BundleUtil {
                 bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
             }
         } else {
-            JarFile jar = new JarFile(file, false);
-            manifest = jar.getManifest();
-            bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
-            jar.close();
+            manifest = JarMetadata.get(file).getManifest();
+            if (manifest != null) {
+                bundleName = manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME);
+            }
         }
         if (bundleName != null) {
             return manifest;
@@ -309,23 +312,11 @@ public final class BundleUtil {
      * @throws IOException
      */
     private static void addAllPackages(File jarFile, Set<String> packages, String version) throws IOException {
-        ZipInputStream is = new ZipInputStream(new FileInputStream(jarFile));
-        ZipEntry entry;
-        while ((entry = is.getNextEntry()) != null) {
-            String entryName = entry.getName();
-            if (!entry.isDirectory() && entryName != null
-                && entryName.length() > 0
-                && !entryName.startsWith(".")
-                && entryName.endsWith(".class") // Exclude resources from Export-Package
-                && entryName.lastIndexOf("/") > 0
-                && Character.isJavaIdentifierStart(entryName.charAt(0))) {
-                String pkg = entryName.substring(0, entryName.lastIndexOf("/")).replace('/', '.');
-                if (!pkg.endsWith(".enum")) {
-                    packages.add(pkg + version);
-                }
+        for (String pkg : JarMetadata.get(jarFile).getPackages()) {
+            if (!pkg.endsWith(".enum")) {
+                packages.add(pkg + version);
             }
         }
-        is.close();
     }
 
     /**
@@ -364,10 +355,10 @@ public final class BundleUtil {
                 exports = manifest.getMainAttributes().getValue(EXPORT_PACKAGE);
             }
         } else {
-            JarFile jar = new JarFile(file, false);
-            Manifest manifest = jar.getManifest();
-            exports = manifest.getMainAttributes().getValue(EXPORT_PACKAGE);
-            jar.close();
+            Manifest manifest = JarMetadata.get(file).getManifest();
+            if (manifest != null) {
+                exports = manifest.getMainAttributes().getValue(EXPORT_PACKAGE);
+            }
             existingPackages = new HashSet<String>();
             addAllPackages(file, existingPackages, "");
         }
@@ -445,42 +436,30 @@ public final class BundleUtil {
      * @return
      */
     static String osgiVersion(String mavenVersion) {
-        ArtifactVersion ver = new OSGIArtifactVersion(mavenVersion);
-        String qualifer = ver.getQualifier();
-        if (qualifer != null) {
-            StringBuffer buf = new StringBuffer(qualifer);
-            for (int i = 0; i < buf.length(); i++) {
-                char c = buf.charAt(i);
-                if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
-                    // Keep as-is
-                } else {
-                    buf.setCharAt(i, '_');
-                }
-            }
-            qualifer = buf.toString();
-        }
-        Version osgiVersion =
-            new Version(ver.getMajorVersion(), ver.getMinorVersion(), ver.getIncrementalVersion(), qualifer);
-        String version = osgiVersion.toString();
-        return version;
+        return OSGIArtifactVersion.parse(mavenVersion).toOSGiVersion().toString();
     }
 
-    private static String J2SE = "J2SE-";
-    private static String JAVASE = "JavaSE-";
-    private static String PROFILE_EXT = ".profile";
+    private static final String J2SE = "J2SE-";
+    private static final String JAVASE = "JavaSE-";
+    private static final String PROFILE_EXT = ".profile";
+    private static final OSGIVersionRange JAVASE_RANGE = OSGIVersionRange.parse("1.6");
+
+    // The VM profiles already looked up, keyed by the VM profile name and the osgi.java.profile property
+    private static final ConcurrentMap<String, ExecutionEnvironmentProfile> vmProfiles =
+        new ConcurrentHashMap<String, ExecutionEnvironmentProfile>();
 
     public static void loadVMProfile(Properties properties) {
-        Properties profileProps = findVMProfile(properties);
+        ExecutionEnvironmentProfile profile = findVMProfile(properties);
         String systemExports = properties.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES);
         // set the system exports property using the vm profile; only if the property is not already set
         if (systemExports == null) {
-            systemExports = profileProps.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES);
+            systemExports = profile.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES);
             if (systemExports != null)
                 properties.put(Constants.FRAMEWORK_SYSTEMPACKAGES, systemExports);
         }
         // set the org.osgi.framework.bootdelegation property according to the java profile
         String type = properties.getProperty(Constants.OSGI_JAVA_PROFILE_BOOTDELEGATION); // a null value means ignore
-        String profileBootDelegation = profileProps.getProperty(Constants.FRAMEWORK_BOOTDELEGATION);
+        String profileBootDelegation = profile.getProperty(Constants.FRAMEWORK_BOOTDELEGATION);
         if (Constants.OSGI_BOOTDELEGATION_OVERRIDE.equals(type)) {
             if (profileBootDelegation == null)
                 properties.remove(Constants.FRAMEWORK_BOOTDELEGATION); // override with a null value
@@ -492,15 +471,21 @@ public final class BundleUtil {
         if (properties.getProperty(Constants.FRAMEWORK_EXECUTIONENVIRONMENT) == null) {
             // get the ee from the java profile; if no ee is defined then try the java profile name
             String ee =
-                profileProps.getProperty(Constants.FRAMEWORK_EXECUTIONENVIRONMENT, profileProps
+                profile.getProperty(Constants.FRAMEWORK_EXECUTIONENVIRONMENT, profile
                     .getProperty(Constants.OSGI_JAVA_PROFILE_NAME));
             if (ee != null)
                 properties.put(Constants.FRAMEWORK_EXECUTIONENVIRONMENT, ee);
         }
     }
 
-    private static Properties findVMProfile(Properties properties) {
-        Properties result = new Properties();
+    /**
+     * Finds the profile of the VM described by the given properties. The profile found is kept for the
+     * next calls, unless it could not be read.
+     * 
+     * @param properties
+     * @return
+     */
+    static ExecutionEnvironmentProfile findVMProfile(Properties properties) {
         // Find the VM profile name using J2ME properties
         String j2meConfig = properties.getProperty(Constants.J2ME_MICROEDITION_CONFIGURATION);
         String j2meProfiles = properties.getProperty(Constants.J2ME_MICROEDITION_PROFILES);
@@ -529,11 +514,10 @@ public final class BundleUtil {
                     vmProfile = "CDC-" + javaSpecVersion + "_Foundation-" + javaSpecVersion; //$NON-NLS-1$ //$NON-NLS-2$
                 else {
                     // look for JavaSE if 1.6 or greater; otherwise look for J2SE
-                    Version v16 = new Version("1.6"); //$NON-NLS-1$
                     javaEdition = J2SE;
                     try {
                         javaVersion = new Version(javaSpecVersion);
-                        if (v16.compareTo(javaVersion) <= 0)
+                        if (JAVASE_RANGE.includes(javaVersion))
                             javaEdition = JAVASE;
                     } catch (IllegalArgumentException e) {
                         // do nothing
@@ -542,9 +526,16 @@ public final class BundleUtil {
                 }
             }
         }
-        URL url = null;
         // check for the java profile property for a url
         String propJavaProfile = FrameworkProperties.getProperty(Constants.OSGI_JAVA_PROFILE);
+        String key = vmProfile + ";" + propJavaProfile;
+        ExecutionEnvironmentProfile profile = vmProfiles.get(key);
+        if (profile != null) {
+            return profile;
+        }
+        Properties result = new Properties();
+        boolean failed = false;
+        URL url = null;
         if (propJavaProfile != null)
             try {
                 // we assume a URL
@@ -570,6 +561,7 @@ public final class BundleUtil {
                 result.load(new BufferedInputStream(in));
             } catch (IOException e) {
                 // TODO consider logging ...
+                failed = true;
             } finally {
                 if (in != null)
                     try {
@@ -586,7 +578,14 @@ public final class BundleUtil {
             else
                 // last resort; default to the absolute minimum profile name for the framework
                 result.put(Constants.OSGI_JAVA_PROFILE_NAME, "OSGi/Minimum-1.2"); //$NON-NLS-1$
-        return result;
+        String name = result.getProperty(Constants.OSGI_JAVA_PROFILE_NAME);
+        if (failed) {
+            // Don't keep the incomplete profile, the next call will try to read it again
+            return ExecutionEnvironmentProfile.create(name, result);
+        }
+        profile = ExecutionEnvironmentProfile.register(name, result);
+        vmProfiles.put(key, profile);
+        return profile;
     }
 
     private static URL getNextBestProfile(String javaEdition, Version javaVersion) {
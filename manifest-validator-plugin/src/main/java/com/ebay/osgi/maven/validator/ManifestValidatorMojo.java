@@ -34,6 +34,7 @@ import com.ebay.osgi.maven.compiler.osgi.ManifestNotFoundException;
  * Goal which touches a timestamp file.
  *
  * @goal validate
+ * @threadSafe
  * @phase process-sources
  * @requiresDependencyResolution compile
  */
@@ -50,6 +50,7 @@ import org.apache.tuscany.maven.bundle.plugin.HeaderParser.HeaderClause;
 /**
  * @version $Rev$ $Date$
  * @goal aggregate-modules
+ * @threadSafe
  * @phase process-resources
  * @requiresDependencyResolution test
  * @description Generate an aggregated bundle that contains all the modules and 3rd party jars
@@ -218,9 +219,8 @@ public class BundleAggregatorMojo extends AbstractMojo {
         addEntry(jos, name, in);
     }
 
-    private static final byte[] buf = new byte[4096];
-
     private static void addEntry(JarOutputStream jos, String name, InputStream in) throws IOException {
+        byte[] buf = new byte[4096];
         ZipEntry entry = new ZipEntry(name);
         jos.putNextEntry(entry);
         for (;;) {
@@ -0,0 +1,512 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.bundle.plugin;
+
+import static org.osgi.framework.Constants.BUNDLE_ACTIVATOR;
+import static org.osgi.framework.Constants.EXPORT_PACKAGE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.tuscany.maven.bundle.plugin.HeaderParser.HeaderClause;
+import org.apache.tuscany.maven.osgi.JarMetadata;
+
+/**
+ * Removes the classes of third-party library bundles that can't be reached from the bundles
+ * shipped as they are, jars or exploded bundle directories. Every class of those bundles is an
+ * entry point, together with their activators, the service providers listed under
+ * META-INF/services and the classes matching the keep list. References are
+ * found in the constant pool of the class files, including class names used as string constants
+ * so that most Class.forName() lookups are kept too.
+ *
+ * @version $Rev$ $Date$
+ */
+class BundlePruner {
+    private static final String SERVICES = "META-INF/services/";
+
+    private final Log log;
+    private final String[] keep;
+
+    // Jars shipped as they are
+    private final List<File> bundles = new ArrayList<File>();
+    // Library jars that can be pruned, and the manifest of the bundle they belong to
+    private final Map<File, File> libraries = new LinkedHashMap<File, File>();
+
+    // Internal class name -> library jars containing the class
+    private final Map<String, List<File>> index = new HashMap<String, List<File>>();
+    private final Set<String> reachable = new HashSet<String>();
+    private final LinkedList<String> queue = new LinkedList<String>();
+
+    BundlePruner(Log log, String[] keep) {
+        this.log = log;
+        this.keep = keep == null ? new String[0] : keep;
+    }
+
+    void addBundle(File jar) {
+        bundles.add(jar);
+    }
+
+    void addLibrary(File jar, File manifestFile) {
+        libraries.put(jar, manifestFile);
+    }
+
+    /**
+     * Prune the library jars and write a report of the removed classes.
+     *
+     * @param reportFile
+     * @throws IOException
+     */
+    void prune(File reportFile) throws IOException {
+        for (File jar : libraries.keySet()) {
+            JarMetadata metadata = JarMetadata.get(jar);
+            for (int i = 0, n = metadata.getClassCount(); i < n; i++) {
+                String entry = metadata.getClassEntry(i);
+                String name = entry.substring(0, entry.length() - ".class".length());
+                List<File> jars = index.get(name);
+                if (jars == null) {
+                    jars = new ArrayList<File>(1);
+                    index.put(name, jars);
+                }
+                jars.add(jar);
+                if (isKept(name)) {
+                    enqueue(name);
+                }
+            }
+        }
+
+        for (File bundle : bundles) {
+            if (!scanBundle(bundle)) {
+                return;
+            }
+        }
+
+        Map<File, JarFile> openJars = new HashMap<File, JarFile>();
+        Set<File> unprunable = new HashSet<File>();
+        try {
+            for (File jar : libraries.keySet()) {
+                JarFile jarFile = new JarFile(jar, false);
+                openJars.put(jar, jarFile);
+                for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();) {
+                    JarEntry entry = e.nextElement();
+                    if (entry.getName().startsWith(SERVICES) && !entry.isDirectory()) {
+                        addServiceProviders(jarFile.getInputStream(entry));
+                    }
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                String name = queue.removeFirst();
+                for (File jar : index.get(name)) {
+                    JarFile jarFile = openJars.get(jar);
+                    if (!scan(jarFile.getInputStream(jarFile.getJarEntry(name + ".class")))) {
+                        log.warn("Unable to analyze " + name + " in " + jar + ", the jar is not pruned");
+                        unprunable.add(jar);
+                    }
+                }
+            }
+        } finally {
+            for (JarFile jarFile : openJars.values()) {
+                jarFile.close();
+            }
+        }
+
+        PrintStream report = new PrintStream(new FileOutputStream(reportFile));
+        try {
+            report.println("# Classes removed from the library bundles");
+            long totalBytes = 0;
+            int totalClasses = 0;
+            Map<File, Set<String>> remainingPackages = new HashMap<File, Set<String>>();
+            for (Map.Entry<File, File> library : libraries.entrySet()) {
+                File jar = library.getKey();
+                Set<String> removed = new TreeSet<String>();
+                if (!unprunable.contains(jar)) {
+                    JarMetadata metadata = JarMetadata.get(jar);
+                    for (int i = 0, n = metadata.getClassCount(); i < n; i++) {
+                        String entry = metadata.getClassEntry(i);
+                        if (!entry.startsWith("META-INF/")
+                            && !reachable.contains(entry.substring(0, entry.length() - ".class".length()))) {
+                            removed.add(entry);
+                        }
+                    }
+                }
+
+                long before = jar.length();
+                if (!removed.isEmpty()) {
+                    rewrite(jar, removed);
+                    long bytes = before - jar.length();
+                    totalBytes += bytes;
+                    totalClasses += removed.size();
+                    report.println(jar.getName() + ": " + removed.size() + " classes, " + bytes + " bytes");
+                    for (String entry : removed) {
+                        report.println("    " + entry);
+                    }
+                }
+
+                Set<String> packages = remainingPackages.get(library.getValue());
+                if (packages == null) {
+                    packages = new HashSet<String>();
+                    remainingPackages.put(library.getValue(), packages);
+                }
+                packages.addAll(JarMetadata.get(jar).getPackages());
+            }
+            report.println("# Total: " + totalClasses + " classes, " + totalBytes + " bytes");
+            log.info("Pruned " + totalClasses + " classes (" + totalBytes + " bytes) from the library bundles, see " + reportFile);
+
+            for (Map.Entry<File, Set<String>> e : remainingPackages.entrySet()) {
+                updateExports(e.getKey(), e.getValue());
+            }
+        } finally {
+            report.close();
+        }
+    }
+
+    /**
+     * Enqueue the classes referenced from a bundle shipped as it is, either a jar or the root
+     * directory of an exploded bundle such as the target/classes of a module.
+     *
+     * @return false if a class can't be analyzed
+     */
+    private boolean scanBundle(File bundle) throws IOException {
+        if (bundle.isDirectory()) {
+            File mf = new File(bundle, JarFile.MANIFEST_NAME);
+            if (mf.isFile()) {
+                FileInputStream is = new FileInputStream(mf);
+                try {
+                    addManifestReferences(new Manifest(is));
+                } finally {
+                    is.close();
+                }
+            }
+            return scanDirectory(bundle, bundle.getAbsoluteFile().toURI());
+        }
+        if (!bundle.isFile()) {
+            throw new IOException("Bundle not found: " + bundle);
+        }
+        JarFile jarFile = new JarFile(bundle, false);
+        try {
+            Manifest manifest = jarFile.getManifest();
+            if (manifest != null) {
+                addManifestReferences(manifest);
+            }
+            for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();) {
+                JarEntry entry = e.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    if (!scan(jarFile.getInputStream(entry))) {
+                        log.warn("Unable to analyze " + entry.getName() + " in " + bundle + ", pruning is skipped");
+                        return false;
+                    }
+                } else if (entry.getName().startsWith(SERVICES) && !entry.isDirectory()) {
+                    addServiceProviders(jarFile.getInputStream(entry));
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+        return true;
+    }
+
+    private boolean scanDirectory(File dir, URI root) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list " + dir);
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!scanDirectory(file, root)) {
+                    return false;
+                }
+                continue;
+            }
+            String name = root.relativize(file.getAbsoluteFile().toURI()).getPath();
+            if (name.endsWith(".class")) {
+                if (!scan(new FileInputStream(file))) {
+                    log.warn("Unable to analyze " + file + ", pruning is skipped");
+                    return false;
+                }
+            } else if (name.startsWith(SERVICES)) {
+                addServiceProviders(new FileInputStream(file));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enqueue the classes named by the manifest headers.
+     */
+    private void addManifestReferences(Manifest manifest) {
+        String activator = manifest.getMainAttributes().getValue(BUNDLE_ACTIVATOR);
+        if (activator != null) {
+            enqueue(activator.trim().replace('.', '/'));
+        }
+    }
+
+    /**
+     * Tests if a class matches the keep list. The patterns are class names, or package names
+     * followed by .* (the package) or .** (the package and its sub-packages).
+     */
+    private boolean isKept(String name) {
+        String className = name.replace('/', '.');
+        for (String pattern : keep) {
+            pattern = pattern.trim();
+            if (pattern.endsWith(".**")) {
+                if (className.startsWith(pattern.substring(0, pattern.length() - 2))) {
+                    return true;
+                }
+            } else if (pattern.endsWith(".*")) {
+                String pkg = pattern.substring(0, pattern.length() - 2);
+                int index = className.lastIndexOf('.');
+                if (index != -1 && pkg.equals(className.substring(0, index))) {
+                    return true;
+                }
+            } else if (pattern.equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueue(String name) {
+        if (index.containsKey(name) && reachable.add(name)) {
+            queue.add(name);
+        }
+    }
+
+    private void addServiceProviders(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int hash = line.indexOf('#');
+                if (hash != -1) {
+                    line = line.substring(0, hash);
+                }
+                line = line.trim();
+                if (line.length() > 0) {
+                    enqueue(line.replace('.', '/'));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Enqueue the classes referenced from the constant pool of a class file.
+     *
+     * @return false if the class file can't be parsed
+     */
+    private boolean scan(InputStream in) throws IOException {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (is.readInt() != 0xCAFEBABE) {
+                return false;
+            }
+            is.readUnsignedShort();
+            is.readUnsignedShort();
+            int count = is.readUnsignedShort();
+            for (int i = 1; i < count; i++) {
+                int tag = is.readUnsignedByte();
+                switch (tag) {
+                    case 1: // Utf8
+                        addReferences(is.readUTF());
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        is.skipBytes(2);
+                        break;
+                    case 15: // MethodHandle
+                        is.skipBytes(3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        is.skipBytes(4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        is.skipBytes(8);
+                        i++;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            return true;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A UTF8 constant is either a class name, a descriptor or signature, or any other string.
+     * Every candidate class name found in it is looked up in the index.
+     */
+    private void addReferences(String value) {
+        if (value.length() == 0) {
+            return;
+        }
+        if (value.indexOf(';') == -1) {
+            enqueue(value);
+            if (value.indexOf('.') != -1) {
+                enqueue(value.replace('.', '/'));
+            }
+            return;
+        }
+        for (int i = 0, n = value.length(); i < n; i++) {
+            if (value.charAt(i) == 'L') {
+                int j = i + 1;
+                while (j < n && value.charAt(j) != ';' && value.charAt(j) != '<') {
+                    j++;
+                }
+                if (j < n) {
+                    enqueue(value.substring(i + 1, j));
+                }
+                i = j;
+            }
+        }
+    }
+
+    private static void rewrite(File jar, Collection<String> removed) throws IOException {
+        File tmp = new File(jar.getPath() + ".tmp");
+        JarFile jarFile = new JarFile(jar, false);
+        try {
+            JarOutputStream jos = new JarOutputStream(new FileOutputStream(tmp));
+            try {
+                byte[] buf = new byte[4096];
+                for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();) {
+                    JarEntry entry = e.nextElement();
+                    if (removed.contains(entry.getName())) {
+                        continue;
+                    }
+                    JarEntry copy = new JarEntry(entry.getName());
+                    copy.setTime(entry.getTime());
+                    jos.putNextEntry(copy);
+                    InputStream in = jarFile.getInputStream(entry);
+                    for (;;) {
+                        int len = in.read(buf);
+                        if (len > 0) {
+                            jos.write(buf, 0, len);
+                        } else {
+                            break;
+                        }
+                    }
+                    in.close();
+                    jos.closeEntry();
+                }
+            } finally {
+                jos.close();
+            }
+        } finally {
+            jarFile.close();
+        }
+        if (!jar.delete() || !tmp.renameTo(jar)) {
+            throw new IOException("Unable to replace " + jar);
+        }
+    }
+
+    /**
+     * Remove the exports of the packages that no longer contain classes.
+     */
+    private static void updateExports(File manifestFile, Set<String> packages) throws IOException {
+        if (!manifestFile.isFile()) {
+            return;
+        }
+        FileInputStream is = new FileInputStream(manifestFile);
+        Manifest manifest = new Manifest(is);
+        is.close();
+
+        String exports = manifest.getMainAttributes().getValue(EXPORT_PACKAGE);
+        if (exports == null || exports.length() == 0) {
+            return;
+        }
+        boolean changed = false;
+        List<HeaderClause> clauses = HeaderParser.parse(exports);
+        for (Iterator<HeaderClause> i = clauses.iterator(); i.hasNext();) {
+            HeaderClause clause = i.next();
+            List<String> kept = new ArrayList<String>();
+            for (String pkg : clause.getValueComponents()) {
+                if (packages.contains(pkg) || !Character.isJavaIdentifierStart(pkg.charAt(0))
+                    || pkg.startsWith("META-INF")) {
+                    kept.add(pkg);
+                }
+            }
+            if (kept.isEmpty()) {
+                i.remove();
+                changed = true;
+            } else if (kept.size() != clause.getValueComponents().length) {
+                StringBuffer value = new StringBuffer();
+                for (String pkg : kept) {
+                    if (value.length() > 0) {
+                        value.append(';');
+                    }
+                    value.append(pkg);
+                }
+                clause.setValueComponents(kept.toArray(new String[kept.size()]));
+                clause.setValue(value.toString());
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        if (clauses.isEmpty()) {
+            manifest.getMainAttributes().remove(new Attributes.Name(EXPORT_PACKAGE));
+        } else {
+            manifest.getMainAttributes().putValue(EXPORT_PACKAGE, HeaderParser.toHeader(clauses));
+        }
+        FileOutputStream fos = new FileOutputStream(manifestFile);
+        BundleUtil.write(manifest, fos);
+        fos.close();
+    }
+}
@@ -43,13 +43,13 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.jar.Attributes;
-import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.apache.tuscany.maven.osgi.ExecutionEnvironmentProfile;
+import org.apache.tuscany.maven.osgi.JarMetadata;
+import org.apache.tuscany.maven.osgi.OSGIArtifactVersion;
+import org.apache.tuscany.maven.osgi.OSGIVersionRange;
 import org.eclipse.osgi.framework.internal.core.Constants;
 import org.eclipse.osgi.framework.internal.core.FrameworkProperties;
 import org.eclipse.osgi.util.ManifestElement;
@@ -104,9 +104,7 @@ public final class BundleUtil {
                 is.close();
             }
         } else {
-            JarFile jar = new JarFile(file, false);
-            manifest = jar.getManifest();
-            jar.close();
+            manifest = JarMetadata.get(file).getManifest();
         }
         return manifest;
     }
@@ -317,43 +315,24 @@ public final class BundleUtil {
      * @throws IOException
      */
     private static void addAllPackages(File jarFile, Set<String> packages, String version) throws IOException {
-        ZipInputStream is = new ZipInputStream(new FileInputStream(jarFile));
-        ZipEntry entry;
-        while ((entry = is.getNextEntry()) != null) {
-            String entryName = entry.getName();
-            // Export split packages for META-INF/services
-            if(entryName.startsWith("META-INF/services/")) {
-                packages.add(META_INF_SERVICES);
-            }
-            if (!entry.isDirectory() && entryName != null
-                && entryName.length() > 0
-                && !entryName.startsWith(".")
-                && entryName.endsWith(".class") // Exclude resources from Export-Package
-                && entryName.lastIndexOf("/") > 0
-                && Character.isJavaIdentifierStart(entryName.charAt(0))) {
-                String pkg = entryName.substring(0, entryName.lastIndexOf("/")).replace('/', '.');
-                if (!pkg.endsWith(".enum")) {
-                    packages.add(pkg + version);
-                }
+        JarMetadata metadata = JarMetadata.get(jarFile);
+        // Export split packages for META-INF/services
+        if (metadata.hasEntriesUnder("META-INF/services/")) {
+            packages.add(META_INF_SERVICES);
+        }
+        for (String pkg : metadata.getPackages()) {
+            if (!pkg.endsWith(".enum")) {
+                packages.add(pkg + version);
             }
         }
-        is.close();
     }
 
     private static Set<String> getSystemPackages(String env) throws IOException {
-        Set<String> sysPackages = new HashSet<String>();
-        InputStream is = BundleUtil.class.getResourceAsStream("/" + env + ".profile");
-        if (is != null) {
-            Properties props = new Properties();
-            props.load(is);
-            String pkgs = (String)props.get("org.osgi.framework.system.packages");
-            if (pkgs != null) {
-                for (String p : pkgs.split(",")) {
-                    sysPackages.add(p.trim());
-                }
-            }
+        ExecutionEnvironmentProfile profile = ExecutionEnvironmentProfile.forName(env);
+        if (profile == null) {
+            return Collections.emptySet();
         }
-        return sysPackages;
+        return profile.getSystemPackages();
     }
 
     /**
@@ -468,29 +447,13 @@ public final class BundleUtil {
      * @return
      */
     static String osgiVersion(String mavenVersion) {
-        ArtifactVersion ver = new OSGIArtifactVersion(mavenVersion);
-        String qualifer = ver.getQualifier();
-        if (qualifer != null) {
-            StringBuffer buf = new StringBuffer(qualifer);
-            for (int i = 0; i < buf.length(); i++) {
-                char c = buf.charAt(i);
-                if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
-                    // Keep as-is
-                } else {
-                    buf.setCharAt(i, '_');
-                }
-            }
-            qualifer = buf.toString();
-        }
-        Version osgiVersion =
-            new Version(ver.getMajorVersion(), ver.getMinorVersion(), ver.getIncrementalVersion(), qualifer);
-        String version = osgiVersion.toString();
-        return version;
+        return OSGIArtifactVersion.parse(mavenVersion).toOSGiVersion().toString();
     }
 
-    private static String J2SE = "J2SE-";
-    private static String JAVASE = "JavaSE-";
-    private static String PROFILE_EXT = ".profile";
+    private static final String J2SE = "J2SE-";
+    private static final String JAVASE = "JavaSE-";
+    private static final String PROFILE_EXT = ".profile";
+    private static final OSGIVersionRange JAVASE_RANGE = OSGIVersionRange.parse("1.6");
     private static URL findInSystemBundle(String entry) {
         ClassLoader loader = BundleUtil.class.getClassLoader();
         return loader == null ? ClassLoader.getSystemResource(entry) : loader.getResource(entry);
@@ -536,11 +499,10 @@ public final class BundleUtil {
                     vmProfile = "CDC-" + javaSpecVersion + "_Foundation-" + javaSpecVersion;  //$NON-NLS-2$
                 else {
                     // look for JavaSE if 1.6 or greater; otherwise look for J2SE
-                    Version v16 = new Version("1.6");
                     javaEdition = J2SE;
                     try {
                         javaVersion = new Version(javaSpecVersion);
-                        if (v16.compareTo(javaVersion) <= 0)
+                        if (JAVASE_RANGE.includes(javaVersion))
                             javaEdition = JAVASE;
                     } catch (IllegalArgumentException e) {
                         // do nothing
@@ -44,6 +44,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
@@ -58,7 +59,6 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
 import org.apache.maven.artifact.versioning.ArtifactVersion;
-import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -70,6 +70,7 @@ import org.apache.maven.shared.dependency.tree.DependencyNode;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 import org.apache.maven.shared.dependency.tree.traversal.CollectingDependencyNodeVisitor;
+import org.apache.tuscany.maven.osgi.OSGIArtifactVersion;
 import org.osgi.framework.Constants;
 
 /**
@@ -79,6 +80,7 @@ import org.osgi.framework.Constants;
  *
  * @version $Rev: 929729 $ $Date: 2010-03-31 22:52:37 +0100 (Wed, 31 Mar 2010) $
  * @goal generate-meta-data
+ * @threadSafe
  * @phase generate-resources
  * @requiresDependencyResolution test
  * @description Generate a modules directory containing OSGi bundles for all the project's module dependencies.
@@ -340,6 +342,20 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
      */
     private String eclipseBuddyPolicy = null;
 
+    /**
+     * Set to true to remove the classes of the generated library bundles that cannot be reached
+     * from the other bundles. A report is written to pruning-report.txt in the target directory.
+     * @parameter default-value="false"
+     */
+    private boolean pruneLibraries = false;
+
+    /**
+     * Classes to keep when pruning, as class names or package names followed by .* or .**
+     * (including sub-packages)
+     * @parameter
+     */
+    private String[] pruneKeep;
+
     private static final String XML_PI = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
     private static final String ASL_HEADER =
         "<!--" + "\n * Licensed to the Apache Software Foundation (ASF) under one"
@@ -589,6 +605,11 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
             ProjectSet bundleLocations = new ProjectSet(poms);
             ProjectSet jarNames = new ProjectSet(poms);
             ProjectSet serviceProviders = new ProjectSet(poms);
+
+            BundlePruner pruner = null;
+            if (pruneLibraries && generateModules) {
+                pruner = new BundlePruner(log, pruneKeep);
+            }
             
             for (Artifact artifact: artifacts) {
                 
@@ -667,6 +688,9 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
                         if (generateModules){
                             copyFile(artifactFile, root);
                         }
+                        if (pruner != null) {
+                            pruner.addBundle(artifactFile);
+                        }
                         bundleSymbolicNames.add(artifact, bundleName);
                         bundleLocations.add(artifact, artifactFile.getName());                      
                         jarNames.add(artifact, artifactFile.getName());
@@ -691,6 +715,9 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
                             fos.close();
                             copyFile(artifactFile, dir);
                         }
+                        if (pruner != null) {
+                            pruner.addBundle(artifactFile);
+                        }
                         bundleSymbolicNames.add(artifact, bundleName);
                         bundleLocations.add(artifact, dir.getName());
                         jarNames.add(artifact, dirName + "/" + artifactFile.getName());                        
@@ -811,6 +838,14 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
                     if (generateModules){
                         copyFile(artifactFile, dir);
                     }
+                    if (pruner != null) {
+                        if (customizedMF == null) {
+                            pruner.addLibrary(new File(dir, artifactFile.getName()), new File(dir, JarFile.MANIFEST_NAME));
+                        } else {
+                            // Keep the bundles with a customized manifest as they are
+                            pruner.addBundle(artifactFile);
+                        }
+                    }
                     
                     bundleSymbolicNames.add(artifact, symbolicName);
                     bundleLocations.add(artifact, dir.getName());
@@ -838,6 +873,9 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
                         artifact = a;
                         jarFiles.add(a.getFile());
                         copyFile(a.getFile(), dir);
+                        if (pruner != null) {
+                            pruner.addLibrary(new File(dir, a.getFile().getName()), new File(dir, JarFile.MANIFEST_NAME));
+                        }
                         jarNames.add(a, symbolicName + "-" + version + "/" + a.getFile().getName());
                     }
                     Manifest mf =
@@ -865,6 +903,10 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
             }
 
 
+            if (pruner != null) {
+                pruner.prune(new File(root, "pruning-report.txt"));
+            }
+
             if (generateGatewayBundle) {
                 generateGatewayBundle(serviceProviders);
             }
@@ -961,8 +1003,8 @@ public class BundlesMetaDataBuildMojo extends AbstractMojo {
                         log.debug("Dependency node: " + depNode);
                     }
                     // Compare the version
-                    ArtifactVersion v1 = new DefaultArtifactVersion(artifact.getVersion());
-                    ArtifactVersion v2 = new DefaultArtifactVersion(related.getVersion());
+                    ArtifactVersion v1 = OSGIArtifactVersion.parse(artifact.getVersion());
+                    ArtifactVersion v2 = OSGIArtifactVersion.parse(related.getVersion());
                     if (v1.compareTo(v2) > 0) {
                         // Only add newer version if it is omitted for conflict
                         if (artifacts.add(artifact)) {
@@ -57,7 +57,6 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
 import org.apache.maven.artifact.versioning.ArtifactVersion;
-import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
@@ -69,6 +68,7 @@ import org.apache.maven.shared.dependency.tree.DependencyNode;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 import org.apache.maven.shared.dependency.tree.traversal.CollectingDependencyNodeVisitor;
+import org.apache.tuscany.maven.osgi.OSGIArtifactVersion;
 import org.osgi.framework.Constants;
 
 /**
@@ -76,6 +76,7 @@ import org.osgi.framework.Constants;
  *
  * @version $Rev$ $Date$
  * @goal generate-modules
+ * @threadSafe
  * @phase generate-resources
  * @requiresDependencyResolution test
  * @description Generate a modules directory containing OSGi bundles for all the project's module dependencies.
@@ -854,8 +855,8 @@ public class ModuleBundlesBuildMojo extends AbstractMojo {
                         log.debug("Dependency node: " + depNode);
                     }
                     // Compare the version
-                    ArtifactVersion v1 = new DefaultArtifactVersion(artifact.getVersion());
-                    ArtifactVersion v2 = new DefaultArtifactVersion(related.getVersion());
+                    ArtifactVersion v1 = OSGIArtifactVersion.parse(artifact.getVersion());
+                    ArtifactVersion v2 = OSGIArtifactVersion.parse(related.getVersion());
                     if (v1.compareTo(v2) > 0) {
                         // Only add newer version if it is omitted for conflict
                         if (artifacts.add(artifact)) {
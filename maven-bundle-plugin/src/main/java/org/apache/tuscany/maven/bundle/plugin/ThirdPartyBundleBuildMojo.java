@@ -39,6 +39,7 @@ import org.apache.maven.project.MavenProject;
  * 
  * @version $Rev$ $Date$
  * @goal assemble-thirdparty-bundle
+ * @threadSafe
  * @phase generate-resources
  * @requiresDependencyResolution test
  * @description Build an OSGi bundle for the project's third party dependencies
@@ -30,6 +30,7 @@ import org.apache.maven.plugin.ide.IdeUtils;
  * Deletes the .project, .classpath, .wtpmodules files and .settings folder used by Eclipse.
  *
  * @goal clean
+ * @threadSafe
  */
 public class EclipseCleanMojo
     extends AbstractMojo
@@ -81,6 +81,7 @@ import org.codehaus.plexus.util.xml.Xpp3Dom;
  * @author <a href="mailto:fgiust@apache.org">Fabrizio Giustina</a>
  * @version $Id: EclipsePlugin.java 756392 2009-03-20 09:46:09Z baerrach $
  * @goal eclipse
+ * @threadSafe
  * @execute phase="generate-resources"
  */
 public class EclipsePlugin
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.bundle.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+/**
+ * Runs several aggregations at the same time, as the aggregate-modules goal does in a parallel
+ * build, and checks that each aggregated bundle holds exactly the bytes of its own jars.
+ *
+ * @version $Rev$ $Date$
+ */
+public class BundleAggregatorConcurrencyTestCase extends TestCase {
+    private static final int THREADS = 8;
+    private static final int JARS = 4;
+    private static final int ROUNDS = 5;
+
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/aggregator-concurrency");
+        delete(root);
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testConcurrentAggregation() throws Exception {
+        final File[][] inputs = new File[THREADS][];
+        for (int i = 0; i < THREADS; i++) {
+            File dir = new File(root, "modules" + i);
+            dir.mkdirs();
+            inputs[i] = new File[JARS];
+            for (int j = 0; j < JARS; j++) {
+                inputs[i][j] = createBundle(new File(dir, "bundle" + i + "-" + j + ".jar"), i, j);
+            }
+        }
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (int round = 0; round < ROUNDS; round++) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                final int index = i;
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                            File target = new File(root, "singlebundle" + index + "/bundle.jar");
+                            BundleAggregatorMojo.aggregateBundles(new SystemStreamLog(),
+                                                                  inputs[index][0].getParentFile(),
+                                                                  inputs[index],
+                                                                  target,
+                                                                  "test.bundle" + index,
+                                                                  "1.0.0");
+                            verify(target, inputs[index]);
+                        } catch (Throwable e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                };
+                thread.start();
+            }
+            start.countDown();
+            done.await();
+            if (!failures.isEmpty()) {
+                Throwable e = failures.get(0);
+                AssertionFailedError error = new AssertionFailedError(failures.size() + " aggregation(s) failed: " + e);
+                error.initCause(e);
+                throw error;
+            }
+        }
+    }
+
+    private static void verify(File target, File[] jars) throws IOException {
+        JarFile bundle = new JarFile(target);
+        try {
+            Attributes attributes = bundle.getManifest().getMainAttributes();
+            String classPath = attributes.getValue("Bundle-ClassPath");
+            for (File jar : jars) {
+                assertTrue(classPath, classPath.indexOf(jar.getName()) != -1);
+                JarEntry entry = bundle.getJarEntry(jar.getName());
+                assertNotNull(jar.getName(), entry);
+                assertTrue(jar.getName(), Arrays.equals(read(new FileInputStream(jar)),
+                                                        read(bundle.getInputStream(entry))));
+            }
+            String classFile = AggregatedBundleActivator.class.getName().replace('.', '/') + ".class";
+            assertNotNull(bundle.getJarEntry(classFile));
+        } finally {
+            bundle.close();
+        }
+    }
+
+    private static File createBundle(File file, int module, int index) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Manifest-Version", "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", "test.module" + module + ".bundle" + index);
+        attributes.putValue("Export-Package", "test.module" + module + ".bundle" + index);
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+        try {
+            // Random bytes do not compress, so the jar is many times the copy buffer and a shared
+            // buffer would interleave the content of the jars
+            byte[] content = new byte[64 * 4096 + 123];
+            new Random(module * 31 + index).nextBytes(content);
+            jos.putNextEntry(new JarEntry("test/module" + module + "/bundle" + index + "/data.bin"));
+            jos.write(content);
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            for (int len = is.read(buf); len > 0; len = is.read(buf)) {
+                bos.write(buf, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.bundle.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.tuscany.maven.osgi.JarMetadata;
+
+/**
+ * Prunes a library bundle used by a bundle shipped as a jar or as a directory, and checks which
+ * classes are kept and which are removed.
+ *
+ * @version $Rev$ $Date$
+ */
+public class BundlePrunerTestCase extends TestCase {
+    private File root;
+    private File library;
+    private File libraryManifest;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/pruner");
+        delete(root);
+        root.mkdirs();
+
+        // The library bundle, as generated by the modules goal
+        File dir = new File(root, "lib-1.0.0");
+        library = new File(dir, "lib.jar");
+        libraryManifest = new File(dir, JarFile.MANIFEST_NAME);
+        Map<String, byte[]> entries = new TreeMap<String, byte[]>();
+        // Used by the bundle, and using Helper
+        entries.put("lib/Used.class", classFile("lib/Used", "lib/Helper"));
+        entries.put("lib/Helper.class", classFile("lib/Helper"));
+        entries.put("lib/Unused.class", classFile("lib/Unused", "lib/Helper"));
+        entries.put("lib/Activator.class", classFile("lib/Activator"));
+        // Loaded by name from a string constant of the bundle
+        entries.put("lib/reflect/Loaded.class", classFile("lib/reflect/Loaded"));
+        entries.put("lib/spi/Provider.class", classFile("lib/spi/Provider"));
+        entries.put("lib/kept/Kept.class", classFile("lib/kept/Kept"));
+        entries.put("lib/orphan/Orphan.class", classFile("lib/orphan/Orphan"));
+        entries.put("META-INF/services/lib.spi.Api", "# Providers\nlib.spi.Provider\n".getBytes("UTF-8"));
+        createJar(library, null, entries);
+
+        Manifest manifest = manifest("lib");
+        manifest.getMainAttributes().putValue("Export-Package",
+                                              "lib,lib.reflect,lib.spi,lib.kept,lib.orphan;version=\"1.0.0\"");
+        write(manifest, libraryManifest);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testJarBundle() throws Exception {
+        File bundle = new File(root, "app.jar");
+        Map<String, byte[]> entries = new TreeMap<String, byte[]>();
+        entries.put("app/App.class", classFile("app/App", "lib/Used", "lib.reflect.Loaded"));
+        createJar(bundle, appManifest(), entries);
+
+        prune(bundle);
+        assertPruned();
+    }
+
+    public void testDirectoryBundle() throws Exception {
+        File bundle = new File(root, "app/target/classes");
+        write(classFile("app/App", "lib/Used", "lib.reflect.Loaded"), new File(bundle, "app/App.class"));
+        write(appManifest(), new File(bundle, JarFile.MANIFEST_NAME));
+
+        prune(bundle);
+        assertPruned();
+    }
+
+    public void testMissingBundle() throws Exception {
+        File bundle = new File(root, "missing/target/classes");
+        BundlePruner pruner = new BundlePruner(new SystemStreamLog(), null);
+        pruner.addBundle(bundle);
+        pruner.addLibrary(library, libraryManifest);
+        try {
+            pruner.prune(new File(root, "pruning-report.txt"));
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf(bundle.toString()) != -1);
+        }
+        // Nothing is removed
+        assertEquals(8, JarMetadata.get(library).getClassCount());
+    }
+
+    private void prune(File bundle) throws IOException {
+        BundlePruner pruner = new BundlePruner(new SystemStreamLog(), new String[] {"lib.kept.*"});
+        pruner.addBundle(bundle);
+        pruner.addLibrary(library, libraryManifest);
+        pruner.prune(new File(root, "pruning-report.txt"));
+    }
+
+    private void assertPruned() throws IOException {
+        JarMetadata metadata = JarMetadata.get(library);
+        assertTrue(metadata.hasEntriesUnder("lib/Used.class"));
+        assertTrue(metadata.hasEntriesUnder("lib/Helper.class"));
+        assertTrue(metadata.hasEntriesUnder("lib/Activator.class"));
+        assertTrue(metadata.hasEntriesUnder("lib/reflect/Loaded.class"));
+        assertTrue(metadata.hasEntriesUnder("lib/spi/Provider.class"));
+        assertTrue(metadata.hasEntriesUnder("lib/kept/Kept.class"));
+        assertTrue(metadata.hasEntriesUnder("META-INF/services/lib.spi.Api"));
+        assertFalse(metadata.hasEntriesUnder("lib/Unused.class"));
+        assertFalse(metadata.hasEntriesUnder("lib/orphan/"));
+        assertEquals(6, metadata.getClassCount());
+
+        // The package without classes is no longer exported
+        FileInputStream is = new FileInputStream(libraryManifest);
+        Manifest manifest = new Manifest(is);
+        is.close();
+        String exports = manifest.getMainAttributes().getValue("Export-Package");
+        assertTrue(exports, exports.indexOf("lib.spi") != -1);
+        assertTrue(exports, exports.indexOf("lib.orphan") == -1);
+    }
+
+    private static Manifest appManifest() {
+        Manifest manifest = manifest("app");
+        manifest.getMainAttributes().putValue("Bundle-Activator", "lib.Activator");
+        manifest.getMainAttributes().putValue("Import-Package", "lib,lib.reflect");
+        return manifest;
+    }
+
+    private static Manifest manifest(String name) {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Manifest-Version", "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", name);
+        attributes.putValue("Bundle-Version", "1.0.0");
+        return manifest;
+    }
+
+    /**
+     * Returns a class file with the given name, referencing the given classes from its constant
+     * pool. The class has no members, it is only read by the pruner.
+     */
+    private static byte[] classFile(String name, String... references) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeInt(0xCAFEBABE);
+        os.writeShort(0);
+        os.writeShort(49);
+        // #1 this, #2 its name, #3 super, #4 its name, then a class or a string and its value per reference
+        os.writeShort(5 + 2 * references.length);
+        os.writeByte(7);
+        os.writeShort(2);
+        os.writeByte(1);
+        os.writeUTF(name);
+        os.writeByte(7);
+        os.writeShort(4);
+        os.writeByte(1);
+        os.writeUTF("java/lang/Object");
+        for (int i = 0; i < references.length; i++) {
+            // Class names in the internal form are class constants, the others are string constants
+            os.writeByte(references[i].indexOf('/') != -1 ? 7 : 8);
+            os.writeShort(6 + 2 * i);
+            os.writeByte(1);
+            os.writeUTF(references[i]);
+        }
+        os.writeShort(0x21);
+        os.writeShort(1);
+        os.writeShort(3);
+        os.writeShort(0);
+        os.writeShort(0);
+        os.writeShort(0);
+        os.writeShort(0);
+        os.close();
+        return bos.toByteArray();
+    }
+
+    private static void createJar(File file, Manifest manifest, Map<String, byte[]> entries) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream fos = new FileOutputStream(file);
+        JarOutputStream jos = manifest == null ? new JarOutputStream(fos) : new JarOutputStream(fos, manifest);
+        try {
+            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
+                jos.putNextEntry(new ZipEntry(e.getKey()));
+                jos.write(e.getValue());
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void write(Manifest manifest, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            manifest.write(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void write(byte[] content, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+
+/**
+ * Works out which bundles can see a package from more than one bundle, based on their manifests.
+ * <p>
+ * A package imported with Import-Package is wired to a single exporter, so only the split packages can
+ * be visible twice: the packages exported by several bundles on the Require-Bundle of a bundle (including
+ * the ones re-exported by them), or exported by a required bundle and also contained in the bundle itself.
+ * The private packages of a bundle are only visible to itself and never conflict. The wiring is not
+ * checked against the version constraints; a required bundle resolves to the highest version with that
+ * symbolic name.
+ */
+class BundleVisibility {
+    private static final String BUNDLE_SYMBOLICNAME = "Bundle-SymbolicName";
+    private static final String BUNDLE_VERSION = "Bundle-Version";
+    private static final String EXPORT_PACKAGE = "Export-Package";
+    private static final String IMPORT_PACKAGE = "Import-Package";
+    private static final String REQUIRE_BUNDLE = "Require-Bundle";
+
+    /**
+     * The manifest headers read to work out the visibility
+     */
+    static final String[] HEADERS =
+        {BUNDLE_SYMBOLICNAME, BUNDLE_VERSION, EXPORT_PACKAGE, IMPORT_PACKAGE, REQUIRE_BUNDLE};
+
+    private final List<Bundle> bundles = new ArrayList<Bundle>();
+    private final Set<String> exportedPackages = new HashSet<String>();
+    private final Map<BitSet, Set<String>> sharedPackages = new LinkedHashMap<BitSet, Set<String>>();
+    private final Map<BitSet, Set<String>> viewers = new HashMap<BitSet, Set<String>>();
+    private int ignored;
+
+    private static class Bundle {
+        private String symbolicName;
+        private String version;
+        // The ids of the listings making up the bundle
+        private BitSet members = new BitSet();
+        // Package folders, such as org/example
+        private Set<String> packages = new HashSet<String>();
+        private Set<String> exports = new HashSet<String>();
+        private Set<String> imports = new HashSet<String>();
+        private List<String> requires = new ArrayList<String>();
+        private Set<String> reexports = new HashSet<String>();
+
+        @Override
+        public String toString() {
+            return symbolicName + "_" + version;
+        }
+    }
+
+    /**
+     * @param listings The listings, their ids are their positions in the list
+     */
+    BundleVisibility(List<ClassListing> listings) {
+        Map<ClassListing, Bundle> owners = new HashMap<ClassListing, Bundle>();
+        Map<File, Bundle> classPathJars = new HashMap<File, Bundle>();
+        for (ClassListing listing : listings) {
+            if (listing.getOwner() == listing) {
+                Bundle bundle = parse(listing.getManifest() == null ? null : listing.getManifest().getMainAttributes());
+                if (bundle != null) {
+                    owners.put(listing, bundle);
+                    bundles.add(bundle);
+                    for (File jar : listing.getClassPathJars()) {
+                        classPathJars.put(jar, bundle);
+                    }
+                }
+            }
+        }
+
+        for (int id = 0; id < listings.size(); id++) {
+            ClassListing listing = listings.get(id);
+            Bundle bundle = classPathJars.get(listing.getFile());
+            if (bundle == null) {
+                bundle = owners.get(listing.getOwner());
+            }
+            if (bundle == null) {
+                if (listing.getOwner() == listing) {
+                    ignored++;
+                }
+                continue;
+            }
+            bundle.members.set(id);
+            String pkg = null;
+            for (int c = 0, count = listing.getClassCount(); c < count; c++) {
+                String name = listing.getClassEntry(c);
+                int index = name.lastIndexOf('/');
+                if (index != -1 && (pkg == null || index != pkg.length() || !name.startsWith(pkg))) {
+                    pkg = name.substring(0, index);
+                    bundle.packages.add(pkg);
+                }
+            }
+        }
+
+        resolve();
+    }
+
+    private static Bundle parse(Attributes attributes) {
+        if (attributes == null) {
+            return null;
+        }
+        String bsn = attributes.getValue(BUNDLE_SYMBOLICNAME);
+        if (bsn == null) {
+            return null;
+        }
+        Set<String> names = parseHeader(bsn).keySet();
+        if (names.isEmpty()) {
+            // An empty or attribute only Bundle-SymbolicName, the jar is not a valid bundle
+            return null;
+        }
+        Bundle bundle = new Bundle();
+        bundle.symbolicName = names.iterator().next();
+        bundle.version = attributes.getValue(BUNDLE_VERSION);
+        if (bundle.version == null) {
+            bundle.version = "0.0.0";
+        }
+        for (String pkg : parseHeader(attributes.getValue(EXPORT_PACKAGE)).keySet()) {
+            bundle.exports.add(pkg.replace('.', '/'));
+        }
+        for (String pkg : parseHeader(attributes.getValue(IMPORT_PACKAGE)).keySet()) {
+            bundle.imports.add(pkg.replace('.', '/'));
+        }
+        for (Map.Entry<String, List<String>> e : parseHeader(attributes.getValue(REQUIRE_BUNDLE)).entrySet()) {
+            bundle.requires.add(e.getKey());
+            for (String param : e.getValue()) {
+                // The value may be quoted, visibility:="reexport"
+                if (param.replace(" ", "").replace("\"", "").equals("visibility:=reexport")) {
+                    bundle.reexports.add(e.getKey());
+                }
+            }
+        }
+        return bundle;
+    }
+
+    private void resolve() {
+        Map<String, Bundle> byName = new HashMap<String, Bundle>();
+        Map<String, List<Bundle>> exporters = new HashMap<String, List<Bundle>>();
+        for (Bundle bundle : bundles) {
+            Bundle existing = byName.get(bundle.symbolicName);
+            if (existing == null || compareVersions(bundle.version, existing.version) > 0) {
+                byName.put(bundle.symbolicName, bundle);
+            }
+            for (String pkg : bundle.exports) {
+                exportedPackages.add(pkg);
+                List<Bundle> list = exporters.get(pkg);
+                if (list == null) {
+                    list = new ArrayList<Bundle>(2);
+                    exporters.put(pkg, list);
+                }
+                list.add(bundle);
+            }
+        }
+
+        for (Bundle bundle : bundles) {
+            Set<Bundle> required = new LinkedHashSet<Bundle>();
+            addRequiredBundles(bundle, byName, required);
+            required.remove(bundle);
+            if (required.isEmpty()) {
+                continue;
+            }
+
+            Set<String> candidates = new TreeSet<String>();
+            for (Bundle r : required) {
+                candidates.addAll(r.exports);
+            }
+            for (String pkg : candidates) {
+                List<Bundle> list = exporters.get(pkg);
+                if (bundle.imports.contains(pkg) && list != null && (list.size() > 1 || list.get(0) != bundle)) {
+                    // Wired to one exporter
+                    continue;
+                }
+                BitSet sources = new BitSet();
+                int count = 0;
+                for (Bundle r : required) {
+                    if (r.exports.contains(pkg) && r.packages.contains(pkg)) {
+                        sources.or(r.members);
+                        count++;
+                    }
+                }
+                if (bundle.packages.contains(pkg)) {
+                    sources.or(bundle.members);
+                    count++;
+                }
+                if (count < 2) {
+                    continue;
+                }
+                Set<String> pkgs = sharedPackages.get(sources);
+                if (pkgs == null) {
+                    pkgs = new TreeSet<String>();
+                    sharedPackages.put(sources, pkgs);
+                    viewers.put(sources, new TreeSet<String>());
+                }
+                pkgs.add(pkg);
+                viewers.get(sources).add(bundle.toString());
+            }
+        }
+    }
+
+    private static void addRequiredBundles(Bundle bundle, Map<String, Bundle> byName, Set<Bundle> required) {
+        for (String name : bundle.requires) {
+            Bundle r = byName.get(name);
+            if (r != null && required.add(r)) {
+                // The bundles re-exported by a required bundle are visible too
+                addReexportedBundles(r, byName, required);
+            }
+        }
+    }
+
+    private static void addReexportedBundles(Bundle bundle, Map<String, Bundle> byName, Set<Bundle> required) {
+        for (String reexport : bundle.reexports) {
+            Bundle r = byName.get(reexport);
+            if (r != null && required.add(r)) {
+                addReexportedBundles(r, byName, required);
+            }
+        }
+    }
+
+    /**
+     * @return The number of bundles found
+     */
+    int getBundleCount() {
+        return bundles.size();
+    }
+
+    /**
+     * @return The number of jars or directories which are not bundles
+     */
+    int getIgnoredCount() {
+        return ignored;
+    }
+
+    /**
+     * @return The package folders exported by any bundle
+     */
+    Set<String> getExportedPackages() {
+        return exportedPackages;
+    }
+
+    /**
+     * @return The package folders keyed by the ids of the listings a bundle can see them from together
+     */
+    Map<BitSet, Set<String>> getSharedPackages() {
+        return sharedPackages;
+    }
+
+    /**
+     * @param sources The ids of the listings
+     * @return The bundles which can see the shared packages of the listings
+     */
+    Set<String> getViewers(BitSet sources) {
+        return viewers.get(sources);
+    }
+
+    /**
+     * Parse a manifest header into its paths and their parameters, ignoring the quoted separators
+     */
+    static Map<String, List<String>> parseHeader(String header) {
+        Map<String, List<String>> clauses = new LinkedHashMap<String, List<String>>();
+        if (header == null) {
+            return clauses;
+        }
+        for (String clause : split(header, ',')) {
+            List<String> paths = new ArrayList<String>();
+            List<String> params = new ArrayList<String>();
+            for (String part : split(clause, ';')) {
+                part = part.trim();
+                if (part.length() == 0) {
+                    continue;
+                }
+                if (part.indexOf('=') == -1) {
+                    paths.add(part);
+                } else {
+                    params.add(part);
+                }
+            }
+            for (String path : paths) {
+                clauses.put(path, params);
+            }
+        }
+        return clauses;
+    }
+
+    private static List<String> split(String value, char separator) {
+        List<String> parts = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == separator && !quoted) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts;
+    }
+
+    /**
+     * Compare two OSGi versions, the missing numbers are 0 and the qualifiers are compared as strings
+     */
+    static int compareVersions(String v1, String v2) {
+        String[] p1 = v1.trim().split("\\.", 4);
+        String[] p2 = v2.trim().split("\\.", 4);
+        for (int i = 0; i < 3; i++) {
+            int n1 = i < p1.length ? parseNumber(p1[i]) : 0;
+            int n2 = i < p2.length ? parseNumber(p2[i]) : 0;
+            if (n1 != n2) {
+                return n1 < n2 ? -1 : 1;
+            }
+        }
+        String q1 = p1.length > 3 ? p1[3] : "";
+        String q2 = p2.length > 3 ? p2[3] : "";
+        return q1.compareTo(q2);
+    }
+
+    private static int parseNumber(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
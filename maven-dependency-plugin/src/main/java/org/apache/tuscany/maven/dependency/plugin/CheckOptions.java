@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+
+/**
+ * The settings of a class conflict check, see {@link ClassPathHellDetector}. The setters return the
+ * options so that they can be chained:
+ * <pre>
+ * new CheckOptions().setVerbose(true).setThreads(4).setMaxConflicts(10)
+ * </pre>
+ */
+public class CheckOptions {
+    private boolean verbose;
+    private int threads;
+    private File cacheFile;
+    private ConflictReportWriter writer;
+    private int maxConflicts;
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * @param verbose Indicate if the list of classes will be reported, false by default
+     */
+    public CheckOptions setVerbose(boolean verbose) {
+        this.verbose = verbose;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads The number of threads used to scan, 0 (the default) to use one per processor
+     */
+    public CheckOptions setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public File getCacheFile() {
+        return cacheFile;
+    }
+
+    /**
+     * @param cacheFile The file caching the class listings of the jars between scans, null (the default)
+     *            to disable
+     */
+    public CheckOptions setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+        return this;
+    }
+
+    public ConflictReportWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @param writer The writer of the machine readable report, or null (the default)
+     */
+    public CheckOptions setWriter(ConflictReportWriter writer) {
+        this.writer = writer;
+        return this;
+    }
+
+    public int getMaxConflicts() {
+        return maxConflicts;
+    }
+
+    /**
+     * @param maxConflicts The number of conflicts after which the check stops, 0 (the default) for no
+     *            limit. When the check stops, the lists of classes of the conflicts found so far may be
+     *            incomplete.
+     */
+    public CheckOptions setMaxConflicts(int maxConflicts) {
+        this.maxConflicts = maxConflicts;
+        return this;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * A Maven plugin that check for class conflicts for the dependency jars of all the projects in the
+ * reactor. The union of the dependency jars is scanned once and each project is reported against its
+ * own dependencies.
+ *
+ * @goal check-reactor-class-conflicts
+ * @threadSafe
+ * @aggregator
+ * @requiresDependencyResolution test
+ * @description check for class conflicts for the dependency jars of the reactor projects
+ */
+public class ClassConflictsAggregatorMojo extends AbstractMojo {
+
+    /**
+     * The projects in the reactor.
+     *
+     * @parameter expression="${reactorProjects}"
+     * @required
+     * @readonly
+     */
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean ignoreTestScope;
+
+    /**
+     * @parameter default-value="true"
+     */
+    private boolean verbose;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean skip;
+
+    /**
+     * @parameter default-value="false"
+     */
+    private boolean failOnConflicts;
+
+    /**
+     * The number of threads used to scan the jar files, 0 to use one thread per processor
+     *
+     * @parameter default-value="0"
+     */
+    private int threads;
+
+    /**
+     * The file keeping the class listings of the scanned jars so that unchanged jars are not read again.
+     * The builds sharing the file merge their listings into it.
+     *
+     * @parameter default-value="${settings.localRepository}/.cache/class-conflicts.bin"
+     */
+    private File cacheFile;
+
+    /**
+     * Keep the class listings of the scanned jars in the cache file
+     *
+     * @parameter default-value="false"
+     */
+    private boolean useCache;
+
+    /**
+     * The file to write the conflicts to in a machine readable format, no report is written if not set
+     *
+     * @parameter
+     */
+    private File reportFile;
+
+    /**
+     * The format of the report file, json (JSON Lines) or csv
+     *
+     * @parameter default-value="json"
+     */
+    private String reportFormat;
+
+    /**
+     * The number of conflicts above which the check stops and fails, 0 for no limit. When the check
+     * stops, the lists of classes reported for the conflicts found so far may be incomplete.
+     *
+     * @parameter default-value="0"
+     */
+    private int maxConflicts;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            return;
+        }
+
+        LogWrapper wrapper = new ClassConflictsDetectorMojo.MavenLogWrapper(getLog());
+        Map<String, Set<File>> modules = new LinkedHashMap<String, Set<File>>();
+        for (MavenProject project : reactorProjects) {
+            Set<File> jarFiles = ClassConflictsDetectorMojo.getJarFiles(project, ignoreTestScope);
+            if (!jarFiles.isEmpty()) {
+                modules.put(project.getGroupId() + ":" + project.getArtifactId(), jarFiles);
+            }
+        }
+
+        ConflictReportWriter writer = null;
+        try {
+            if (reportFile != null) {
+                writer = ConflictReportWriter.create(reportFile, reportFormat);
+            }
+            CheckOptions options = new CheckOptions().setVerbose(verbose || wrapper.isDebugEnabled())
+                .setThreads(threads).setCacheFile(useCache ? cacheFile : null).setWriter(writer)
+                .setMaxConflicts(maxConflicts);
+            int conflicts = ClassPathHellDetector.check(modules, wrapper, options);
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            ClassConflictsDetectorMojo.check(conflicts, failOnConflicts, maxConflicts);
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            ClassConflictsDetectorMojo.close(writer);
+        }
+    }
+
+}
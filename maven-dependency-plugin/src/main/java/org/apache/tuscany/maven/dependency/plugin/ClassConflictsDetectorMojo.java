@@ -33,6 +33,7 @@ import org.apache.maven.project.MavenProject;
  * A Maven plugin that check for class conflicts for the dependency jars
  * 
  * @goal check-class-conflicts
+ * @threadSafe
  * @phase validate
  * @requiresDependencyResolution test
  * @description check for class conflicts for the dependency jars
@@ -75,6 +76,59 @@ public class ClassConflictsDetectorMojo extends AbstractMojo {
      */
     private boolean failOnConflicts;
 
+    /**
+     * The number of threads used to scan the jar files, 0 to use one thread per processor
+     *
+     * @parameter default-value="0"
+     */
+    private int threads;
+
+    /**
+     * The file keeping the class listings of the scanned jars so that unchanged jars are not read again.
+     * The builds sharing the file merge their listings into it.
+     *
+     * @parameter default-value="${settings.localRepository}/.cache/class-conflicts.bin"
+     */
+    private File cacheFile;
+
+    /**
+     * Keep the class listings of the scanned jars in the cache file
+     *
+     * @parameter default-value="false"
+     */
+    private boolean useCache;
+
+    /**
+     * The file to write the conflicts to in a machine readable format, no report is written if not set
+     *
+     * @parameter
+     */
+    private File reportFile;
+
+    /**
+     * The format of the report file, json (JSON Lines) or csv
+     *
+     * @parameter default-value="json"
+     */
+    private String reportFormat;
+
+    /**
+     * The number of conflicts above which the check stops and fails, 0 for no limit. When the check
+     * stops, the lists of classes reported for the conflicts found so far may be incomplete.
+     *
+     * @parameter default-value="0"
+     */
+    private int maxConflicts;
+
+    /**
+     * Only report the classes of exported packages that a bundle can see from more than one bundle, based
+     * on the Export-Package, Import-Package and Require-Bundle headers. The jars which are not bundles are
+     * ignored.
+     *
+     * @parameter default-value="false"
+     */
+    private boolean osgiVisibility;
+
     public void execute() throws MojoExecutionException {
         if (skip) {
             return;
@@ -83,23 +137,70 @@ public class ClassConflictsDetectorMojo extends AbstractMojo {
         Log log = getLog();
         LogWrapper wrapper = new MavenLogWrapper(log);
 
+        ConflictReportWriter writer = null;
         try {
-            int conflicts = 0;
-            if (root != null) {
-                conflicts = ClassPathHellDetector.check(root, wrapper, verbose || wrapper.isDebugEnabled());
+            if (reportFile != null) {
+                writer = ConflictReportWriter.create(reportFile, reportFormat);
+            }
+            CheckOptions options = new CheckOptions().setVerbose(verbose || wrapper.isDebugEnabled())
+                .setThreads(threads).setCacheFile(useCache ? cacheFile : null).setWriter(writer)
+                .setMaxConflicts(maxConflicts);
+            int conflicts;
+            if (osgiVisibility) {
+                if (root != null) {
+                    conflicts = ClassPathHellDetector.checkBundles(root, wrapper, options);
+                } else {
+                    conflicts =
+                        ClassPathHellDetector.checkBundles(getJarFiles(project, ignoreTestScope), wrapper, options);
+                }
+            } else if (root != null) {
+                conflicts = ClassPathHellDetector.check(root, wrapper, options);
             } else {
-                conflicts = ClassPathHellDetector.check(getJarFiles(log), wrapper, verbose || wrapper.isDebugEnabled());
+                conflicts = ClassPathHellDetector.check(getJarFiles(project, ignoreTestScope), wrapper, options);
             }
-            if (conflicts >= 1 && failOnConflicts) {
-                throw new MojoExecutionException("Conflicting/overlapping classes are found");
+            if (writer != null) {
+                writer.close();
+                writer = null;
             }
+            check(conflicts, failOnConflicts, maxConflicts);
         } catch (IOException e) {
             throw new MojoExecutionException(e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            close(writer);
         }
 
     }
 
-    private Set<File> getJarFiles(Log log) {
+    static void check(int conflicts, boolean failOnConflicts, int maxConflicts) throws MojoExecutionException {
+        if (maxConflicts > 0 && conflicts > maxConflicts) {
+            throw new MojoExecutionException("Too many conflicting/overlapping classes are found, stopped after "
+                + maxConflicts);
+        }
+        if (conflicts >= 1 && failOnConflicts) {
+            throw new MojoExecutionException("Conflicting/overlapping classes are found");
+        }
+    }
+
+    static void close(ConflictReportWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Get the resolved jar artifacts of a project. Within a reactor build the artifacts of the other
+     * modules can resolve to their class directories, which are returned as well.
+     * @param project The project
+     * @param ignoreTestScope Indicate if the test scoped artifacts are left out
+     * @return The jar files and class directories
+     */
+    static Set<File> getJarFiles(MavenProject project, boolean ignoreTestScope) {
         Set<File> files = new HashSet<File>();
         for (Object a : project.getArtifacts()) {
             Artifact artifact = (Artifact)a;
@@ -107,8 +208,8 @@ public class ClassConflictsDetectorMojo extends AbstractMojo {
                 continue;
             }
             if (artifact.isResolved()) {
-                //Check if artifact is a jar & actually points to a file
-                if ("jar".equals(artifact.getType()) && (artifact.getFile() != null && artifact.getFile().isFile())) {
+                //Check if artifact is a jar & actually points to a file or a class directory
+                if ("jar".equals(artifact.getType()) && (artifact.getFile() != null && artifact.getFile().exists())) {
                     files.add(artifact.getFile());
                 }
             }
@@ -116,7 +217,7 @@ public class ClassConflictsDetectorMojo extends AbstractMojo {
         return files;
     }
 
-    private static class MavenLogWrapper implements LogWrapper {
+    static class MavenLogWrapper implements LogWrapper {
         private Log log;
 
         public MavenLogWrapper(Log log) {
@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact index of the class files found in a set of jars. Jars and class names are mapped to
+ * int ids, each class name is stored once and every occurrence of a class only takes a few ints
+ * in parallel arrays.
+ */
+class ClassIndex {
+    private static final int NONE = -1;
+
+    private final List<File> jars = new ArrayList<File>();
+    private final Map<File, Integer> jarIds = new HashMap<File, Integer>();
+    // Ids of the elements of the Bundle-ClassPath of a jar, named outer!/path, keyed by the outer jar
+    private final Map<File, List<Integer>> nestedJarIds = new HashMap<File, List<Integer>>();
+
+    // Class names by id, and an open addressing hash table of name id + 1
+    private String[] names = new String[1024];
+    private int nameCount;
+    private int[] table = new int[2048];
+
+    // Per name: first and last occurrence, and number of occurrences
+    private int[] first = new int[1024];
+    private int[] last = new int[1024];
+    private int[] counts = new int[1024];
+
+    // Per occurrence: jar id, size, crc, and next occurrence of the same name
+    private int[] occurrenceJar = new int[4096];
+    private int[] occurrenceSize = new int[4096];
+    private int[] occurrenceCrc = new int[4096];
+    private int[] next = new int[4096];
+    private int occurrenceCount;
+
+    /**
+     * A set of jars and the classes they have in common
+     */
+    static class Conflict {
+        private final int[] jarIds;
+        private final List<File> jars;
+        private final List<String> classes;
+
+        private Conflict(int[] jarIds, List<File> jars, List<String> classes) {
+            this.jarIds = jarIds;
+            this.jars = jars;
+            this.classes = classes;
+        }
+
+        /**
+         * @return The ids of the jars, in the same order as the jars
+         */
+        public int[] getJarIds() {
+            return jarIds;
+        }
+
+        public List<File> getJars() {
+            return jars;
+        }
+
+        /**
+         * @return The sorted class file names
+         */
+        public List<String> getClasses() {
+            return classes;
+        }
+    }
+
+    /**
+     * Add a jar, the jars are expected to be added in the order of their file names
+     * @param jar The jar file
+     * @return The id of the jar
+     */
+    int addJar(File jar) {
+        int id = jars.size();
+        jars.add(jar);
+        jarIds.put(jar, id);
+        String path = jar.getPath();
+        int index = path.indexOf("!/");
+        if (index != -1) {
+            File outer = new File(path.substring(0, index));
+            List<Integer> ids = nestedJarIds.get(outer);
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                nestedJarIds.put(outer, ids);
+            }
+            ids.add(id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the ids of the given jars and of the elements of their Bundle-ClassPath, ignoring the jars
+     * which are not in the index
+     * @param files The jar files
+     * @return The set of jar ids
+     */
+    BitSet getJarIds(Collection<File> files) {
+        BitSet ids = new BitSet(jars.size());
+        for (File f : files) {
+            Integer id = jarIds.get(f);
+            if (id != null) {
+                ids.set(id);
+            }
+            List<Integer> nested = nestedJarIds.get(f);
+            if (nested != null) {
+                for (int n : nested) {
+                    ids.set(n);
+                }
+            }
+        }
+        return ids;
+    }
+
+    File getJar(int id) {
+        return jars.get(id);
+    }
+
+    int size() {
+        return occurrenceCount;
+    }
+
+    void add(int jar, String name, long size, long crc) {
+        int id = nameId(name, true);
+        if (occurrenceCount == occurrenceJar.length) {
+            int capacity = occurrenceCount * 2;
+            occurrenceJar = grow(occurrenceJar, capacity);
+            occurrenceSize = grow(occurrenceSize, capacity);
+            occurrenceCrc = grow(occurrenceCrc, capacity);
+            next = grow(next, capacity);
+        }
+        int occurrence = occurrenceCount++;
+        occurrenceJar[occurrence] = jar;
+        // Class files are far below 2GB and a CRC-32 fits in an int
+        occurrenceSize[occurrence] = (int)size;
+        occurrenceCrc[occurrence] = (int)crc;
+        next[occurrence] = NONE;
+        if (counts[id] == 0) {
+            first[id] = occurrence;
+        } else {
+            next[last[id]] = occurrence;
+        }
+        last[id] = occurrence;
+        counts[id]++;
+    }
+
+    private int nameId(String name, boolean create) {
+        int mask = table.length - 1;
+        int slot = hash(name) & mask;
+        for (;;) {
+            int id = table[slot] - 1;
+            if (id == NONE) {
+                break;
+            }
+            if (names[id].equals(name)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return NONE;
+        }
+
+        int id = nameCount++;
+        if (id == names.length) {
+            int capacity = id * 2;
+            String[] newNames = new String[capacity];
+            System.arraycopy(names, 0, newNames, 0, id);
+            names = newNames;
+            first = grow(first, capacity);
+            last = grow(last, capacity);
+            counts = grow(counts, capacity);
+        }
+        names[id] = name;
+        table[slot] = id + 1;
+        if (nameCount * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private static String getPackage(String name) {
+        int index = name.lastIndexOf('/');
+        return index == -1 ? "" : name.substring(0, index);
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < nameCount; id++) {
+            int slot = hash(names[id]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Group the classes found more than once by the set of jars containing them
+     * @return The conflicts ordered by their list of jars
+     */
+    List<Conflict> getConflicts() {
+        return getConflicts(null);
+    }
+
+    /**
+     * Group the classes found more than once within a subset of the jars by the set of jars containing them
+     * @param scope The ids of the jars to consider, null for all the jars
+     * @return The conflicts ordered by their list of jars
+     */
+    List<Conflict> getConflicts(BitSet scope) {
+        return getConflicts(scope, null);
+    }
+
+    /**
+     * Group the classes of the given packages found more than once within a subset of the jars by the set
+     * of jars containing them
+     * @param scope The ids of the jars to consider, null for all the jars
+     * @param packages The package folders to consider, such as org/example, null for all the packages
+     * @return The conflicts ordered by their list of jars
+     */
+    List<Conflict> getConflicts(BitSet scope, Set<String> packages) {
+        return getConflicts(scope, packages, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Group the classes of the given packages found more than once within a subset of the jars by the set
+     * of jars containing them, stopping as soon as more than limit sets of jars are found. Only the groups
+     * found so far are kept, and when the detection stops their lists of classes only hold the classes
+     * found before the stop.
+     * @param scope The ids of the jars to consider, null for all the jars
+     * @param packages The package folders to consider, such as org/example, null for all the packages
+     * @param limit The number of conflicts after which the detection stops, Integer.MAX_VALUE for no limit
+     * @return The conflicts ordered by their list of jars. If the detection stopped, they are followed by
+     *         the conflict which exceeded the limit, so there are limit + 1 of them.
+     */
+    List<Conflict> getConflicts(BitSet scope, Set<String> packages, int limit) {
+        Map<BitSet, List<String>> groups = new LinkedHashMap<BitSet, List<String>>();
+        for (int id = 0; id < nameCount && groups.size() <= limit; id++) {
+            if (counts[id] > 1 && (packages == null || packages.contains(getPackage(names[id])))) {
+                BitSet key = new BitSet(jars.size());
+                int count = 0;
+                for (int o = first[id]; o != NONE; o = next[o]) {
+                    if (scope == null || scope.get(occurrenceJar[o])) {
+                        key.set(occurrenceJar[o]);
+                        count++;
+                    }
+                }
+                if (count < 2) {
+                    continue;
+                }
+                List<String> classes = groups.get(key);
+                if (classes == null) {
+                    classes = new ArrayList<String>();
+                    groups.put(key, classes);
+                }
+                classes.add(names[id]);
+            }
+        }
+
+        List<Conflict> conflicts = new ArrayList<Conflict>(groups.size());
+        Conflict exceeding = null;
+        for (Map.Entry<BitSet, List<String>> e : groups.entrySet()) {
+            BitSet key = e.getKey();
+            int[] ids = new int[key.cardinality()];
+            List<File> files = new ArrayList<File>(ids.length);
+            for (int i = key.nextSetBit(0), n = 0; i >= 0; i = key.nextSetBit(i + 1), n++) {
+                ids[n] = i;
+                files.add(jars.get(i));
+            }
+            List<String> classes = e.getValue();
+            Collections.sort(classes);
+            if (conflicts.size() < limit) {
+                conflicts.add(new Conflict(ids, files, classes));
+            } else {
+                exceeding = new Conflict(ids, files, classes);
+            }
+        }
+        Collections.sort(conflicts, new Comparator<Conflict>() {
+            public int compare(Conflict c1, Conflict c2) {
+                return c1.jars.toString().compareTo(c2.jars.toString());
+            }
+        });
+        if (exceeding != null) {
+            conflicts.add(exceeding);
+        }
+        return conflicts;
+    }
+
+    /**
+     * Compare the occurrences of a class
+     * @param name The class file name
+     * @return "X" if the sizes are different, "?" if the crcs are different, otherwise " "
+     */
+    String compare(String name) {
+        return compare(name, null);
+    }
+
+    /**
+     * Compare the occurrences of a class within a subset of the jars
+     * @param name The class file name
+     * @param scope The ids of the jars to consider, null for all the jars
+     * @return "X" if the sizes are different, "?" if the crcs are different, otherwise " "
+     */
+    String compare(String name, BitSet scope) {
+        int id = nameId(name, false);
+        if (id == NONE) {
+            return " ";
+        }
+        int size = 0;
+        int crc = 0;
+        for (int o = first[id]; o != NONE; o = next[o]) {
+            if (scope != null && !scope.get(occurrenceJar[o])) {
+                continue;
+            }
+            if (size != 0 && occurrenceSize[o] != size) {
+                // Different size
+                return "X";
+            }
+            if (crc != 0 && occurrenceCrc[o] != crc) {
+                // Different crc
+                return "?";
+            }
+            size = occurrenceSize[o];
+            crc = occurrenceCrc[o];
+        }
+        return " ";
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+import org.apache.tuscany.maven.osgi.JarMetadata;
+
+/**
+ * The class files of one classpath element: a jar, a jar nested in another jar, a folder of a jar or a
+ * class directory such as an exploded bundle. The class files are sorted by name.
+ * <p>
+ * The listings of the nested jars are kept in a bounded cache of soft references, like the records of
+ * {@link JarMetadata}, so that a nested jar is only streamed again when its outer jar changes.
+ */
+class ClassListing {
+    public static final String BUNDLE_CLASSPATH = "Bundle-ClassPath";
+    public static final String BUNDLE_SYMBOLICNAME = "Bundle-SymbolicName";
+
+    private static final int MAX_CACHE_SIZE = 512;
+
+    // The listings of the nested jars keyed by outer!/path, with the absolute path of the outer jar
+    private static final Map<String, SoftReference<NestedJar>> nestedJars =
+        new LinkedHashMap<String, SoftReference<NestedJar>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SoftReference<NestedJar>> eldest) {
+                return size() > MAX_CACHE_SIZE;
+            }
+        };
+
+    private final File file;
+    private final JarMetadata metadata;
+    private final String[] names;
+    private final long[] sizes;
+    private final long[] crcs;
+    // The jar or directory whose Bundle-ClassPath holds this element, itself for a top level element
+    private ClassListing owner = this;
+    private Manifest manifest;
+    // The jars on the Bundle-ClassPath of an exploded bundle, which are listed on their own
+    private List<File> classPathJars = Collections.emptyList();
+
+    private ClassListing(File file, JarMetadata metadata) {
+        this.file = file;
+        this.metadata = metadata;
+        this.names = null;
+        this.sizes = null;
+        this.crcs = null;
+    }
+
+    private ClassListing(File file, ClassListing listing) {
+        this.file = file;
+        this.metadata = listing.metadata;
+        this.names = listing.names;
+        this.sizes = listing.sizes;
+        this.crcs = listing.crcs;
+    }
+
+    private ClassListing(File file, List<ClassEntry> classes) {
+        Collections.sort(classes);
+        this.file = file;
+        this.metadata = null;
+        this.names = new String[classes.size()];
+        this.sizes = new long[names.length];
+        this.crcs = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ClassEntry c = classes.get(i);
+            names[i] = c.name;
+            sizes[i] = c.size;
+            crcs[i] = c.crc;
+        }
+    }
+
+    private static class ClassEntry implements Comparable<ClassEntry> {
+        private final String name;
+        private final long size;
+        private final long crc;
+
+        private ClassEntry(String name, long size, long crc) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        public int compareTo(ClassEntry other) {
+            return name.compareTo(other.name);
+        }
+    }
+
+    /**
+     * The listing of a nested jar, and the length and last modification time of the outer jar it was
+     * read from
+     */
+    private static class NestedJar {
+        private final long length;
+        private final long lastModified;
+        private final ClassListing listing;
+
+        private NestedJar(long length, long lastModified, ClassListing listing) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.listing = listing;
+        }
+    }
+
+    /**
+     * The file of the classpath element, nested elements are named <code>outer.jar!/path</code>
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * The top level jar or directory this element belongs to
+     */
+    public ClassListing getOwner() {
+        return owner;
+    }
+
+    /**
+     * The manifest of a top level jar or directory, null for a nested element or if there is none
+     */
+    public Manifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * The jars on the Bundle-ClassPath of an exploded bundle directory. They are found and listed as top
+     * level jars when the directory is scanned.
+     */
+    public List<File> getClassPathJars() {
+        return classPathJars;
+    }
+
+    public int getClassCount() {
+        return metadata != null ? metadata.getClassCount() : names.length;
+    }
+
+    public String getClassEntry(int index) {
+        return metadata != null ? metadata.getClassEntry(index) : names[index];
+    }
+
+    public long getClassSize(int index) {
+        return metadata != null ? metadata.getClassSize(index) : sizes[index];
+    }
+
+    public long getClassCrc(int index) {
+        return metadata != null ? metadata.getClassCrc(index) : crcs[index];
+    }
+
+    /**
+     * List the class files of a jar and of the jars and folders on its Bundle-ClassPath. The nested jars
+     * are streamed from the outer jar without being extracted.
+     * @param metadata The jar
+     * @return The listings, starting with the jar itself
+     * @throws IOException
+     */
+    static List<ClassListing> list(JarMetadata metadata) throws IOException {
+        List<ClassListing> listings = new ArrayList<ClassListing>();
+        ClassListing owner = new ClassListing(metadata.getFile(), metadata);
+        owner.manifest = metadata.getManifest();
+        listings.add(owner);
+
+        List<String> classPath = getBundleClassPath(owner.manifest);
+        if (classPath.isEmpty()) {
+            return listings;
+        }
+        File file = metadata.getFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        JarFile jar = null;
+        try {
+            for (String path : classPath) {
+                if (path.endsWith("/")) {
+                    if (metadata.hasEntriesUnder(path)) {
+                        ClassListing listing = listFolder(metadata, path);
+                        listing.owner = owner;
+                        listings.add(listing);
+                    }
+                } else if (Collections.binarySearch(metadata.getEntries(), path) >= 0) {
+                    File nested = new File(file.getPath() + "!/" + path);
+                    String key = file.getAbsolutePath() + "!/" + path;
+                    ClassListing listing = getNestedJar(key, length, lastModified);
+                    if (listing == null) {
+                        if (jar == null) {
+                            jar = new JarFile(file, false);
+                        }
+                        JarEntry entry = jar.getJarEntry(path);
+                        listing = listNestedJar(nested, jar.getInputStream(entry));
+                        synchronized (nestedJars) {
+                            nestedJars.put(key, new SoftReference<NestedJar>(new NestedJar(length, lastModified,
+                                                                                           listing)));
+                        }
+                    }
+                    // The cached listing is shared, each scan gets its own copy to set the owner
+                    listing = new ClassListing(nested, listing);
+                    listing.owner = owner;
+                    listings.add(listing);
+                }
+            }
+        } finally {
+            if (jar != null) {
+                jar.close();
+            }
+        }
+        return listings;
+    }
+
+    /**
+     * Write the listings of a jar, as returned by {@link #list(JarMetadata)}, in the format read by
+     * {@link #readFrom(DataInputStream, File)}. Only the class entries with their sizes and CRCs are
+     * written, and the manifest headers read by {@link BundleVisibility}.
+     * @param listings The listings of the jar, starting with the jar itself
+     * @param os The output stream
+     * @throws IOException
+     */
+    static void writeTo(List<ClassListing> listings, DataOutputStream os) throws IOException {
+        ClassListing owner = listings.get(0);
+        List<String> headers = new ArrayList<String>();
+        if (owner.manifest != null) {
+            Attributes attributes = owner.manifest.getMainAttributes();
+            for (String header : BundleVisibility.HEADERS) {
+                String value = attributes.getValue(header);
+                if (value != null) {
+                    headers.add(header);
+                    headers.add(value);
+                }
+            }
+        }
+        os.writeInt(headers.size() / 2);
+        for (String s : headers) {
+            os.writeUTF(s);
+        }
+
+        // The nested elements are written with their path in the jar
+        int prefix = owner.file.getPath().length() + 2;
+        os.writeInt(listings.size());
+        for (ClassListing listing : listings) {
+            os.writeUTF(listing == owner ? "" : listing.file.getPath().substring(prefix));
+            int count = listing.getClassCount();
+            os.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                os.writeUTF(listing.getClassEntry(i));
+                os.writeLong(listing.getClassSize(i));
+                os.writeLong(listing.getClassCrc(i));
+            }
+        }
+    }
+
+    /**
+     * Read the listings of a jar written by {@link #writeTo(List, DataOutputStream)}. The manifest of the
+     * jar only has the headers read by {@link BundleVisibility}, or is null if it had none of them.
+     * @param is The input stream
+     * @param file The jar file
+     * @return The listings, starting with the jar itself
+     * @throws IOException
+     */
+    static List<ClassListing> readFrom(DataInputStream is, File file) throws IOException {
+        Manifest manifest = null;
+        for (int i = is.readInt(); i > 0; i--) {
+            if (manifest == null) {
+                manifest = new Manifest();
+            }
+            manifest.getMainAttributes().putValue(is.readUTF(), is.readUTF());
+        }
+
+        int size = is.readInt();
+        List<ClassListing> listings = new ArrayList<ClassListing>(size);
+        for (int l = 0; l < size; l++) {
+            String path = is.readUTF();
+            List<ClassEntry> classes = new ArrayList<ClassEntry>();
+            for (int i = is.readInt(); i > 0; i--) {
+                classes.add(new ClassEntry(is.readUTF(), is.readLong(), is.readLong()));
+            }
+            ClassListing listing = new ClassListing(l == 0 ? file : new File(file.getPath() + "!/" + path), classes);
+            if (l == 0) {
+                listing.manifest = manifest;
+            } else {
+                listing.owner = listings.get(0);
+            }
+            listings.add(listing);
+        }
+        return listings;
+    }
+
+    /**
+     * Get the cached listing of a nested jar if its outer jar has not changed since it was read
+     * @param key The absolute path of the outer jar, followed by !/ and the path of the nested jar
+     * @param length The length of the outer jar
+     * @param lastModified The last modification time of the outer jar
+     * @return The listing, or null
+     */
+    private static ClassListing getNestedJar(String key, long length, long lastModified) {
+        NestedJar nested = null;
+        synchronized (nestedJars) {
+            SoftReference<NestedJar> ref = nestedJars.get(key);
+            if (ref != null) {
+                nested = ref.get();
+            }
+        }
+        if (nested != null && nested.length == length && nested.lastModified == lastModified) {
+            return nested.listing;
+        }
+        return null;
+    }
+
+    private static ClassListing listFolder(JarMetadata metadata, String prefix) {
+        List<ClassEntry> classes = new ArrayList<ClassEntry>();
+        for (int i = 0, n = metadata.getClassCount(); i < n; i++) {
+            String name = metadata.getClassEntry(i);
+            if (name.startsWith(prefix)) {
+                classes.add(new ClassEntry(name.substring(prefix.length()), metadata.getClassSize(i), metadata
+                    .getClassCrc(i)));
+            }
+        }
+        File file = new File(metadata.getFile().getPath() + "!/" + prefix);
+        return new ClassListing(file, classes);
+    }
+
+    private static ClassListing listNestedJar(File file, InputStream is) throws IOException {
+        List<ClassEntry> classes = new ArrayList<ClassEntry>();
+        JarInputStream jis = new JarInputStream(new BufferedInputStream(is), false);
+        try {
+            byte[] buf = new byte[8192];
+            CRC32 crc = new CRC32();
+            for (JarEntry entry = jis.getNextJarEntry(); entry != null; entry = jis.getNextJarEntry()) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                // Entries written with a data descriptor have no size or crc in their local header
+                crc.reset();
+                long size = 0;
+                for (int len = jis.read(buf); len != -1; len = jis.read(buf)) {
+                    crc.update(buf, 0, len);
+                    size += len;
+                }
+                classes.add(new ClassEntry(entry.getName(), size, crc.getValue()));
+            }
+        } finally {
+            jis.close();
+        }
+        return new ClassListing(file, classes);
+    }
+
+    /**
+     * List the class files under a directory, and under the folders on its Bundle-ClassPath if it is an
+     * exploded bundle, see {@link #isExplodedBundle(Manifest)}. The jars on the Bundle-ClassPath are not
+     * listed as they are found by scanning the directory.
+     * @param dir The directory
+     * @return The listings, starting with the directory itself
+     * @throws IOException
+     */
+    static List<ClassListing> list(File dir) throws IOException {
+        List<ClassListing> listings = new ArrayList<ClassListing>();
+        ClassListing owner = listDirectory(dir);
+        listings.add(owner);
+
+        File mf = new File(dir, JarFile.MANIFEST_NAME);
+        if (mf.isFile()) {
+            InputStream is = new BufferedInputStream(new FileInputStream(mf));
+            try {
+                owner.manifest = new Manifest(is);
+            } finally {
+                is.close();
+            }
+            if (!isExplodedBundle(owner.manifest)) {
+                return listings;
+            }
+            owner.classPathJars = new ArrayList<File>();
+            for (String path : getBundleClassPath(owner.manifest)) {
+                File file = new File(dir, path);
+                if (path.endsWith("/")) {
+                    if (file.isDirectory()) {
+                        ClassListing listing = listDirectory(file);
+                        listing.owner = owner;
+                        listings.add(listing);
+                    }
+                } else if (file.isFile()) {
+                    owner.classPathJars.add(file);
+                }
+            }
+        }
+        return listings;
+    }
+
+    /**
+     * Test if a directory is an exploded bundle, that is if it has a manifest with a Bundle-SymbolicName.
+     * A class directory with a plain manifest, such as target/classes, is not.
+     * @param dir The directory
+     * @return true if the directory is an exploded bundle
+     * @throws IOException
+     */
+    static boolean isExplodedBundle(File dir) throws IOException {
+        File mf = new File(dir, JarFile.MANIFEST_NAME);
+        if (!mf.isFile()) {
+            return false;
+        }
+        InputStream is = new BufferedInputStream(new FileInputStream(mf));
+        try {
+            return isExplodedBundle(new Manifest(is));
+        } finally {
+            is.close();
+        }
+    }
+
+    private static boolean isExplodedBundle(Manifest manifest) {
+        return manifest.getMainAttributes().getValue(BUNDLE_SYMBOLICNAME) != null;
+    }
+
+    private static ClassListing listDirectory(File dir) throws IOException {
+        List<ClassEntry> classes = new ArrayList<ClassEntry>();
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[8192];
+        listDirectory(dir, "", classes, crc, buf);
+        return new ClassListing(dir, classes);
+    }
+
+    private static void listDirectory(File dir, String prefix, List<ClassEntry> classes, CRC32 crc, byte[] buf)
+        throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                listDirectory(f, name + "/", classes, crc, buf);
+            } else if (name.endsWith(".class")) {
+                crc.reset();
+                InputStream is = new FileInputStream(f);
+                try {
+                    for (int len = is.read(buf); len != -1; len = is.read(buf)) {
+                        crc.update(buf, 0, len);
+                    }
+                } finally {
+                    is.close();
+                }
+                classes.add(new ClassEntry(name, f.length(), crc.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Get the jars and folders on the Bundle-ClassPath, leaving out the bundle itself (".")
+     */
+    private static List<String> getBundleClassPath(Manifest manifest) {
+        List<String> paths = new ArrayList<String>();
+        if (manifest == null) {
+            return paths;
+        }
+        String value = manifest.getMainAttributes().getValue(BUNDLE_CLASSPATH);
+        if (value == null) {
+            return paths;
+        }
+        for (String path : value.split(",")) {
+            int index = path.indexOf(';');
+            if (index != -1) {
+                path = path.substring(0, index);
+            }
+            path = path.trim();
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            if (path.length() == 0 || path.equals(".")) {
+                continue;
+            }
+            if (!path.endsWith(".jar") && !path.endsWith("/")) {
+                // A folder, unless it is a jar entry without the .jar extension
+                path = path + "/";
+            }
+            paths.add(path);
+        }
+        return paths;
+    }
+}
@@ -3,17 +3,27 @@ package org.apache.tuscany.maven.dependency.plugin;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.apache.tuscany.maven.osgi.JarMetadata;
 
 /**
  * Scanning the folder to find jar files and detect class conflicts
@@ -21,17 +31,52 @@ import java.util.jar.JarFile;
 public class ClassPathHellDetector {
 
     /**
-     * arg[0]: The root directory
+     * arg[0]: The root directory, optionally preceded by --watch to keep checking the directory
      * @param args
      */
     public static void main(String[] args) throws Exception {
         boolean verbose = Boolean.parseBoolean(System.getProperty("verbose", "true"));
+        int threads = Integer.parseInt(System.getProperty("threads", "0"));
+        String cache = System.getProperty("cache");
+        String report = System.getProperty("report");
+        String format = System.getProperty("format", ConflictReportWriter.JSON);
+        int maxConflicts = Integer.parseInt(System.getProperty("maxConflicts", "0"));
+        boolean osgi = Boolean.getBoolean("osgi");
+        long interval = Long.parseLong(System.getProperty("interval", "2000"));
+        boolean watch = false;
         File root = new File(".");
-        if (args.length >= 1) {
-            root = new File(args[0]);
+        for (String arg : args) {
+            if ("--watch".equals(arg)) {
+                watch = true;
+            } else {
+                root = new File(arg);
+            }
         }
         LogWrapper log = new ConsoleLogWrapper();
-        check(root, log, verbose);
+        if (watch) {
+            watch(root, log, verbose, threads, interval);
+            return;
+        }
+        ConflictReportWriter writer = null;
+        if (report != null) {
+            writer = ConflictReportWriter.create(new File(report), format);
+        }
+        try {
+            CheckOptions options = new CheckOptions().setVerbose(verbose).setThreads(threads).setWriter(writer)
+                .setMaxConflicts(maxConflicts);
+            if (cache != null) {
+                options.setCacheFile(new File(cache));
+            }
+            if (osgi) {
+                checkBundles(root, log, options);
+            } else {
+                check(root, log, options);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
     }
 
     /**
@@ -43,8 +88,20 @@ public class ClassPathHellDetector {
      * @throws IOException
      */
     public static int check(File root, LogWrapper log, boolean verbose) throws IOException {
-        Set<File> jarFiles = findJarFiles(root);
-        return check(jarFiles, log, verbose);
+        return check(root, log, new CheckOptions().setVerbose(verbose));
+    }
+
+    /**
+     * Recursively check the jar files under the given root directory
+     * @param root The root directory
+     * @param log The log
+     * @param options The options of the check
+     * @return The number of conflicts at jar level, maxConflicts + 1 if the check stopped at the limit
+     * @throws IOException
+     */
+    public static int check(File root, LogWrapper log, CheckOptions options) throws IOException {
+        Set<File> jarFiles = findJarFiles(root, options.getThreads());
+        return check(jarFiles, log, options);
     }
 
     /**
@@ -56,214 +113,708 @@ public class ClassPathHellDetector {
      * @throws IOException
      */
     public static int check(Set<File> jarFiles, LogWrapper log, boolean verbose) throws IOException {
-        Map<String, Collection<ClassFile>> classToFileMapping = new HashMap<String, Collection<ClassFile>>();
-        for (File f : jarFiles) {
-            if (log.isDebugEnabled()) {
-                log.debug("Scanning " + f);
+        return check(jarFiles, log, new CheckOptions().setVerbose(verbose));
+    }
+
+    /**
+     * Check the given list of jars to find out conflicting classes. The jars are scanned concurrently
+     * and the results are merged in the order of the jar file names so the report is stable. With a cache
+     * file, the class listings of the jars are kept so that unchanged jars are not opened by the next
+     * scan. The conflicts are also written to the report writer as they are reported.
+     * @param jarFiles The list of jar files
+     * @param log The log
+     * @param options The options of the check
+     * @return The number of conflicts at jar level, maxConflicts + 1 if the check stopped at the limit
+     * @throws IOException
+     */
+    public static int check(Set<File> jarFiles, LogWrapper log, CheckOptions options) throws IOException {
+        ClassIndex index = index(jarFiles, log, options.getThreads(), options.getCacheFile());
+        return report(index,
+                      null,
+                      null,
+                      log,
+                      options.isVerbose(),
+                      options.getWriter(),
+                      getLimit(options.getMaxConflicts()));
+    }
+
+    /**
+     * Check the given list of jars, indexing all their classes when the prefilter is disabled. This is
+     * used by the benchmark to measure what the prefilter saves.
+     * @param jarFiles The list of jar files
+     * @param log The log
+     * @param verbose Indicate if the list of classes will be reported
+     * @param threads The number of threads used to scan, 0 to use one per processor
+     * @param prefilter Indicate if only the classes of the packages found in several jars are indexed
+     * @return The number of conflicts at jar level
+     * @throws IOException
+     */
+    static int check(Set<File> jarFiles, LogWrapper log, boolean verbose, int threads, boolean prefilter)
+        throws IOException {
+        List<ClassListing> listings = scan(jarFiles, log, threads, null);
+        ClassIndex index = prefilter ? index(listings, null, log) : indexAll(listings, log);
+        return report(index, null, null, log, verbose, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Check the dependency jars of several modules, such as the projects of a reactor build. The union of
+     * the jars is scanned once and each module is checked against its own jars.
+     * @param modules The jar files keyed by module name, reported in the iteration order of the map
+     * @param log The log
+     * @param options The options of the check, maxConflicts applies to the total over the modules
+     * @return The number of conflicts at jar level, summed over the modules, maxConflicts + 1 if the check
+     *         stopped at the limit
+     * @throws IOException
+     */
+    public static int check(Map<String, Set<File>> modules, LogWrapper log, CheckOptions options)
+        throws IOException {
+        Set<File> jarFiles = new HashSet<File>();
+        for (Set<File> files : modules.values()) {
+            jarFiles.addAll(files);
+        }
+        log.info("Scanning " + jarFiles.size() + " distinct jars for " + modules.size() + " modules");
+        ClassIndex index = index(jarFiles, log, options.getThreads(), options.getCacheFile());
+        int maxConflicts = options.getMaxConflicts();
+
+        Map<String, Integer> summary = new LinkedHashMap<String, Integer>();
+        int total = 0;
+        for (Map.Entry<String, Set<File>> module : modules.entrySet()) {
+            log.info("");
+            log.info("Checking " + module.getKey() + " (" + module.getValue().size() + " jars)");
+            int limit = maxConflicts > 0 ? maxConflicts - total : Integer.MAX_VALUE;
+            int conflicts = report(index,
+                                   index.getJarIds(module.getValue()),
+                                   module.getKey(),
+                                   log,
+                                   options.isVerbose(),
+                                   options.getWriter(),
+                                   limit);
+            summary.put(module.getKey(), Math.min(conflicts, limit));
+            total += conflicts;
+            if (conflicts > limit) {
+                break;
             }
-            for (ClassFile classFile : listClasses(f)) {
-                Collection<ClassFile> files = classToFileMapping.get(classFile.name);
-                if (files == null) {
-                    files = new ArrayList<ClassFile>();
-                    classToFileMapping.put(classFile.name, files);
-                }
-                files.add(classFile);
+        }
+
+        log.info("");
+        log.info("Class conflicts by module:");
+        for (Map.Entry<String, Integer> e : summary.entrySet()) {
+            log.info("  " + e.getKey() + ": " + e.getValue());
+        }
+        return total;
+    }
+
+    /**
+     * Recursively check the bundles under the given root directory, only reporting the classes of exported
+     * packages that a bundle can see from more than one bundle
+     * @param root The root directory
+     * @param log The log
+     * @param options The options of the check
+     * @return The number of conflicts at jar level, maxConflicts + 1 if the check stopped at the limit
+     * @throws IOException
+     */
+    public static int checkBundles(File root, LogWrapper log, CheckOptions options) throws IOException {
+        Set<File> jarFiles = findJarFiles(root, options.getThreads());
+        return checkBundles(jarFiles, log, options);
+    }
+
+    /**
+     * Check the given bundles, only reporting the classes of exported packages that a bundle can see from
+     * more than one bundle. The visibility is derived from the Export-Package, Import-Package and
+     * Require-Bundle headers, see {@link BundleVisibility}. The jars which are not bundles are ignored.
+     * @param jarFiles The bundle jars and exploded bundle directories
+     * @param log The log
+     * @param options The options of the check
+     * @return The number of conflicts at jar level, maxConflicts + 1 if the check stopped at the limit
+     * @throws IOException
+     */
+    public static int checkBundles(Set<File> jarFiles, LogWrapper log, CheckOptions options) throws IOException {
+        File cacheFile = options.getCacheFile();
+        JarFingerprintCache cache = cacheFile == null ? null : JarFingerprintCache.open(cacheFile);
+        List<ClassListing> listings = scan(jarFiles, log, options.getThreads(), cache);
+        if (cache != null) {
+            cache.save();
+        }
+        BundleVisibility visibility = new BundleVisibility(listings);
+        log.info("Checking the packages visible to " + visibility.getBundleCount()
+            + " bundles, "
+            + visibility.getIgnoredCount()
+            + " jars are not bundles and are ignored");
+        ClassIndex index = index(listings, visibility.getExportedPackages(), log);
+
+        // Stop at the first conflict over the limit
+        int limit = getLimit(options.getMaxConflicts());
+        List<ClassIndex.Conflict> conflicts = new ArrayList<ClassIndex.Conflict>();
+        List<BitSet> scopes = new ArrayList<BitSet>();
+        for (Map.Entry<BitSet, Set<String>> e : visibility.getSharedPackages().entrySet()) {
+            for (ClassIndex.Conflict c : index.getConflicts(e.getKey(), e.getValue(), limit - conflicts.size())) {
+                conflicts.add(c);
+                scopes.add(e.getKey());
+            }
+            if (conflicts.size() > limit) {
+                break;
             }
         }
 
-        Map<String, Set<String>> conflicts = new HashMap<String, Set<String>>();
-        for (Map.Entry<String, Collection<ClassFile>> entry : classToFileMapping.entrySet()) {
-            Collection<ClassFile> files = entry.getValue();
-            if (files.size() > 1) {
-                Set<File> jars = new HashSet<File>();
-                for (ClassFile cf : files) {
-                    jars.add(cf.jarFile);
+        int size = Math.min(conflicts.size(), limit);
+        logCount(conflicts.size(), limit, log);
+        for (int i = 0; i < size; i++) {
+            ClassIndex.Conflict c = conflicts.get(i);
+            log.warn("");
+            log.warn("Conflicting jars: " + c.getJars());
+            log.warn("Visible together from: " + visibility.getViewers(scopes.get(i)));
+            reportClasses(index, scopes.get(i), c, null, log, options.isVerbose(), options.getWriter());
+        }
+        logStopped(size, conflicts.size(), log);
+        return conflicts.size();
+    }
+
+    /**
+     * Check the jar files under the given root directory, then keep polling the directory and report the
+     * conflicts that appear, change or disappear as jars are added, removed or replaced. The listings of
+     * the jars are kept in memory so that only the new or modified jars are read again. A poll which fails
+     * to read a jar, such as a jar that is still being copied, is logged and the next poll tries again.
+     * This method only returns when the thread is interrupted.
+     * @param root The root directory
+     * @param log The log
+     * @param verbose Indicate if the list of classes will be reported
+     * @param threads The number of threads used to scan, 0 to use one per processor
+     * @param interval The number of milliseconds between two polls
+     * @throws IOException
+     */
+    public static void watch(File root, LogWrapper log, boolean verbose, int threads, long interval)
+        throws IOException {
+        JarFingerprintCache cache = new JarFingerprintCache(null);
+        Map<File, String> snapshot = null;
+        Map<String, List<String>> previous = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Set<File> jarFiles = findJarFiles(root, threads);
+                Map<File, String> current = new HashMap<File, String>();
+                for (File f : jarFiles) {
+                    current.put(f, stamp(f));
                 }
-                List<File> sorted = new ArrayList<File>(jars);
-                Collections.sort(sorted);
-                String conflict = sorted.toString();
-                Set<String> classes = conflicts.get(conflict);
-                if (classes == null) {
-                    classes = new HashSet<String>();
-                    conflicts.put(conflict, classes);
+
+                if (!current.equals(snapshot)) {
+                    cache.retainAll(jarFiles);
+                    ClassIndex index = index(jarFiles, log, threads, cache);
+                    Map<String, List<String>> conflicts = getClassStatuses(index);
+                    if (previous == null) {
+                        report(index, null, null, log, verbose, null, Integer.MAX_VALUE);
+                    } else {
+                        log.info("");
+                        log.info("Changes detected in " + root + ", number of conflicts: " + conflicts.size());
+                        reportChanges(previous, conflicts, log, verbose);
+                    }
+                    snapshot = current;
+                    previous = conflicts;
                 }
-                classes.add(entry.getKey());
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The snapshot is kept, so the jars are read again by the next poll
+                log.warn("Unable to check " + root + ", will retry: " + e);
+            }
+
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        int size = conflicts.size();
-        if (size >= 1) {
-            log.warn("Number of conflicts: " + conflicts.size());
-        } else {
-            log.info("No class conflicts are found.");
+    /**
+     * Stamp a jar with its length and modification time. A directory is stamped with the paths, lengths
+     * and modification times of the files under it, as replacing a class file deep in a directory doesn't
+     * change the directory itself.
+     * @param file The jar file or class directory
+     * @return The stamp, which changes when the jar or a file under the directory changes
+     */
+    static String stamp(File file) {
+        if (!file.isDirectory()) {
+            return file.length() + "/" + file.lastModified();
         }
+        CRC32 crc = new CRC32();
+        int count = stamp(file, "", crc);
+        return count + "/" + crc.getValue();
+    }
 
-        for (Map.Entry<String, Set<String>> c : conflicts.entrySet()) {
-            log.warn("");
-            log.warn("Conflicting jars: " + c.getKey());
+    private static int stamp(File dir, String prefix, CRC32 crc) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+        int count = 0;
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                count += stamp(f, name + "/", crc);
+            } else {
+                byte[] entry = (name + "/" + f.length() + "/" + f.lastModified() + "\n").getBytes();
+                crc.update(entry, 0, entry.length);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the conflicts of an index with the status of their classes, see {@link ClassIndex#compare(String)}
+     * @param index The index
+     * @return The status and name of the classes, such as "X org/example/A.class", keyed by the list of
+     *         conflicting jars
+     */
+    static Map<String, List<String>> getClassStatuses(ClassIndex index) {
+        Map<String, List<String>> conflicts = new LinkedHashMap<String, List<String>>();
+        for (ClassIndex.Conflict c : index.getConflicts()) {
+            List<String> classes = new ArrayList<String>(c.getClasses().size());
+            for (String cls : c.getClasses()) {
+                classes.add(index.compare(cls) + " " + cls);
+            }
+            conflicts.put(c.getJars().toString(), classes);
+        }
+        return conflicts;
+    }
 
+    /**
+     * Report the conflicts that appeared, changed or disappeared between two polls. A conflict changes when
+     * its classes or their status change, such as the copies of a class becoming identical.
+     * @param previous The conflicts of the previous poll, see {@link #getClassStatuses(ClassIndex)}
+     * @param conflicts The conflicts of this poll
+     * @param log The log
+     * @param verbose Indicate if the list of classes will be reported
+     */
+    static void reportChanges(Map<String, List<String>> previous,
+                              Map<String, List<String>> conflicts,
+                              LogWrapper log,
+                              boolean verbose) {
+        for (Map.Entry<String, List<String>> c : conflicts.entrySet()) {
+            List<String> old = previous.get(c.getKey());
+            if (old != null && old.equals(c.getValue())) {
+                continue;
+            }
+            log.warn("");
+            log.warn((old == null ? "New conflicting jars: " : "Changed conflicting jars: ") + c.getKey());
             if (verbose) {
                 log.warn("Conflicting or overlapping classes [X: size, ?: crc]: ");
-                List<String> list = new ArrayList<String>(c.getValue());
-                Collections.sort(list);
-                for (String cls : list) {
-                    Collection<ClassFile> classFiles = classToFileMapping.get(cls);
-                    String flag = compare(classFiles);
-                    if (!" ".equals(flag)) {
-                        // Class files with different size or crc
-                        log.warn("  " + flag + " " + cls);
-                    } else {
-                        // Class files with same size and crc
-                        log.warn("  " + flag + " " + cls);
-                    }
+                for (String cls : c.getValue()) {
+                    log.warn("  " + cls);
                 }
             }
         }
+        for (String jars : previous.keySet()) {
+            if (!conflicts.containsKey(jars)) {
+                log.info("");
+                log.info("Resolved conflicting jars: " + jars);
+            }
+        }
+    }
 
-        return conflicts.size();
+    /**
+     * Build the class index of the given jars
+     * @param jarFiles The jar files
+     * @param log The log
+     * @param threads The number of threads used to scan, 0 to use one per processor
+     * @param cacheFile The file caching the class listings of the jars between scans, null to disable
+     * @return The index, with the jars added in the order of their file names
+     * @throws IOException
+     */
+    private static ClassIndex index(Set<File> jarFiles, LogWrapper log, int threads, File cacheFile)
+        throws IOException {
+        JarFingerprintCache cache = cacheFile == null ? null : JarFingerprintCache.open(cacheFile);
+        ClassIndex index = index(jarFiles, log, threads, cache);
+        if (cache != null) {
+            cache.save();
+        }
+        return index;
+    }
+
+    /**
+     * Build the class index of the given jars. The jars and folders on the Bundle-ClassPath of the jars and
+     * of the exploded bundle directories are indexed as separate entries named <code>outer!/path</code>.
+     * @param jarFiles The jar files and class directories
+     * @param log The log
+     * @param threads The number of threads used to scan, 0 to use one per processor
+     * @param cache The listings of the jars read so far, or null
+     * @return The index, with the jars added in the order of their file names
+     * @throws IOException
+     */
+    private static ClassIndex index(Set<File> jarFiles, LogWrapper log, int threads, JarFingerprintCache cache)
+        throws IOException {
+        return index(scan(jarFiles, log, threads, cache), null, log);
     }
 
-    private static String compare(Collection<ClassFile> files) {
-        long size = 0;
-        long crc = 0;
-        String name = null;
-        for (ClassFile f : files) {
-            if (name != null && !f.name.equals(name)) {
-                // Different name
-                return "X";
+    /**
+     * List the class files of the given jars
+     * @param jarFiles The jar files and class directories
+     * @param log The log
+     * @param threads The number of threads used to scan, 0 to use one per processor
+     * @param cache The listings of the jars read so far, or null
+     * @return The listings of the jars and of the elements of their Bundle-ClassPath, sorted by file name
+     * @throws IOException
+     */
+    private static List<ClassListing> scan(Set<File> jarFiles,
+                                           LogWrapper log,
+                                           int threads,
+                                           final JarFingerprintCache cache) throws IOException {
+        List<File> jarList = new ArrayList<File>(jarFiles);
+        Collections.sort(jarList);
+
+        ExecutorService executor = newExecutor(threads);
+        try {
+            List<Future<List<ClassListing>>> results = new ArrayList<Future<List<ClassListing>>>(jarList.size());
+            for (final File f : jarList) {
+                results.add(executor.submit(new Callable<List<ClassListing>>() {
+                    public List<ClassListing> call() throws IOException {
+                        if (f.isDirectory()) {
+                            return ClassListing.list(f);
+                        }
+                        return cache != null ? cache.get(f) : ClassListing.list(JarMetadata.get(f));
+                    }
+                }));
             }
-            if (size != 0 && f.size != size) {
-                // Different size
-                return "X";
+            List<ClassListing> listings = new ArrayList<ClassListing>(jarList.size());
+            for (int i = 0; i < jarList.size(); i++) {
+                listings.addAll(get(results.get(i)));
+                if (log.isDebugEnabled()) {
+                    log.debug("Scanned " + jarList.get(i));
+                }
             }
-            if (crc != 0 && f.crc != crc) {
-                // Different crc
-                return "?";
+            Collections.sort(listings, new Comparator<ClassListing>() {
+                public int compare(ClassListing l1, ClassListing l2) {
+                    return l1.getFile().compareTo(l2.getFile());
+                }
+            });
+            return listings;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Build the class index of the given listings. The listings are released as they are indexed.
+     * @param listings The listings sorted by file name
+     * @param packages The package folders to index, such as org/example, null for all the packages
+     * @param log The log
+     * @return The index, the id of each jar is its position in the list of listings
+     */
+    private static ClassIndex index(List<ClassListing> listings, Set<String> packages, LogWrapper log) {
+        Map<String, Integer> packageCounts = new HashMap<String, Integer>();
+        for (ClassListing listing : listings) {
+            countPackages(listing, packageCounts);
+        }
+
+        // Only the classes in packages found more than once can conflict
+        ClassIndex index = new ClassIndex();
+        for (int i = 0; i < listings.size(); i++) {
+            ClassListing listing = listings.set(i, null);
+            int jar = index.addJar(listing.getFile());
+            String pkg = null;
+            boolean shared = false;
+            for (int c = 0, count = listing.getClassCount(); c < count; c++) {
+                String name = listing.getClassEntry(c);
+                if (pkg == null || !isInPackage(name, pkg)) {
+                    pkg = getPackage(name);
+                    shared = packageCounts.get(pkg) > 1 && (packages == null || packages.contains(pkg));
+                }
+                if (shared) {
+                    index.add(jar, name, listing.getClassSize(c), listing.getClassCrc(c));
+                }
             }
-            size = f.size;
-            crc = f.crc;
-            name = f.name;
         }
-        return " ";
+        if (log.isDebugEnabled()) {
+            log.debug("Indexed " + index.size() + " class files from packages shared by several jars");
+        }
+        return index;
     }
 
     /**
-     * List all class files within a jar
-     * @param file
-     * @return
-     * @throws IOException
+     * Build the class index of all the classes of the given listings, without the package prefilter
+     * @param listings The listings sorted by file name
+     * @param log The log
+     * @return The index, the id of each jar is its position in the list of listings
      */
-    private static Collection<ClassFile> listClasses(File file) throws IOException {
-        Collection<ClassFile> classFiles = new ArrayList<ClassPathHellDetector.ClassFile>();
-        JarFile jarFile = new JarFile(file);
-        Enumeration<JarEntry> entries = jarFile.entries();
-        while (entries.hasMoreElements()) {
-            JarEntry entry = entries.nextElement();
-            String name = entry.getName();
-            if (name.endsWith(".class")) {
-                ClassFile cls = new ClassFile(file, entry.getName(), entry.getSize(), entry.getCrc());
-                classFiles.add(cls);
+    private static ClassIndex indexAll(List<ClassListing> listings, LogWrapper log) {
+        ClassIndex index = new ClassIndex();
+        for (int i = 0; i < listings.size(); i++) {
+            ClassListing listing = listings.set(i, null);
+            int jar = index.addJar(listing.getFile());
+            for (int c = 0, count = listing.getClassCount(); c < count; c++) {
+                index.add(jar, listing.getClassEntry(c), listing.getClassSize(c), listing.getClassCrc(c));
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Indexed " + index.size() + " class files");
+        }
+        return index;
+    }
+
+    /**
+     * Count the jars containing classes of each package. A package holding the same class twice within
+     * one jar is counted twice.
+     * @param listing The jar listing
+     * @param packageCounts The number of jars keyed by package
+     */
+    private static void countPackages(ClassListing listing, Map<String, Integer> packageCounts) {
+        Set<String> packages = new HashSet<String>();
+        String pkg = null;
+        String previous = null;
+        for (int c = 0, count = listing.getClassCount(); c < count; c++) {
+            String name = listing.getClassEntry(c);
+            if (pkg == null || !isInPackage(name, pkg)) {
+                pkg = getPackage(name);
+                packages.add(pkg);
+            }
+            if (name.equals(previous)) {
+                increment(packageCounts, pkg);
             }
+            previous = name;
+        }
+        for (String p : packages) {
+            increment(packageCounts, p);
+        }
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Get the folder of a class file entry, "" for the default package
+     */
+    private static String getPackage(String name) {
+        int index = name.lastIndexOf('/');
+        return index == -1 ? "" : name.substring(0, index);
+    }
+
+    private static boolean isInPackage(String name, String pkg) {
+        int index = name.lastIndexOf('/');
+        if (index == -1) {
+            return pkg.length() == 0;
+        }
+        return index == pkg.length() && name.startsWith(pkg);
+    }
+
+    /**
+     * Report the conflicts found within a subset of the indexed jars
+     * @param index The class index
+     * @param scope The ids of the jars to check, null for all the jars
+     * @param module The name of the module being checked, or null
+     * @param log The log
+     * @param verbose Indicate if the list of classes will be reported
+     * @param writer The writer of the machine readable report, or null
+     * @param limit The number of conflicts after which the detection stops, Integer.MAX_VALUE for no limit
+     * @return The number of conflicts at jar level, limit + 1 if the detection stopped
+     */
+    private static int report(ClassIndex index,
+                              BitSet scope,
+                              String module,
+                              LogWrapper log,
+                              boolean verbose,
+                              ConflictReportWriter writer,
+                              int limit) {
+        List<ClassIndex.Conflict> conflicts = index.getConflicts(scope, null, limit);
+        int size = Math.min(conflicts.size(), limit);
+        logCount(conflicts.size(), limit, log);
+
+        for (ClassIndex.Conflict c : conflicts.subList(0, size)) {
+            log.warn("");
+            log.warn("Conflicting jars: " + c.getJars());
+            reportClasses(index, scope, c, module, log, verbose, writer);
         }
-        jarFile.close();
-        return classFiles;
+        logStopped(size, conflicts.size(), log);
+
+        return conflicts.size();
+    }
 
+    /**
+     * Convert the maxConflicts parameter of the checks to the limit of the detection
+     */
+    private static int getLimit(int maxConflicts) {
+        return maxConflicts > 0 ? maxConflicts : Integer.MAX_VALUE;
     }
 
-    private static Set<File> findJarFiles(File root) throws IOException {
+    /**
+     * Tell that the check stopped at the limit. The detection stops at the first class of the conflict over
+     * the limit, see {@link ClassIndex#getConflicts(BitSet, Set, int)}, so the classes found after it in
+     * the reported conflicts are missing from their lists.
+     */
+    private static void logStopped(int size, int conflicts, LogWrapper log) {
+        if (size < conflicts) {
+            log.warn("");
+            log.warn("Stopped after " + size
+                + " conflicts (maxConflicts), the lists of classes of the conflicts above may be incomplete");
+        }
+    }
+
+    private static void logCount(int conflicts, int limit, LogWrapper log) {
+        if (conflicts > limit) {
+            log.warn("Number of conflicts: more than " + limit);
+        } else if (conflicts >= 1) {
+            log.warn("Number of conflicts: " + conflicts);
+        } else {
+            log.info("No class conflicts are found.");
+        }
+    }
+
+    private static void reportClasses(ClassIndex index,
+                                      BitSet scope,
+                                      ClassIndex.Conflict c,
+                                      String module,
+                                      LogWrapper log,
+                                      boolean verbose,
+                                      ConflictReportWriter writer) {
+        if (writer != null) {
+            writer.startConflict(module, c.getJarIds(), c.getJars());
+        }
+
+        if (verbose) {
+            log.warn("Conflicting or overlapping classes [X: size, ?: crc]: ");
+        }
+        if (verbose || writer != null) {
+            for (String cls : c.getClasses()) {
+                String flag = index.compare(cls, scope);
+                if (writer != null) {
+                    writer.writeClass(cls, flag);
+                }
+                if (!verbose) {
+                    continue;
+                }
+                if (!" ".equals(flag)) {
+                    // Class files with different size or crc
+                    log.warn("  " + flag + " " + cls);
+                } else {
+                    // Class files with same size and crc
+                    log.warn("  " + flag + " " + cls);
+                }
+            }
+        }
+        if (writer != null) {
+            writer.endConflict();
+        }
+    }
+
+    private static Set<File> findJarFiles(File root, int threads) throws IOException {
         Set<File> jarFiles = new HashSet<File>();
-        traverse(jarFiles, root, new HashSet<File>());
+        if (root.isFile()) {
+            jarFiles.add(root);
+        } else if (root.isDirectory()) {
+            ExecutorService executor = newExecutor(threads);
+            try {
+                traverse(jarFiles, root, executor);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
         return jarFiles;
     }
 
     /**
-     * Recursively traverse a root directory
+     * Traverse a root directory, listing the directories of each level concurrently
      *
      * @param fileList
-     * @param file
      * @param root
-     * @param visited The visited directories
+     * @param executor
      * @throws IOException
      */
-    private static void traverse(Set<File> fileList, File file, Set<File> visited) throws IOException {
-        if (file.isFile()) {
-            fileList.add(file);
-        } else if (file.isDirectory()) {
-            File dir = file.getCanonicalFile();
-            if (!visited.contains(dir)) {
-                // [rfeng] Add the canonical file into the visited set to avoid duplicate navigation of directories
-                // following the symbolic links
-                visited.add(dir);
-
-                File[] files = file.listFiles(new FileFilter() {
-
-                    public boolean accept(File f) {
-                        return f.isDirectory() || f.getName().endsWith(".jar");
-                    }
-                });
-                for (File f : files) {
-                    if (!f.getName().startsWith(".")) {
-                        traverse(fileList, f, visited);
+    private static void traverse(Set<File> fileList, File root, ExecutorService executor) throws IOException {
+        // [rfeng] Add the canonical file into the visited set to avoid duplicate navigation of directories
+        // following the symbolic links
+        Set<File> visited = new HashSet<File>();
+        List<File> dirs = Collections.singletonList(root);
+        while (!dirs.isEmpty()) {
+            List<Future<Listing>> listings = new ArrayList<Future<Listing>>(dirs.size());
+            for (final File dir : dirs) {
+                listings.add(executor.submit(new Callable<Listing>() {
+                    public Listing call() throws IOException {
+                        return new Listing(dir);
                     }
+                }));
+            }
+            List<File> next = new ArrayList<File>();
+            for (Future<Listing> f : listings) {
+                Listing listing = get(f);
+                if (visited.add(listing.dir)) {
+                    fileList.addAll(listing.jars);
+                    next.addAll(listing.dirs);
                 }
             }
+            dirs = next;
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "class-conflicts-scanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            IOException ex = new IOException(cause.getMessage());
+            ex.initCause(cause);
+            throw ex;
         }
     }
 
     /**
-     * Description of a class file within the jar
+     * The jar files and sub-directories of a directory. An exploded bundle directory, with a manifest
+     * declaring a Bundle-SymbolicName, is also listed with the jar files so that its class files are
+     * indexed.
      */
-    private static class ClassFile {
-        private File jarFile;
-        private String name;
-        private long size;
-        private long crc;
-
-        public ClassFile(File jarFile, String name, long size, long crc) {
-            super();
-            this.jarFile = jarFile;
-            this.name = name;
-            this.size = size;
-            this.crc = crc;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + (int)(crc ^ (crc >>> 32));
-            result = prime * result + ((name == null) ? 0 : name.hashCode());
-            result = prime * result + (int)(size ^ (size >>> 32));
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            ClassFile other = (ClassFile)obj;
-            if (crc != other.crc)
-                return false;
-            if (name == null) {
-                if (other.name != null)
-                    return false;
-            } else if (!name.equals(other.name))
-                return false;
-            if (size != other.size)
-                return false;
-            return true;
-        }
-
-        @Override
-        public String toString() {
-            StringBuilder builder = new StringBuilder();
-            builder.append("ClassFile [jarFile=").append(jarFile).append(", name=").append(name).append(", size=")
-                .append(size).append(", crc=").append(crc).append("]");
-            return builder.toString();
+    private static class Listing {
+        private File dir;
+        private List<File> jars = new ArrayList<File>();
+        private List<File> dirs = new ArrayList<File>();
+
+        public Listing(File file) throws IOException {
+            dir = file.getCanonicalFile();
+            if (ClassListing.isExplodedBundle(file)) {
+                jars.add(file);
+            }
+            File[] files = file.listFiles(new FileFilter() {
+
+                public boolean accept(File f) {
+                    return f.isDirectory() || f.getName().endsWith(".jar");
+                }
+            });
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.getName().startsWith(".")) {
+                    continue;
+                }
+                if (f.isFile()) {
+                    jars.add(f);
+                } else if (f.isDirectory()) {
+                    dirs.add(f);
+                }
+            }
         }
     }
 
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Writes the class conflicts as they are reported, one record at a time, in a machine readable format:
+ * <ul>
+ * <li>json: JSON Lines, a "jar" record the first time a jar is referenced followed by one "conflict"
+ * record per set of conflicting jars with the classes and their status
+ * <li>csv: one row per conflicting class with the module, the conflict number, the jars, the class
+ * and its status
+ * </ul>
+ * The status of a class is "size" if the class files have different sizes, "crc" if they have
+ * different crcs, otherwise "identical".
+ */
+public class ConflictReportWriter {
+    public static final String JSON = "json";
+    public static final String CSV = "csv";
+
+    private final PrintWriter writer;
+    private final boolean csv;
+    private final BitSet writtenJars = new BitSet();
+
+    private String module;
+    private int conflict;
+    private String jars;
+    private int classes;
+    private int different;
+    private int crc;
+
+    public ConflictReportWriter(Writer writer, String format) {
+        if (JSON.equals(format)) {
+            csv = false;
+        } else if (CSV.equals(format)) {
+            csv = true;
+        } else {
+            throw new IllegalArgumentException("Unsupported report format: " + format);
+        }
+        this.writer = new PrintWriter(writer);
+        if (csv) {
+            this.writer.println("module,conflict,jars,class,status");
+        }
+    }
+
+    /**
+     * Create a writer for the given report file
+     * @param file The report file
+     * @param format The format, "json" or "csv"
+     * @return The writer
+     * @throws IOException
+     */
+    public static ConflictReportWriter create(File file, String format) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            return new ConflictReportWriter(writer, format);
+        } catch (IllegalArgumentException e) {
+            writer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a conflict
+     * @param module The module being checked, or null
+     * @param jarIds The ids of the conflicting jars
+     * @param jarFiles The conflicting jars, in the same order as the ids
+     */
+    void startConflict(String module, int[] jarIds, List<File> jarFiles) {
+        this.module = module;
+        conflict++;
+        classes = 0;
+        different = 0;
+        crc = 0;
+
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < jarIds.length; i++) {
+            if (csv) {
+                if (i > 0) {
+                    buf.append(';');
+                }
+                buf.append(jarFiles.get(i).getPath());
+            } else {
+                if (!writtenJars.get(jarIds[i])) {
+                    writtenJars.set(jarIds[i]);
+                    writer.println("{\"type\":\"jar\",\"id\":" + jarIds[i]
+                        + ",\"path\":"
+                        + quote(jarFiles.get(i).getPath())
+                        + "}");
+                }
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append(jarIds[i]);
+            }
+        }
+        jars = buf.toString();
+
+        if (!csv) {
+            writer.print("{\"type\":\"conflict\"");
+            if (module != null) {
+                writer.print(",\"module\":" + quote(module));
+            }
+            writer.print(",\"id\":" + conflict + ",\"jars\":[" + jars + "],\"classes\":[");
+        }
+    }
+
+    /**
+     * Write a class of the current conflict
+     * @param name The class file name
+     * @param flag "X" if the sizes are different, "?" if the crcs are different, otherwise " "
+     */
+    void writeClass(String name, String flag) {
+        String status = "identical";
+        if ("X".equals(flag)) {
+            status = "size";
+            different++;
+        } else if ("?".equals(flag)) {
+            status = "crc";
+            crc++;
+        }
+        if (csv) {
+            writer.println(csv(module == null ? "" : module) + ","
+                + conflict
+                + ","
+                + csv(jars)
+                + ","
+                + csv(name)
+                + ","
+                + status);
+        } else {
+            if (classes > 0) {
+                writer.print(',');
+            }
+            writer.print("{\"name\":" + quote(name) + ",\"status\":\"" + status + "\"}");
+        }
+        classes++;
+    }
+
+    /**
+     * End the current conflict
+     */
+    void endConflict() {
+        if (!csv) {
+            writer.println("],\"count\":" + classes
+                + ",\"size\":"
+                + different
+                + ",\"crc\":"
+                + crc
+                + ",\"identical\":"
+                + (classes - different - crc)
+                + "}");
+        }
+        writer.flush();
+    }
+
+    public void close() throws IOException {
+        writer.close();
+        if (writer.checkError()) {
+            throw new IOException("Unable to write the class conflict report");
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuffer buf = new StringBuffer(value.length() + 2);
+        buf.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    buf.append("\\\"");
+                    break;
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        buf.append("\\u0000", 0, 6 - hex.length()).append(hex);
+                    } else {
+                        buf.append(c);
+                    }
+            }
+        }
+        return buf.append('"').toString();
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1
+            && value.indexOf('\n') == -1
+            && value.indexOf('\r') == -1) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.tuscany.maven.osgi.JarMetadata;
+
+/**
+ * A binary file holding the class listings of the jars seen by previous scans, keyed by the jar
+ * path and checked against its length and modification time. Jars that haven't changed are not
+ * opened again. Only the class entries with their sizes and CRCs and the bundle headers are kept,
+ * see {@link ClassListing#writeTo(List, DataOutputStream)}.
+ * <p>
+ * The file counts the saves. A jar that has not been used by any of the last
+ * {@link #MAX_UNSEEN_SAVES} saves is dropped, so that the file doesn't keep growing with the old
+ * versions of the jars in a local repository.
+ */
+class JarFingerprintCache {
+    private static final int MAGIC = 0x4A464302;
+
+    /**
+     * The number of saves after which a jar that has not been used is dropped
+     */
+    static final int MAX_UNSEEN_SAVES = 20;
+
+    private final File file;
+    private final ConcurrentMap<String, Record> records = new ConcurrentHashMap<String, Record>();
+    // The number of saves of the file when it was opened
+    private int generation;
+    private volatile boolean modified;
+
+    /**
+     * The listings of a jar, with the length and modification time of the jar when it was read
+     */
+    private static class Record {
+        private final File jar;
+        private final long length;
+        private final long lastModified;
+        private final List<ClassListing> listings;
+        // The save which last used the jar
+        private volatile int lastSeen;
+        private volatile boolean seen;
+
+        private Record(File jar, long length, long lastModified, List<ClassListing> listings, int lastSeen) {
+            this.jar = jar;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.listings = listings;
+            this.lastSeen = lastSeen;
+        }
+
+        private boolean isCurrent() {
+            return jar.length() == length && jar.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * @param file The cache file, or null to keep the listings in memory only
+     */
+    JarFingerprintCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the cache file, a missing or corrupted file gives an empty cache
+     * @param file The cache file
+     * @return The cache
+     */
+    static JarFingerprintCache open(File file) {
+        JarFingerprintCache cache = new JarFingerprintCache(file);
+        if (!file.isFile()) {
+            return cache;
+        }
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (is.readInt() != MAGIC) {
+                    return cache;
+                }
+                cache.generation = is.readInt();
+                for (int i = is.readInt(); i > 0; i--) {
+                    File jar = new File(is.readUTF());
+                    long length = is.readLong();
+                    long lastModified = is.readLong();
+                    int lastSeen = is.readInt();
+                    List<ClassListing> listings = ClassListing.readFrom(is, jar);
+                    cache.records.put(jar.getPath(), new Record(jar, length, lastModified, listings, lastSeen));
+                }
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            // The cache will be rebuilt
+            cache.records.clear();
+            cache.generation = 0;
+        }
+        return cache;
+    }
+
+    /**
+     * Get the listings of a jar, reading the jar only if it is not in the cache or has changed
+     * @param jar The jar file
+     * @return The listings of the jar and of the elements of its Bundle-ClassPath, see
+     *         {@link ClassListing#list(JarMetadata)}
+     * @throws IOException
+     */
+    List<ClassListing> get(File jar) throws IOException {
+        String key = jar.getAbsolutePath();
+        Record record = records.get(key);
+        if (record == null || !record.isCurrent()) {
+            long length = jar.length();
+            long lastModified = jar.lastModified();
+            record = new Record(new File(key), length, lastModified, ClassListing.list(JarMetadata.get(jar)),
+                                generation);
+            records.put(key, record);
+            modified = true;
+        } else if (generation - record.lastSeen >= MAX_UNSEEN_SAVES / 2) {
+            // Rewrite the file before the jar gets too close to being dropped, but not on every build
+            modified = true;
+        }
+        record.seen = true;
+        return record.listings;
+    }
+
+    /**
+     * Tests if the cache has a listing of the given jar, whether it is current or not
+     * @param jar The jar file
+     * @return true if the jar is in the cache
+     */
+    boolean contains(File jar) {
+        return records.containsKey(jar.getAbsolutePath());
+    }
+
+    /**
+     * Forget the jars which are not in the given set
+     * @param jars The jar files to keep
+     */
+    void retainAll(Set<File> jars) {
+        Set<String> keys = new HashSet<String>();
+        for (File jar : jars) {
+            keys.add(jar.getAbsolutePath());
+        }
+        if (records.keySet().retainAll(keys)) {
+            modified = true;
+        }
+    }
+
+    /**
+     * Write the cache file if new jars have been read. The file may be shared by several builds, such as
+     * the modules of a parallel build or builds using the same local repository: the records written by
+     * the others since the file was opened are merged under a file lock, and the file is replaced by a
+     * rename so that readers never see it partially written. The jars that have been changed or removed
+     * since they were recorded, and the ones that no build has used for {@link #MAX_UNSEEN_SAVES} saves,
+     * are dropped.
+     */
+    void save() {
+        if (!modified || file == null) {
+            return;
+        }
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            // A file lock is held by the JVM, the threads of the JVM are serialized by the monitor
+            synchronized (JarFingerprintCache.class) {
+                RandomAccessFile lockFile = new RandomAccessFile(new File(dir, file.getName() + ".lock"), "rw");
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        JarFingerprintCache saved = open(file);
+                        int next = Math.max(saved.generation, generation) + 1;
+                        Map<String, Record> merged = new HashMap<String, Record>(saved.records);
+                        for (Map.Entry<String, Record> e : records.entrySet()) {
+                            Record record = e.getValue();
+                            if (record.seen) {
+                                record.lastSeen = next;
+                                merged.put(e.getKey(), record);
+                            } else if (!merged.containsKey(e.getKey())) {
+                                merged.put(e.getKey(), record);
+                            }
+                        }
+                        write(dir, next, merged);
+                        generation = next;
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+            }
+            modified = false;
+        } catch (IOException e) {
+            // The cache is only an optimization
+        }
+    }
+
+    private void write(File dir, int generation, Map<String, Record> records) throws IOException {
+        List<Record> current = new ArrayList<Record>(records.size());
+        for (Record record : records.values()) {
+            if (generation - record.lastSeen < MAX_UNSEEN_SAVES && record.isCurrent()) {
+                current.add(record);
+            }
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                os.writeInt(MAGIC);
+                os.writeInt(generation);
+                os.writeInt(current.size());
+                for (Record record : current) {
+                    os.writeUTF(record.jar.getPath());
+                    os.writeLong(record.length);
+                    os.writeLong(record.lastModified);
+                    os.writeInt(record.lastSeen);
+                    ClassListing.writeTo(record.listings, os);
+                }
+            } finally {
+                os.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // The rename doesn't replace an existing file on some platforms
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Unable to replace " + file);
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+}
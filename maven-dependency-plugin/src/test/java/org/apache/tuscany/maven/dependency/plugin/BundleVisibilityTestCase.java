@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests which packages the bundles can see from more than one bundle.
+ */
+public class BundleVisibilityTestCase extends TestCase {
+    private File root;
+    private List<ClassListing> listings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/bundle-visibility");
+        delete(root);
+        root.mkdirs();
+        listings = new ArrayList<ClassListing>();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testRequiredBundlesSplitPackage() throws Exception {
+        bundle("a", "Require-Bundle: b, c");
+        bundle("b", "Export-Package: test.p", "test/p/B.class");
+        bundle("c", "Export-Package: test.p", "test/p/C.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals("{b+c=[test/p]}", getSharedPackages(visibility));
+        assertEquals("[a_0.0.0]", getViewers(visibility).toString());
+    }
+
+    public void testImportPackageShadowsRequireBundle() throws Exception {
+        // The imported package is wired to a single exporter even if it comes from several required bundles
+        bundle("a", "Require-Bundle: b, c", "Import-Package: test.p");
+        bundle("b", "Export-Package: test.p, test.q", "test/p/B.class", "test/q/B.class");
+        bundle("c", "Export-Package: test.p, test.q", "test/p/C.class", "test/q/C.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals("{b+c=[test/q]}", getSharedPackages(visibility));
+    }
+
+    public void testReexportChain() throws Exception {
+        // a sees c and d through b, which re-exports c, which re-exports d
+        bundle("a", "Require-Bundle: b");
+        bundle("b", "Require-Bundle: c;visibility:=reexport");
+        bundle("c", "Require-Bundle: d; visibility:=\"reexport\"", "Export-Package: test.p", "test/p/C.class");
+        bundle("d", "Export-Package: test.p", "test/p/D.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals("{c+d=[test/p]}", getSharedPackages(visibility));
+        // c sees the package from itself and from d
+        assertEquals("[a_0.0.0, b_0.0.0, c_0.0.0]", getViewers(visibility).toString());
+    }
+
+    public void testPrivateRequireNotReexported() throws Exception {
+        bundle("a", "Require-Bundle: b, d");
+        bundle("b", "Require-Bundle: c");
+        bundle("c", "Export-Package: test.p", "test/p/C.class");
+        bundle("d", "Export-Package: test.p", "test/p/D.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals("{}", getSharedPackages(visibility));
+    }
+
+    public void testPackageSplitWithRequiredBundle() throws Exception {
+        bundle("a", "Require-Bundle: b", "test/p/A.class", "test/r/A.class");
+        bundle("b", "Export-Package: test.p", "test/p/B.class", "test/r/B.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        // test/r is private to b, only test/p is split
+        assertEquals("{a+b=[test/p]}", getSharedPackages(visibility));
+    }
+
+    public void testHighestVersionRequired() throws Exception {
+        bundle("a", "Require-Bundle: b", "test/p/A.class");
+        bundle("b1", "Bundle-SymbolicName: b", "Bundle-Version: 1.0", "Export-Package: test.p", "test/p/B.class");
+        bundle("b2", "Bundle-SymbolicName: b", "Bundle-Version: 1.10", "Export-Package: test.p", "test/p/B.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals("{a+b2=[test/p]}", getSharedPackages(visibility));
+    }
+
+    public void testInvalidSymbolicName() throws Exception {
+        bundle("a", "Require-Bundle: b");
+        bundle("b", "Export-Package: test.p", "test/p/B.class");
+        bundle("empty", "Bundle-SymbolicName: ;", "Export-Package: test.p", "test/p/E.class");
+        bundle("attributes", "Bundle-SymbolicName: singleton:=true", "Export-Package: test.p", "test/p/E.class");
+        BundleVisibility visibility = new BundleVisibility(listings);
+        assertEquals(2, visibility.getBundleCount());
+        assertEquals(2, visibility.getIgnoredCount());
+        assertEquals("{}", getSharedPackages(visibility));
+    }
+
+    /**
+     * Create an exploded bundle and add its listings. The symbolic name defaults to the directory name.
+     */
+    private void bundle(String name, String... content) throws IOException {
+        File dir = new File(root, name);
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-SymbolicName", name);
+        for (String s : content) {
+            int index = s.indexOf(": ");
+            if (index != -1) {
+                attributes.putValue(s.substring(0, index), s.substring(index + 2));
+            } else {
+                write(new File(dir, s));
+            }
+        }
+        File mf = new File(dir, JarFile.MANIFEST_NAME);
+        mf.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(mf);
+        try {
+            manifest.write(os);
+        } finally {
+            os.close();
+        }
+        listings.addAll(ClassListing.list(dir));
+    }
+
+    /**
+     * Describe the shared packages with the names of the directories they are visible from
+     */
+    private String getSharedPackages(BundleVisibility visibility) {
+        Map<String, Set<String>> shared = new TreeMap<String, Set<String>>();
+        for (Map.Entry<BitSet, Set<String>> e : visibility.getSharedPackages().entrySet()) {
+            StringBuffer key = new StringBuffer();
+            BitSet ids = e.getKey();
+            for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+                if (key.length() > 0) {
+                    key.append('+');
+                }
+                key.append(listings.get(i).getFile().getName());
+            }
+            shared.put(key.toString(), e.getValue());
+        }
+        return shared.toString();
+    }
+
+    private Set<String> getViewers(BundleVisibility visibility) {
+        Set<String> viewers = new TreeSet<String>();
+        for (BitSet ids : visibility.getSharedPackages().keySet()) {
+            viewers.addAll(visibility.getViewers(ids));
+        }
+        return viewers;
+    }
+
+    private static void write(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(file.getName().getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
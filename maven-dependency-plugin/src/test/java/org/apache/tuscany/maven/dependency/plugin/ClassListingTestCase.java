@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+import org.apache.tuscany.maven.osgi.JarMetadata;
+
+/**
+ * Tests the listings of the jars nested in a bundle and of the exploded bundle directories.
+ */
+public class ClassListingTestCase extends TestCase {
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/class-listing");
+        delete(root);
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testNestedJarCachedByOuterJarStamp() throws Exception {
+        File bundle = new File(root, "bundle.jar");
+        createBundle(bundle, "test/A.class");
+        long lastModified = bundle.lastModified();
+        assertEquals("test/A.class", getNestedClass(bundle));
+
+        // Same length and time stamp: the outer jar is considered unchanged and the nested jar is not read
+        createBundle(bundle, "test/B.class");
+        bundle.setLastModified(lastModified);
+        assertEquals("test/A.class", getNestedClass(bundle));
+
+        // A new time stamp: the nested jar is read again
+        bundle.setLastModified(lastModified - 10000);
+        assertEquals("test/B.class", getNestedClass(bundle));
+    }
+
+    public void testExplodedBundle() throws Exception {
+        File jar = new File(root, "test.jar");
+        createJar(new FileOutputStream(jar), null, "test/A.class");
+        File dir = new File(root, "test-dir");
+        write(new byte[] {1}, new File(dir, "test/A.class"));
+
+        // A class directory with a plain manifest is not an exploded bundle, and its classes are not scanned
+        Manifest manifest = manifest(null);
+        write(manifest, new File(dir, JarFile.MANIFEST_NAME));
+        assertFalse(ClassListing.isExplodedBundle(dir));
+        assertEquals(0, ClassPathHellDetector.check(root, new QuietLogWrapper(), new CheckOptions().setThreads(1)));
+
+        manifest = manifest("test.dir");
+        write(manifest, new File(dir, JarFile.MANIFEST_NAME));
+        assertTrue(ClassListing.isExplodedBundle(dir));
+        assertEquals(1, ClassPathHellDetector.check(root, new QuietLogWrapper(), new CheckOptions().setThreads(1)));
+    }
+
+    private static String getNestedClass(File bundle) throws IOException {
+        List<ClassListing> listings = ClassListing.list(JarMetadata.get(bundle));
+        assertEquals(2, listings.size());
+        ClassListing nested = listings.get(1);
+        assertEquals(bundle.getPath() + "!/lib/inner.jar", nested.getFile().getPath());
+        assertSame(listings.get(0), nested.getOwner());
+        assertEquals(1, nested.getClassCount());
+        return nested.getClassEntry(0);
+    }
+
+    /**
+     * Create a bundle with a nested jar holding one class. The entries are stored so that the length of
+     * the bundle only depends on the length of the class name.
+     */
+    private static void createBundle(File file, String entry) throws IOException {
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        createJar(inner, null, entry);
+        Manifest manifest = manifest("test.bundle");
+        manifest.getMainAttributes().putValue(ClassListing.BUNDLE_CLASSPATH, ".,lib/inner.jar");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+        try {
+            putStored(jos, "lib/inner.jar", inner.toByteArray());
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void createJar(OutputStream os, Manifest manifest, String entry) throws IOException {
+        JarOutputStream jos = manifest == null ? new JarOutputStream(os) : new JarOutputStream(os, manifest);
+        try {
+            putStored(jos, entry, entry.getBytes("UTF-8"));
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void putStored(JarOutputStream jos, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        // A fixed time so that the bytes only depend on the names and contents
+        entry.setTime(0);
+        jos.putNextEntry(entry);
+        jos.write(content);
+        jos.closeEntry();
+    }
+
+    private static Manifest manifest(String symbolicName) {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (symbolicName != null) {
+            attributes.putValue(ClassListing.BUNDLE_SYMBOLICNAME, symbolicName);
+        }
+        return manifest;
+    }
+
+    private static void write(Manifest manifest, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            manifest.write(os);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void write(byte[] content, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class QuietLogWrapper implements LogWrapper {
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+        }
+
+        public void warn(String msg) {
+        }
+
+        public void error(String msg) {
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Generates synthetic jar corpora and measures how {@link ClassPathHellDetector} scales with them. For
+ * each corpus the check is run a few times and the wall time, the peak heap usage and the garbage
+ * collections are reported.
+ * <p>
+ * The corpora are described by the number of jars, the number of classes per jar, the ratio of classes
+ * shared with the neighbour jar and whether the shared classes have the same bytes. Without
+ * <code>-Djars</code> a built-in set of corpora is used, otherwise a single corpus is built from
+ * <code>-Djars</code>, <code>-Dclasses</code>, <code>-Doverlap</code> and <code>-Ddiffering</code>.
+ * <p>
+ * Other system properties:
+ * <ul>
+ * <li>dir: the directory where the corpora are generated, a temporary directory by default
+ * <li>iterations: the number of measured runs per corpus, 3 by default, after one warm up run
+ * <li>threads: the number of threads used by the check
+ * <li>unfiltered: also run each corpus with the package prefilter disabled, so that every class is
+ * indexed and not only the classes of the packages found in several jars. The results are reported as
+ * <code>&lt;corpus&gt;.unfiltered</code>. True by default with the built-in corpora, where it only applies
+ * to the corpora of 2000 jars or more, and false otherwise.
+ * <li>index: the number of class entries of the memory case, 5000000 by default with the built-in corpora
+ * and 0 otherwise. The entries are added to a {@link ClassIndex} without reading jars, and the heap
+ * retained by the index is compared with the map of lists of class files that it replaced. This case
+ * needs a large heap, -Xmx3g for the default size.
+ * <li>output: a properties file to write the results to
+ * <li>baseline: a properties file written by a previous run, the run fails if a corpus is slower or
+ * uses more heap than the baseline by more than the <code>tolerance</code> ratio, 0.2 by default
+ * </ul>
+ * The benchmark is not a test case and is not run by the build. Run it from the test classes, for
+ * example <code>java -cp target/classes:target/test-classes org.apache.tuscany.maven.dependency.plugin.ClassPathHellBenchmark</code>.
+ */
+public class ClassPathHellBenchmark {
+
+    /**
+     * A synthetic set of jars
+     */
+    static class Corpus {
+        private final String name;
+        private final int jars;
+        private final int classes;
+        private final double overlap;
+        private final boolean differing;
+
+        Corpus(String name, int jars, int classes, double overlap, boolean differing) {
+            this.name = name;
+            this.jars = jars;
+            this.classes = classes;
+            this.overlap = overlap;
+            this.differing = differing;
+        }
+
+        /**
+         * Write the jars of the corpus. Jar 2n and 2n+1 share the first classes * overlap classes, which
+         * have the same bytes unless the corpus is differing.
+         * @param dir The directory
+         * @return The jar files
+         * @throws IOException
+         */
+        Set<File> generate(File dir) throws IOException {
+            dir.mkdirs();
+            int shared = (int)(classes * overlap);
+            byte[] buf = new byte[2048];
+            Set<File> files = new HashSet<File>();
+            for (int j = 0; j < jars; j++) {
+                File file = new File(dir, "jar" + j + ".jar");
+                files.add(file);
+                if (file.isFile()) {
+                    continue;
+                }
+                JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                try {
+                    for (int i = 0; i < classes; i++) {
+                        String name;
+                        long seed;
+                        if (i < shared) {
+                            name = "shared/p" + (j / 2) + "/s" + (i % 16) + "/C" + i + ".class";
+                            seed = differing ? name.hashCode() * 31L + j : name.hashCode();
+                        } else {
+                            name = "jar" + j + "/s" + (i % 16) + "/C" + i + ".class";
+                            seed = name.hashCode();
+                        }
+                        Random random = new Random(seed);
+                        int size = 256 + random.nextInt(buf.length - 256);
+                        random.nextBytes(buf);
+                        jos.putNextEntry(new ZipEntry(name));
+                        jos.write(buf, 0, size);
+                        jos.closeEntry();
+                    }
+                } finally {
+                    jos.close();
+                }
+            }
+            return files;
+        }
+
+        @Override
+        public String toString() {
+            return name + " [jars=" + jars
+                + ", classes="
+                + classes
+                + ", overlap="
+                + overlap
+                + ", differing="
+                + differing
+                + "]";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("dir", System.getProperty("java.io.tmpdir") + "/classpath-hell-benchmark"));
+        int iterations = Integer.parseInt(System.getProperty("iterations", "3"));
+        int threads = Integer.parseInt(System.getProperty("threads", "0"));
+        double tolerance = Double.parseDouble(System.getProperty("tolerance", "0.2"));
+        String output = System.getProperty("output");
+        String baseline = System.getProperty("baseline");
+
+        List<Corpus> corpora = new ArrayList<Corpus>();
+        int indexEntries = 0;
+        int unfilteredJars = Integer.MAX_VALUE;
+        if (System.getProperty("jars") != null) {
+            corpora.add(new Corpus("custom", Integer.parseInt(System.getProperty("jars")), Integer.parseInt(System
+                .getProperty("classes", "500")), Double.parseDouble(System.getProperty("overlap", "0.1")), Boolean
+                .getBoolean("differing")));
+        } else {
+            corpora.add(new Corpus("small", 100, 500, 0.1, false));
+            corpora.add(new Corpus("clean", 2000, 100, 0.0, false));
+            corpora.add(new Corpus("sparse", 2000, 100, 0.02, true));
+            corpora.add(new Corpus("dense", 200, 5000, 0.5, true));
+            indexEntries = 5000000;
+            unfilteredJars = 2000;
+        }
+        indexEntries = Integer.getInteger("index", indexEntries).intValue();
+        if (System.getProperty("unfiltered") != null) {
+            unfilteredJars = Boolean.getBoolean("unfiltered") ? 0 : Integer.MAX_VALUE;
+        }
+
+        Properties results = new Properties();
+        for (Corpus corpus : corpora) {
+            System.out.println("Generating " + corpus);
+            Set<File> jars = corpus.generate(new File(dir, corpus.name));
+            run(corpus, corpus.name, jars, threads, iterations, true, results);
+            if (corpus.jars >= unfilteredJars) {
+                run(corpus, corpus.name + ".unfiltered", jars, threads, iterations, false, results);
+            }
+        }
+        if (indexEntries > 0) {
+            runIndex(indexEntries, results);
+        }
+
+        if (output != null) {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(output));
+            try {
+                results.store(os, "ClassPathHellDetector benchmark");
+            } finally {
+                os.close();
+            }
+        }
+
+        if (baseline != null) {
+            Properties base = new Properties();
+            InputStream is = new BufferedInputStream(new FileInputStream(baseline));
+            try {
+                base.load(is);
+            } finally {
+                is.close();
+            }
+            if (!compare(base, results, tolerance)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static void run(Corpus corpus,
+                            String name,
+                            Set<File> jars,
+                            int threads,
+                            int iterations,
+                            boolean prefilter,
+                            Properties results) throws IOException {
+        LogWrapper log = new SilentLogWrapper();
+        long time = Long.MAX_VALUE;
+        long heap = 0;
+        long gcCount = 0;
+        long gcTime = 0;
+        int conflicts = 0;
+        for (int i = -1; i < iterations; i++) {
+            // Invalidate the listings kept in memory by JarMetadata so that each run reads the jars
+            long now = System.currentTimeMillis() - 1000 * (iterations - i);
+            for (File jar : jars) {
+                jar.setLastModified(now);
+            }
+            System.gc();
+            resetPeakUsage();
+            long gcCount0 = getGcCount();
+            long gcTime0 = getGcTime();
+            long start = System.nanoTime();
+            conflicts = ClassPathHellDetector.check(jars, log, true, threads, prefilter);
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                // The first run is a warm up
+                time = Math.min(time, elapsed);
+                heap = Math.max(heap, getPeakUsage());
+                gcCount += getGcCount() - gcCount0;
+                gcTime += getGcTime() - gcTime0;
+            }
+        }
+
+        long ms = time / 1000000;
+        long mb = heap / (1024 * 1024);
+        System.out.println("  " + (prefilter ? "prefilter" : "no prefilter")
+            + ", conflicts: "
+            + conflicts
+            + ", best time: "
+            + ms
+            + " ms, peak heap: "
+            + mb
+            + " MB, collections: "
+            + gcCount
+            + " ("
+            + gcTime
+            + " ms) over "
+            + iterations
+            + " runs");
+        results.setProperty(name + ".corpus", corpus.toString());
+        results.setProperty(name + ".conflicts", String.valueOf(conflicts));
+        results.setProperty(name + ".time", String.valueOf(ms));
+        results.setProperty(name + ".heap", String.valueOf(mb));
+        results.setProperty(name + ".gcCount", String.valueOf(gcCount));
+        results.setProperty(name + ".gcTime", String.valueOf(gcTime));
+    }
+
+    /**
+     * Measure the heap retained by a ClassIndex of the given number of class entries, and by the map of
+     * lists of class files that the index replaced. The entries are laid out like a corpus of jars with
+     * 1000 classes and an overlap of 0.1.
+     */
+    private static void runIndex(int entries, Properties results) {
+        System.out.println("Indexing " + entries + " class entries");
+        int classes = 1000;
+        int jarCount = (entries + classes - 1) / classes;
+        File[] jars = new File[jarCount];
+        for (int j = 0; j < jarCount; j++) {
+            jars[j] = new File("jar" + j + ".jar");
+        }
+
+        long base = getRetainedHeap();
+        long start = System.nanoTime();
+        ClassIndex index = new ClassIndex();
+        for (int j = 0; j < jarCount; j++) {
+            int id = index.addJar(jars[j]);
+            for (int i = 0; i < classes && j * classes + i < entries; i++) {
+                index.add(id, className(j, i, classes), 256 + i, i * 31L);
+            }
+        }
+        long time = (System.nanoTime() - start) / 1000000;
+        long heap = getRetainedHeap() - base;
+        int conflicts = index.getConflicts().size();
+        report("index", index.size(), conflicts, time, heap, results);
+        index = null;
+
+        base = getRetainedHeap();
+        start = System.nanoTime();
+        Map<String, List<LegacyClassFile>> mapping = new HashMap<String, List<LegacyClassFile>>();
+        int size = 0;
+        for (int j = 0; j < jarCount; j++) {
+            for (int i = 0; i < classes && j * classes + i < entries; i++) {
+                String name = className(j, i, classes);
+                List<LegacyClassFile> files = mapping.get(name);
+                if (files == null) {
+                    files = new ArrayList<LegacyClassFile>();
+                    mapping.put(name, files);
+                }
+                files.add(new LegacyClassFile(jars[j], name, 256 + i, i * 31L));
+                size++;
+            }
+        }
+        time = (System.nanoTime() - start) / 1000000;
+        heap = getRetainedHeap() - base;
+        conflicts = 0;
+        for (List<LegacyClassFile> files : mapping.values()) {
+            if (files.size() > 1) {
+                conflicts++;
+            }
+        }
+        report("legacyIndex", size, conflicts, time, heap, results);
+    }
+
+    private static String className(int jar, int i, int classes) {
+        if (i < classes / 10) {
+            return "shared/p" + (jar / 2) + "/s" + (i % 16) + "/C" + i + ".class";
+        }
+        return "jar" + jar + "/s" + (i % 16) + "/C" + i + ".class";
+    }
+
+    private static void report(String name, int entries, int conflicts, long ms, long heap, Properties results) {
+        long mb = heap / (1024 * 1024);
+        System.out.println("  " + name
+            + ": "
+            + entries
+            + " entries, "
+            + conflicts
+            + (name.startsWith("legacy") ? " conflicting classes" : " conflicts")
+            + ", time: "
+            + ms
+            + " ms, retained heap: "
+            + mb
+            + " MB ("
+            + (entries == 0 ? 0 : heap / entries)
+            + " bytes per entry)");
+        results.setProperty(name + ".entries", String.valueOf(entries));
+        results.setProperty(name + ".time", String.valueOf(ms));
+        results.setProperty(name + ".heap", String.valueOf(mb));
+    }
+
+    private static long getRetainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static boolean compare(Properties baseline, Properties results, double tolerance) {
+        boolean ok = true;
+        for (Object k : results.keySet()) {
+            String key = (String)k;
+            if (!key.endsWith(".time") && !key.endsWith(".heap") && !key.endsWith(".conflicts")) {
+                continue;
+            }
+            String base = baseline.getProperty(key);
+            if (base == null) {
+                continue;
+            }
+            long expected = Long.parseLong(base);
+            long actual = Long.parseLong(results.getProperty(key));
+            if (key.endsWith(".conflicts")) {
+                if (expected != actual) {
+                    System.out.println("MISMATCH " + key + ": " + actual + " (baseline " + expected + ")");
+                    ok = false;
+                }
+            } else if (actual > expected * (1 + tolerance) && actual - expected > 1) {
+                System.out.println("REGRESSION " + key + ": " + actual + " (baseline " + expected + ")");
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * A class entry as it was kept before the ClassIndex
+     */
+    private static class LegacyClassFile {
+        private final File jarFile;
+        private final String name;
+        private final long size;
+        private final long crc;
+
+        LegacyClassFile(File jarFile, String name, long size, long crc) {
+            this.jarFile = jarFile;
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public String toString() {
+            return jarFile + "!/" + name + " [size=" + size + ", crc=" + crc + "]";
+        }
+    }
+
+    /**
+     * Discards the report so that the logging is not measured
+     */
+    private static class SilentLogWrapper implements LogWrapper {
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+        }
+
+        public void warn(String msg) {
+        }
+
+        public void error(String msg) {
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return false;
+        }
+
+        public boolean isErrorEnabled() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+/**
+ * Runs several checks at the same time, as the detector goals do in a parallel build, each of them
+ * scanning with its own pool of threads, and verifies that they all find the same conflicts.
+ */
+public class ClassPathHellDetectorConcurrencyTestCase extends TestCase {
+    private static final int JARS = 20;
+    private static final int GROUPS = 5;
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 5;
+
+    private File root;
+    private Set<File> jarFiles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/classpath-hell-concurrency");
+        delete(root);
+        root.mkdirs();
+        // Each jar has its own classes and one class shared with the jars of the same group
+        jarFiles = new HashSet<File>();
+        for (int i = 0; i < JARS; i++) {
+            File jar = new File(root, "test" + i + ".jar");
+            createJar(jar, new String[] {"test/own" + i + "/A.class", "test/own" + i + "/B.class",
+                                         "test/shared/Shared" + (i % GROUPS) + ".class"});
+            jarFiles.add(jar);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testConcurrentChecks() throws Exception {
+        int expected = ClassPathHellDetector.check(jarFiles, new QuietLogWrapper(), new CheckOptions().setThreads(1));
+        assertEquals(GROUPS, expected);
+
+        final CheckOptions options = new CheckOptions().setVerbose(true).setThreads(4);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final int[] results = new int[THREADS];
+        for (int round = 0; round < ROUNDS; round++) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                final int index = i;
+                Thread thread = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                            results[index] = ClassPathHellDetector.check(jarFiles, new QuietLogWrapper(), options);
+                        } catch (Throwable e) {
+                            synchronized (failures) {
+                                failures.add(e);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                };
+                thread.start();
+            }
+            start.countDown();
+            done.await();
+            if (!failures.isEmpty()) {
+                Throwable e = failures.get(0);
+                AssertionFailedError error = new AssertionFailedError(failures.size() + " check(s) failed: " + e);
+                error.initCause(e);
+                throw error;
+            }
+            for (int i = 0; i < THREADS; i++) {
+                assertEquals("thread " + i, expected, results[i]);
+            }
+        }
+    }
+
+    private static void createJar(File file, String[] entries) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String entry : entries) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class QuietLogWrapper implements LogWrapper {
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+        }
+
+        public void warn(String msg) {
+        }
+
+        public void error(String msg) {
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the modules of a reactor build against their own jars, including the jars nested in
+ * their dependencies through the Bundle-ClassPath.
+ */
+public class ClassPathHellDetectorModulesTestCase extends TestCase {
+    private File root;
+    private File bundle;
+    private File other;
+    private File unrelated;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/classpath-hell-modules");
+        delete(root);
+        root.mkdirs();
+
+        // A bundle whose only copy of test/Shared.class is in a nested jar
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        write(inner, null, new String[] {"test/Shared.class"});
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-ClassPath", ".,lib/inner.jar");
+        bundle = new File(root, "bundle.jar");
+        FileOutputStream os = new FileOutputStream(bundle);
+        JarOutputStream jos = new JarOutputStream(os, manifest);
+        try {
+            jos.putNextEntry(new ZipEntry("test/bundle/Bundle.class"));
+            jos.write(1);
+            jos.closeEntry();
+            jos.putNextEntry(new ZipEntry("lib/inner.jar"));
+            jos.write(inner.toByteArray());
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+
+        other = createJar(new File(root, "other.jar"), "test/Shared.class");
+        unrelated = createJar(new File(root, "unrelated.jar"), "test/unrelated/Unrelated.class");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testNestedJarInModuleScope() throws Exception {
+        Map<String, Set<File>> modules = new LinkedHashMap<String, Set<File>>();
+        modules.put("app", jars(bundle, other));
+        modules.put("lib", jars(other, unrelated));
+
+        StringWriter report = new StringWriter();
+        ConflictReportWriter writer = new ConflictReportWriter(report, ConflictReportWriter.CSV);
+        CheckOptions options = new CheckOptions().setVerbose(true).setThreads(1).setWriter(writer);
+        int conflicts = ClassPathHellDetector.check(modules, new QuietLogWrapper(), options);
+        writer.close();
+
+        assertEquals(1, conflicts);
+        String csv = report.toString();
+        // The conflict is reported once, for the module depending on the bundle
+        assertTrue(csv, csv.indexOf("app,1,") != -1);
+        assertTrue(csv, csv.indexOf("bundle.jar!/lib/inner.jar") != -1);
+        assertTrue(csv, ("\n" + csv).indexOf("\nlib,") == -1);
+    }
+
+    private static Set<File> jars(File... files) {
+        Set<File> jars = new HashSet<File>();
+        Collections.addAll(jars, files);
+        return jars;
+    }
+
+    private static File createJar(File file, String entry) throws IOException {
+        write(new FileOutputStream(file), null, new String[] {entry});
+        return file;
+    }
+
+    private static void write(OutputStream os, Manifest manifest, String[] entries) throws IOException {
+        JarOutputStream jos = manifest == null ? new JarOutputStream(os) : new JarOutputStream(os, manifest);
+        try {
+            for (String entry : entries) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class QuietLogWrapper implements LogWrapper {
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+        }
+
+        public void warn(String msg) {
+        }
+
+        public void error(String msg) {
+        }
+    }
+}
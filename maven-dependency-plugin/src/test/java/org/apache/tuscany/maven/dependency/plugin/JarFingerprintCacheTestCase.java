@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the builds sharing a cache file merge their class listings into it.
+ */
+public class JarFingerprintCacheTestCase extends TestCase {
+    private static final int THREADS = 8;
+
+    private File root;
+    private File cacheFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/fingerprint-cache");
+        delete(root);
+        root.mkdirs();
+        cacheFile = new File(root, "cache/class-conflicts.bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testMerge() throws Exception {
+        File jar1 = createJar(new File(root, "test1.jar"), "test/A.class");
+        File jar2 = createJar(new File(root, "test2.jar"), "test/B.class");
+
+        // Two builds open the file before either of them saves it
+        JarFingerprintCache cache1 = JarFingerprintCache.open(cacheFile);
+        JarFingerprintCache cache2 = JarFingerprintCache.open(cacheFile);
+        cache1.get(jar1);
+        cache2.get(jar2);
+        cache1.save();
+        cache2.save();
+
+        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+        assertTrue(cache.contains(jar1));
+        assertTrue(cache.contains(jar2));
+        assertEquals("test/A.class", cache.get(jar1).get(0).getClassEntry(0));
+        assertEquals("test/B.class", cache.get(jar2).get(0).getClassEntry(0));
+        // No temporary file is left behind
+        for (String name : cacheFile.getParentFile().list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+
+    public void testChangedJarsDropped() throws Exception {
+        File jar1 = createJar(new File(root, "test1.jar"), "test/A.class");
+        File jar2 = createJar(new File(root, "test2.jar"), "test/B.class");
+        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+        cache.get(jar1);
+        cache.get(jar2);
+        cache.save();
+
+        jar2.delete();
+        cache = JarFingerprintCache.open(cacheFile);
+        cache.get(createJar(new File(root, "test3.jar"), "test/C.class"));
+        cache.save();
+
+        cache = JarFingerprintCache.open(cacheFile);
+        assertTrue(cache.contains(jar1));
+        assertFalse(cache.contains(jar2));
+    }
+
+    public void testUnseenJarsDropped() throws Exception {
+        File jar1 = createJar(new File(root, "test1.jar"), "test/A.class");
+        File jar2 = createJar(new File(root, "test2.jar"), "test/B.class");
+        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+        cache.get(jar1);
+        cache.get(jar2);
+        cache.save();
+
+        // Each build uses jar1 and reads a new jar, jar2 is not used anymore
+        for (int i = 0; i < JarFingerprintCache.MAX_UNSEEN_SAVES; i++) {
+            cache = JarFingerprintCache.open(cacheFile);
+            assertTrue(cache.contains(jar2));
+            cache.get(jar1);
+            cache.get(createJar(new File(root, "new" + i + ".jar"), "test/N" + i + ".class"));
+            cache.save();
+        }
+
+        cache = JarFingerprintCache.open(cacheFile);
+        assertTrue(cache.contains(jar1));
+        assertFalse(cache.contains(jar2));
+        assertTrue(cache.contains(new File(root, "new0.jar")));
+    }
+
+    public void testClassesAndBundleHeadersOnly() throws Exception {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-SymbolicName", "test.bundle");
+        attributes.putValue("Export-Package", "test");
+        attributes.putValue("Bundle-ClassPath", ".,lib/");
+        attributes.putValue("Created-By", "test");
+        File jar = new File(root, "bundle.jar");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            for (String entry : new String[] {"test/A.class", "test/a.properties", "lib/test/B.class"}) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+        List<ClassListing> read = cache.get(jar);
+        cache.save();
+
+        List<ClassListing> listings = JarFingerprintCache.open(cacheFile).get(jar);
+        assertEquals(2, listings.size());
+        ClassListing owner = listings.get(0);
+        assertEquals(jar.getAbsoluteFile(), owner.getFile());
+        assertEquals(2, owner.getClassCount());
+        for (int i = 0; i < 2; i++) {
+            assertEquals(read.get(0).getClassEntry(i), owner.getClassEntry(i));
+            assertEquals(read.get(0).getClassSize(i), owner.getClassSize(i));
+            assertEquals(read.get(0).getClassCrc(i), owner.getClassCrc(i));
+        }
+        ClassListing folder = listings.get(1);
+        assertSame(owner, folder.getOwner());
+        assertEquals(new File(jar.getAbsolutePath() + "!/lib/"), folder.getFile());
+        assertEquals("test/B.class", folder.getClassEntry(0));
+
+        // Only the headers used to check the bundles are kept
+        attributes = owner.getManifest().getMainAttributes();
+        assertEquals("test.bundle", attributes.getValue("Bundle-SymbolicName"));
+        assertEquals("test", attributes.getValue("Export-Package"));
+        assertNull(attributes.getValue("Bundle-ClassPath"));
+        assertNull(attributes.getValue("Created-By"));
+    }
+
+    public void testConcurrentSaves() throws Exception {
+        final File[] jars = new File[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            jars[i] = createJar(new File(root, "test" + i + ".jar"), "test" + i + "/A.class");
+        }
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final File jar = jars[i];
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+                        cache.get(jar);
+                        cache.save();
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        start.countDown();
+        done.await();
+        if (!failures.isEmpty()) {
+            Throwable e = failures.get(0);
+            AssertionFailedError error = new AssertionFailedError(failures.size() + " save(s) failed: " + e);
+            error.initCause(e);
+            throw error;
+        }
+
+        JarFingerprintCache cache = JarFingerprintCache.open(cacheFile);
+        for (File jar : jars) {
+            assertTrue(jar.toString(), cache.contains(jar));
+        }
+    }
+
+    private static File createJar(File file, String entry) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            jos.putNextEntry(new ZipEntry(entry));
+            jos.write(entry.getBytes("UTF-8"));
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
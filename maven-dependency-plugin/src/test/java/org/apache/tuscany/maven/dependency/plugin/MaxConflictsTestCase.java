@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Checks that the maxConflicts limit allows exactly maxConflicts conflicts and stops the check at the
+ * first one above it.
+ */
+public class MaxConflictsTestCase extends TestCase {
+    private static final int GROUPS = 5;
+
+    private File root;
+    private Set<File> jarFiles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/max-conflicts");
+        delete(root);
+        root.mkdirs();
+        // Two jars per group sharing a class, so there is one conflict per group
+        jarFiles = new HashSet<File>();
+        for (int i = 0; i < GROUPS * 2; i++) {
+            File jar = new File(root, "test" + i + ".jar");
+            createJar(jar, new String[] {"test/own" + i + "/A.class", "test/shared/Shared" + (i / 2) + ".class"});
+            jarFiles.add(jar);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testLimitReached() throws Exception {
+        assertEquals(GROUPS, check(GROUPS, null));
+        // Exactly maxConflicts conflicts do not fail the build
+        ClassConflictsDetectorMojo.check(GROUPS, false, GROUPS);
+    }
+
+    public void testLimitExceeded() throws Exception {
+        StringWriter report = new StringWriter();
+        ConflictReportWriter writer = new ConflictReportWriter(report, ConflictReportWriter.CSV);
+        int conflicts = check(2, writer);
+        writer.close();
+
+        // The check stops at the first conflict above the limit, and only reports the limit
+        assertEquals(3, conflicts);
+        // The header and one class per conflict
+        assertEquals(3, report.toString().split("\n").length);
+        try {
+            ClassConflictsDetectorMojo.check(conflicts, false, 2);
+            fail("MojoExecutionException expected");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("stopped after 2"));
+        }
+    }
+
+    public void testLimitAcrossModules() throws Exception {
+        Map<String, Set<File>> modules = new LinkedHashMap<String, Set<File>>();
+        Set<File> first = new HashSet<File>();
+        Set<File> second = new HashSet<File>();
+        for (File jar : jarFiles) {
+            // Groups 0 and 1 in the first module, the others in the second one
+            (jar.getName().compareTo("test4.jar") < 0 ? first : second).add(jar);
+        }
+        modules.put("first", first);
+        modules.put("second", second);
+
+        // The first module uses up the limit, the first conflict of the second one exceeds it
+        int conflicts = ClassPathHellDetector.check(modules, new QuietLogWrapper(), options(2));
+        assertEquals(3, conflicts);
+        conflicts = ClassPathHellDetector.check(modules, new QuietLogWrapper(), options(GROUPS));
+        assertEquals(GROUPS, conflicts);
+    }
+
+    public void testIncompleteListsLogged() throws Exception {
+        QuietLogWrapper log = new QuietLogWrapper();
+        ClassPathHellDetector.check(jarFiles, log, options(2));
+        String last = log.warnings.get(log.warnings.size() - 1);
+        assertTrue(last, last.startsWith("Stopped after 2 conflicts"));
+        assertTrue(last, last.indexOf("may be incomplete") != -1);
+
+        log = new QuietLogWrapper();
+        ClassPathHellDetector.check(jarFiles, log, options(GROUPS));
+        assertTrue(log.warnings.toString(), log.warnings.toString().indexOf("Stopped") == -1);
+    }
+
+    public void testDetectionStops() {
+        ClassIndex index = new ClassIndex();
+        for (int i = 0; i < GROUPS * 2; i++) {
+            int jar = index.addJar(new File("test" + i + ".jar"));
+            index.add(jar, "test/shared/Shared" + (i / 2) + ".class", 1, 1);
+        }
+        List<ClassIndex.Conflict> conflicts = index.getConflicts(null, null, 2);
+        assertEquals(3, conflicts.size());
+        assertEquals(GROUPS, index.getConflicts(null, null, GROUPS).size());
+        assertEquals(GROUPS, index.getConflicts().size());
+    }
+
+    private int check(int maxConflicts, ConflictReportWriter writer) throws IOException {
+        return ClassPathHellDetector.check(jarFiles, new QuietLogWrapper(), options(maxConflicts).setWriter(writer));
+    }
+
+    private static CheckOptions options(int maxConflicts) {
+        return new CheckOptions().setThreads(1).setMaxConflicts(maxConflicts);
+    }
+
+    private static void createJar(File file, String[] entries) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String entry : entries) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class QuietLogWrapper implements LogWrapper {
+        private final List<String> warnings = new ArrayList<String>();
+
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+        }
+
+        public void warn(String msg) {
+            warnings.add(msg);
+        }
+
+        public void error(String msg) {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.dependency.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the polling of a directory by ClassPathHellDetector.watch.
+ */
+public class WatchTestCase extends TestCase {
+    private static final long TIMEOUT = 10000;
+
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/watch");
+        delete(root);
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testDirectoryStamp() throws Exception {
+        File dir = new File(root, "classes");
+        File cls = new File(dir, "test/a/A.class");
+        write(cls, new byte[] {1});
+        long lastModified = cls.lastModified();
+        String stamp = ClassPathHellDetector.stamp(dir);
+        assertEquals(stamp, ClassPathHellDetector.stamp(dir));
+
+        // A class file replaced deep in the directory doesn't change the directory itself
+        write(cls, new byte[] {1, 2});
+        cls.setLastModified(lastModified);
+        assertFalse(stamp.equals(ClassPathHellDetector.stamp(dir)));
+
+        stamp = ClassPathHellDetector.stamp(dir);
+        write(new File(dir, "test/b/B.class"), new byte[] {1});
+        assertFalse(stamp.equals(ClassPathHellDetector.stamp(dir)));
+    }
+
+    public void testStatusChange() throws Exception {
+        ClassIndex index = new ClassIndex();
+        index.add(index.addJar(new File("test1.jar")), "test/A.class", 10, 1);
+        index.add(index.addJar(new File("test2.jar")), "test/A.class", 10, 2);
+        Map<String, List<String>> previous = ClassPathHellDetector.getClassStatuses(index);
+
+        // Same classes in the same jars, but the copies are now identical
+        index = new ClassIndex();
+        index.add(index.addJar(new File("test1.jar")), "test/A.class", 10, 1);
+        index.add(index.addJar(new File("test2.jar")), "test/A.class", 10, 1);
+        Map<String, List<String>> conflicts = ClassPathHellDetector.getClassStatuses(index);
+
+        RecordingLogWrapper log = new RecordingLogWrapper();
+        ClassPathHellDetector.reportChanges(previous, conflicts, log, true);
+        assertTrue(log.toString(), log.contains("Changed conflicting jars: [test1.jar, test2.jar]"));
+        assertTrue(log.toString(), log.contains("    test/A.class"));
+
+        log = new RecordingLogWrapper();
+        ClassPathHellDetector.reportChanges(conflicts, conflicts, log, true);
+        assertFalse(log.toString(), log.contains("conflicting jars"));
+    }
+
+    public void testUnreadableJarRetried() throws Exception {
+        // A jar which is still being copied
+        File jar = new File(root, "test1.jar");
+        write(jar, new byte[] {'P', 'K', 3, 4, 0});
+        createJar(new File(root, "test2.jar"), "test/A.class");
+
+        final RecordingLogWrapper log = new RecordingLogWrapper();
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    ClassPathHellDetector.watch(root, log, false, 1, 10);
+                } catch (IOException e) {
+                    log.error(e.toString());
+                }
+            }
+        };
+        thread.start();
+        try {
+            assertTrue(log.toString(), log.await("Unable to check"));
+            assertTrue(thread.isAlive());
+
+            createJar(jar, "test/A.class");
+            assertTrue(log.toString(), log.await("Number of conflicts: 1"));
+        } finally {
+            thread.interrupt();
+            thread.join(TIMEOUT);
+        }
+        assertFalse(thread.isAlive());
+    }
+
+    private static void createJar(File file, String entry) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            jos.putNextEntry(new ZipEntry(entry));
+            jos.write(entry.getBytes("UTF-8"));
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class RecordingLogWrapper implements LogWrapper {
+        private final List<String> messages = new ArrayList<String>();
+
+        synchronized boolean contains(String text) {
+            for (String msg : messages) {
+                if (msg.indexOf(text) != -1) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized boolean await(String text) throws InterruptedException {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (!contains(text)) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                wait(wait);
+            }
+            return true;
+        }
+
+        private synchronized void add(String msg) {
+            messages.add(msg);
+            notifyAll();
+        }
+
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        public void debug(String msg) {
+        }
+
+        public void info(String msg) {
+            add(msg);
+        }
+
+        public void warn(String msg) {
+            add(msg);
+        }
+
+        public void error(String msg) {
+            add(msg);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return messages.toString();
+        }
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.ClassSignature;
+import org.eclipse.jdt.internal.compiler.env.EnumConstantSignature;
+import org.eclipse.jdt.internal.compiler.env.IBinaryAnnotation;
+import org.eclipse.jdt.internal.compiler.env.IBinaryElementValuePair;
+import org.eclipse.jdt.internal.compiler.env.IBinaryField;
+import org.eclipse.jdt.internal.compiler.env.IBinaryMethod;
+import org.eclipse.jdt.internal.compiler.env.IBinaryNestedType;
+import org.eclipse.jdt.internal.compiler.env.IBinaryType;
+import org.eclipse.jdt.internal.compiler.lookup.TagBits;
+
+/**
+ * Computes a fingerprint of what a class exposes to the classes compiled against it: its modifiers,
+ * supertypes, annotations, member types and the signatures of its non-private fields and methods,
+ * including the values of the constants as they are inlined and the default values of the annotation
+ * elements. Method bodies, private and synthetic members and the debug attributes are left out, so the
+ * fingerprint only changes when the dependent classes may have to be recompiled.
+ * <p>
+ * The fingerprint of a jar or class directory combines the ones of its classes. The compiler writes
+ * the fingerprint of its output directory to a <code>.abi</code> file next to it, so that the modules
+ * compiled against the directory don't have to read its classes.
+ *
+ * @version $Rev$ $Date$
+ */
+class AbiFingerprint {
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    // JDT stores its own flags, such as deprecated, above the class file flags
+    private static final int CLASS_FILE_FLAGS = 0xFFFF;
+    // The standard annotations of a type, which JDT keeps as tag bits instead of annotations
+    private static final long ANNOTATION_TAG_BITS = TagBits.AnnotationTargetMASK | TagBits.AnnotationRetentionMASK
+        | TagBits.AnnotationInherited | TagBits.AnnotationDocumented | TagBits.AnnotationDeprecated;
+
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    // The fingerprints of the classpath entries, keyed by path and stamp
+    private static final Map<String, Long> cache = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private AbiFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the given class file.
+     *
+     * @param classBytes
+     * @param fileName The name of the class file, used in the error messages
+     * @return The fingerprint, 0 for a local or anonymous class which no other class can be compiled against
+     * @throws ClassFormatException
+     */
+    static long fingerprint(byte[] classBytes, String fileName) throws ClassFormatException {
+        return fingerprint(new ClassFileReader(classBytes, fileName.toCharArray(), true));
+    }
+
+    /**
+     * Returns the fingerprint of the given type.
+     *
+     * @param type
+     * @return The fingerprint, 0 for a local or anonymous class which no other class can be compiled against
+     */
+    static long fingerprint(IBinaryType type) {
+        if (type.isAnonymous() || type.isLocal()) {
+            return 0;
+        }
+        StringBuffer abi = new StringBuffer();
+        abi.append(type.getModifiers() & CLASS_FILE_FLAGS & ~ACC_SUPER).append(' ');
+        append(abi, type.getName());
+        append(abi, type.getSuperclassName());
+        append(abi, type.getGenericSignature());
+        char[][] interfaces = type.getInterfaceNames();
+        if (interfaces != null) {
+            for (char[] name : interfaces) {
+                append(abi, name);
+            }
+        }
+        abi.append(Long.toHexString(type.getTagBits() & ANNOTATION_TAG_BITS)).append(' ');
+        appendAnnotations(abi, type.getAnnotations());
+        abi.append('\n');
+
+        List<String> members = new ArrayList<String>();
+        IBinaryField[] fields = type.getFields();
+        if (fields != null) {
+            for (IBinaryField field : fields) {
+                int modifiers = field.getModifiers() & CLASS_FILE_FLAGS;
+                if ((modifiers & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+                    continue;
+                }
+                StringBuffer member = new StringBuffer("F ").append(modifiers).append(' ');
+                append(member, field.getName());
+                append(member, field.getTypeName());
+                append(member, field.getGenericSignature());
+                member.append(field.getConstant());
+                members.add(member.toString());
+            }
+        }
+        IBinaryMethod[] methods = type.getMethods();
+        if (methods != null) {
+            for (IBinaryMethod method : methods) {
+                int modifiers = method.getModifiers() & CLASS_FILE_FLAGS;
+                if ((modifiers & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0 || method.isClinit()) {
+                    continue;
+                }
+                StringBuffer member = new StringBuffer("M ").append(modifiers).append(' ');
+                append(member, method.getSelector());
+                append(member, method.getMethodDescriptor());
+                append(member, method.getGenericSignature());
+                char[][] exceptions = method.getExceptionTypeNames();
+                if (exceptions != null) {
+                    List<String> names = new ArrayList<String>();
+                    for (char[] name : exceptions) {
+                        names.add(new String(name));
+                    }
+                    Collections.sort(names);
+                    member.append(names);
+                }
+                Object defaultValue = method.getDefaultValue();
+                if (defaultValue != null) {
+                    member.append(" default ");
+                    appendValue(member, defaultValue);
+                }
+                members.add(member.toString());
+            }
+        }
+        IBinaryNestedType[] memberTypes = type.getMemberTypes();
+        if (memberTypes != null) {
+            for (IBinaryNestedType memberType : memberTypes) {
+                int modifiers = memberType.getModifiers() & CLASS_FILE_FLAGS;
+                if ((modifiers & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0) {
+                    continue;
+                }
+                StringBuffer member = new StringBuffer("T ").append(modifiers).append(' ');
+                append(member, memberType.getName());
+                members.add(member.toString());
+            }
+        }
+
+        // The order of the members in the class file is not significant
+        Collections.sort(members);
+        for (String member : members) {
+            abi.append(member).append('\n');
+        }
+        return hash(abi.toString());
+    }
+
+    /**
+     * Returns the fingerprint of a set of types.
+     *
+     * @param types The dotted type names and their fingerprint
+     * @return
+     */
+    static long fingerprint(Map<String, Long> types) {
+        StringBuffer abi = new StringBuffer();
+        for (Map.Entry<String, Long> e : new TreeMap<String, Long>(types).entrySet()) {
+            if (e.getValue() != 0) {
+                abi.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+            }
+        }
+        return hash(abi.toString());
+    }
+
+    /**
+     * Returns a stamp of a jar or class directory, that changes whenever the file or one of the class
+     * files is written.
+     *
+     * @param classpathEntry
+     * @return
+     */
+    static long stamp(File classpathEntry) {
+        StringBuffer buffer = new StringBuffer();
+        if (classpathEntry.isDirectory()) {
+            appendClassFiles(buffer, classpathEntry);
+        } else {
+            buffer.append(classpathEntry.length()).append(' ').append(classpathEntry.lastModified());
+        }
+        return hash(buffer.toString());
+    }
+
+    private static void appendClassFiles(StringBuffer buffer, File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                appendClassFiles(buffer, file);
+            } else if (file.getName().endsWith(".class")) {
+                buffer.append(file.getName()).append(' ').append(file.length()).append(' ')
+                    .append(file.lastModified()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Returns the fingerprint of the classes of a jar or class directory. The fingerprint recorded in the
+     * <code>.abi</code> file of a directory is used if the directory hasn't changed since it was written.
+     *
+     * @param classpathEntry
+     * @param stamp The stamp of the entry
+     * @return
+     * @throws IOException
+     */
+    static long fingerprint(File classpathEntry, long stamp) throws IOException {
+        String key = classpathEntry.getAbsolutePath() + ' ' + stamp;
+        synchronized (cache) {
+            Long fingerprint = cache.get(key);
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+        }
+
+        Map<String, Long> types = new TreeMap<String, Long>();
+        long fingerprint;
+        try {
+            if (classpathEntry.isDirectory()) {
+                Long recorded = read(classpathEntry, stamp);
+                if (recorded != null) {
+                    fingerprint = recorded;
+                } else {
+                    addClassFiles(types, classpathEntry, "");
+                    fingerprint = fingerprint(types);
+                }
+            } else {
+                JarFile jar = new JarFile(classpathEntry, false);
+                try {
+                    for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+                        ZipEntry entry = e.nextElement();
+                        String name = entry.getName();
+                        if (name.endsWith(".class")) {
+                            byte[] bytes = ClassPathIndex.read(jar.getInputStream(entry), entry.getSize());
+                            types.put(toTypeName(name), fingerprint(bytes, name));
+                        }
+                    }
+                } finally {
+                    jar.close();
+                }
+                fingerprint = fingerprint(types);
+            }
+        } catch (ClassFormatException e) {
+            IOException ex = new IOException("Invalid class file in " + classpathEntry);
+            ex.initCause(e);
+            throw ex;
+        }
+        synchronized (cache) {
+            cache.put(key, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of a jar or class directory if it is known without reading its classes,
+     * because it has already been computed or is recorded in the <code>.abi</code> file of the directory.
+     *
+     * @param classpathEntry
+     * @param stamp The stamp of the entry
+     * @return The fingerprint, or 0 if it is unknown
+     */
+    static long knownFingerprint(File classpathEntry, long stamp) {
+        String key = classpathEntry.getAbsolutePath() + ' ' + stamp;
+        synchronized (cache) {
+            Long fingerprint = cache.get(key);
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+        }
+        if (classpathEntry.isDirectory()) {
+            Long recorded = read(classpathEntry, stamp);
+            if (recorded != null) {
+                return recorded;
+            }
+        }
+        return 0;
+    }
+
+    private static void addClassFiles(Map<String, Long> types, File dir, String prefix)
+        throws IOException, ClassFormatException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                addClassFiles(types, file, name + '/');
+            } else if (name.endsWith(".class")) {
+                byte[] bytes = ClassPathIndex.read(new FileInputStream(file), file.length());
+                types.put(toTypeName(name), fingerprint(bytes, name));
+            }
+        }
+    }
+
+    private static String toTypeName(String classFileName) {
+        return classFileName.substring(0, classFileName.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Returns the <code>.abi</code> file of an output directory.
+     *
+     * @param outputDirectory
+     * @return
+     */
+    static File getFile(File outputDirectory) {
+        return new File(outputDirectory.getParentFile(), outputDirectory.getName() + ".abi");
+    }
+
+    /**
+     * Record the fingerprint of an output directory in its <code>.abi</code> file, with the stamp of the
+     * directory once all its class files are written.
+     *
+     * @param outputDirectory
+     * @param fingerprint
+     * @throws IOException
+     */
+    static void write(File outputDirectory, long fingerprint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("stamp", Long.toHexString(stamp(outputDirectory)));
+        properties.setProperty("abi", Long.toHexString(fingerprint));
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(getFile(outputDirectory)));
+        try {
+            properties.store(os, "ABI fingerprint of " + outputDirectory.getName());
+        } finally {
+            os.close();
+        }
+    }
+
+    private static Long read(File outputDirectory, long stamp) {
+        File file = getFile(outputDirectory);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            Properties properties = new Properties();
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+            if (!Long.toHexString(stamp).equals(properties.getProperty("stamp"))) {
+                return null;
+            }
+            return Long.valueOf(new BigInteger(properties.getProperty("abi"), 16).longValue());
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // A missing or malformed fingerprint
+            return null;
+        }
+    }
+
+    /**
+     * Append the annotations, in a stable order.
+     */
+    private static void appendAnnotations(StringBuffer buffer, IBinaryAnnotation[] annotations) {
+        if (annotations == null) {
+            return;
+        }
+        List<String> values = new ArrayList<String>();
+        for (IBinaryAnnotation annotation : annotations) {
+            StringBuffer value = new StringBuffer();
+            appendValue(value, annotation);
+            values.add(value.toString());
+        }
+        Collections.sort(values);
+        buffer.append(values);
+    }
+
+    /**
+     * Append the value of an annotation element: a constant, a class, an enum constant, an annotation
+     * or an array of them.
+     */
+    private static void appendValue(StringBuffer buffer, Object value) {
+        if (value instanceof IBinaryAnnotation) {
+            IBinaryAnnotation annotation = (IBinaryAnnotation)value;
+            buffer.append('@');
+            append(buffer, annotation.getTypeName());
+            IBinaryElementValuePair[] pairs = annotation.getElementValuePairs();
+            if (pairs != null) {
+                List<String> elements = new ArrayList<String>();
+                for (IBinaryElementValuePair pair : pairs) {
+                    StringBuffer element = new StringBuffer();
+                    append(element, pair.getName());
+                    appendValue(element, pair.getValue());
+                    elements.add(element.toString());
+                }
+                Collections.sort(elements);
+                buffer.append(elements);
+            }
+        } else if (value instanceof Object[]) {
+            buffer.append('{');
+            for (Object element : (Object[])value) {
+                appendValue(buffer, element);
+                buffer.append(',');
+            }
+            buffer.append('}');
+        } else if (value instanceof ClassSignature) {
+            buffer.append("class ");
+            append(buffer, ((ClassSignature)value).getTypeName());
+        } else if (value instanceof EnumConstantSignature) {
+            EnumConstantSignature constant = (EnumConstantSignature)value;
+            append(buffer, constant.getTypeName());
+            append(buffer, constant.getEnumConstantName());
+        } else {
+            buffer.append(value);
+        }
+    }
+
+    private static void append(StringBuffer buffer, char[] value) {
+        if (value != null) {
+            buffer.append(value);
+        }
+        buffer.append(' ');
+    }
+
+    /**
+     * Returns a 64 bit hash of the given string.
+     */
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            // 0 is reserved for the classes without a fingerprint
+            return hash == 0 ? 1 : hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
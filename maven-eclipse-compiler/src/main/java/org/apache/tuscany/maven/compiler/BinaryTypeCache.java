@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+
+/**
+ * A JVM-wide cache of the binary types read from jars, shared by the compilations of all the modules of
+ * a build, so that the classes of the JDK and of the common dependencies are only read and parsed once.
+ * <p>
+ * The types are kept per jar, along with the stamp of the jar when they were read. The types of a jar are
+ * dropped as soon as the jar is looked up with another stamp, and the least recently used jars are dropped
+ * once the cached class files exceed the maximum size. The cache lives in the class loader of the plugin,
+ * and goes away with it at the end of the build.
+ *
+ * @version $Rev$ $Date$
+ */
+class BinaryTypeCache {
+    // The maximum size of the cached class files
+    private static final long MAX_SIZE = 32 * 1024 * 1024;
+
+    private static final Map<String, Jar> jars = new LinkedHashMap<String, Jar>(16, 0.75f, true);
+    private static long size;
+
+    private static class Jar {
+        private long stamp;
+        private Map<String, ClassFileReader> types = new HashMap<String, ClassFileReader>();
+        private long size;
+
+        Jar(long stamp) {
+            this.stamp = stamp;
+        }
+    }
+
+    private BinaryTypeCache() {
+    }
+
+    /**
+     * Returns the cached type of the given jar.
+     *
+     * @param jar
+     * @param stamp The current stamp of the jar
+     * @param resourceName The name of the class file in the jar
+     * @return The type, or null if it is not cached
+     */
+    static synchronized ClassFileReader get(File jar, long stamp, String resourceName) {
+        Jar cached = getJar(jar, stamp);
+        return cached == null ? null : cached.types.get(resourceName);
+    }
+
+    /**
+     * Add a type read from a jar to the cache.
+     *
+     * @param jar
+     * @param stamp The current stamp of the jar
+     * @param resourceName The name of the class file in the jar
+     * @param type
+     * @param length The length of the class file
+     */
+    static synchronized void put(File jar, long stamp, String resourceName, ClassFileReader type, int length) {
+        Jar cached = getJar(jar, stamp);
+        if (cached == null) {
+            cached = new Jar(stamp);
+            jars.put(jar.getAbsolutePath(), cached);
+        }
+        if (cached.types.put(resourceName, type) == null) {
+            cached.size += length;
+            size += length;
+        }
+
+        // Drop the least recently used jars, but not the one in use
+        for (Iterator<Jar> i = jars.values().iterator(); size > MAX_SIZE && i.hasNext();) {
+            Jar eldest = i.next();
+            if (eldest != cached) {
+                size -= eldest.size;
+                i.remove();
+            }
+        }
+    }
+
+    private static Jar getJar(File jar, long stamp) {
+        Jar cached = jars.get(jar.getAbsolutePath());
+        if (cached != null && cached.stamp != stamp) {
+            // The jar has changed
+            size -= cached.size;
+            jars.remove(jar.getAbsolutePath());
+            cached = null;
+        }
+        return cached;
+    }
+
+}
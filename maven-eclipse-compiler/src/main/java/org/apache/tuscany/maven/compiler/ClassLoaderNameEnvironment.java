@@ -19,14 +19,18 @@
 
 package org.apache.tuscany.maven.compiler;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.plexus.logging.Logger;
 
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
 import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
@@ -36,22 +40,72 @@ import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
 
 /**
  * An implementation of INameEnvironment based on a ClassLoader.
+ * <p>
+ * The packages of the classpath entries are indexed up front, so that the lookups of the many names
+ * that are not types or packages don't probe every jar of the class loader. The class loader is only
+ * used for the names the index cannot answer.
+ * <p>
+ * For an incremental compilation, the types of the sources that are not recompiled are read from the
+ * output directory rather than compiled again from their sources. The class files of the sources being
+ * recompiled are still in the output directory but are hidden, as some of them may be gone once
+ * compiled.
+ * <p>
+ * The lookups are synchronized, as the compiler may use the environment from more than one thread.
  * 
  * @version $Rev$ $Date$
  */
 class ClassLoaderNameEnvironment implements INameEnvironment {
     
     private ClassLoader classLoader;
+    private ClassPathIndex classPathIndex;
     private List<String> sourceLocations;
     private Map<String, File> sourceFiles;
+    private Map<String, Boolean> packages;
+    private Set<String> missingTypes;
+    private File binaryDirectory;
+    private Set<String> staleTypes;
+    private String encoding;
+    private Logger logger;
+
+    private int typeLookups;
+    private int missingTypeHits;
+    private int packageLookups;
+    private int packageHits;
+    private long bytesRead;
+
+    ClassLoaderNameEnvironment(ClassLoader classLoader,
+                               ClassPathIndex classPathIndex,
+                               List<String> sourceLocations,
+                               Logger logger) {
+        this(classLoader, classPathIndex, sourceLocations, null, Collections.<String> emptySet(), null, logger);
+    }
 
-    ClassLoaderNameEnvironment(ClassLoader classLoader, List<String> sourceLocations) {
+    /**
+     * @param binaryDirectory The output directory of an incremental compilation, the class files of the
+     *            deleted sources must have been deleted from it
+     * @param staleTypes The types produced before by the sources being recompiled
+     * @param encoding The encoding of the sources, null for the platform encoding
+     */
+    ClassLoaderNameEnvironment(ClassLoader classLoader,
+                               ClassPathIndex classPathIndex,
+                               List<String> sourceLocations,
+                               File binaryDirectory,
+                               Set<String> staleTypes,
+                               String encoding,
+                               Logger logger) {
         this.classLoader = classLoader;
+        this.classPathIndex = classPathIndex;
         this.sourceLocations = sourceLocations;
+        this.binaryDirectory = binaryDirectory;
+        this.staleTypes = staleTypes;
+        this.encoding = encoding;
+        this.logger = logger;
         sourceFiles = new HashMap<String, File>();
+        packages = new HashMap<String, Boolean>();
+        missingTypes = new HashSet<String>();
     }
 
-    public NameEnvironmentAnswer findType(char[][] compoundTypeName) {
+    public synchronized NameEnvironmentAnswer findType(char[][] compoundTypeName) {
         StringBuffer className = new StringBuffer();
         for (char[] name: compoundTypeName) {
             if (className.length() != 0) {
@@ -62,7 +116,7 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
         return nameAnswer(className.toString());
     }
 
-    public NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
+    public synchronized NameEnvironmentAnswer findType(char[] typeName, char[][] packageName) {
         StringBuffer className = new StringBuffer();
         for (char[] name: packageName) {
             if (className.length() != 0) {
@@ -77,7 +131,7 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
         return nameAnswer(className.toString());
     }
 
-    public boolean isPackage(char[][] parentPackageName, char[] packageName) {
+    public synchronized boolean isPackage(char[][] parentPackageName, char[] packageName) {
         StringBuffer fullPackageName = new StringBuffer();
         if (parentPackageName != null) {
             for (char[] name: parentPackageName) {
@@ -97,6 +151,48 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
     public void cleanup() {
     }
 
+    /**
+     * Log the lookup statistics.
+     */
+    synchronized void close() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Name lookups: " + typeLookups
+                + " types ("
+                + missingTypeHits
+                + " answered by the cache of missing types), "
+                + packageLookups
+                + " packages ("
+                + packageHits
+                + " answered by the cache), "
+                + classPathIndex.getPackageCount()
+                + " classpath packages indexed, "
+                + classPathIndex.getCachedTypeCount()
+                + " types read from the cache of the build");
+        }
+    }
+
+    /**
+     * Returns the number of types looked up.
+     */
+    synchronized int getTypeLookups() {
+        return typeLookups;
+    }
+
+    /**
+     * Returns the number of packages looked up.
+     */
+    synchronized int getPackageLookups() {
+        return packageLookups;
+    }
+
+    /**
+     * Returns the number of bytes of the classes read from the output directory and through the class
+     * loader, the classes read from the classpath index are counted by the index.
+     */
+    synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
     /**
      * Returns the source file for the given class name.
      * 
@@ -105,7 +201,7 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
      */
     private File sourceFile(String className) {
         File sourceFile = (File)sourceFiles.get(className);
-        if (sourceFile != null) {
+        if (sourceFile != null || sourceFiles.containsKey(className)) {
             return sourceFile;
         }
         String sourceName = className.replace('.', File.separatorChar) + ".java";
@@ -137,12 +233,42 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
      * @return
      */
     private boolean isPackage(String name) {
+        packageLookups++;
+        Boolean result = packages.get(name);
+        if (result != null) {
+            packageHits++;
+            return result.booleanValue();
+        }
+        boolean isPackage;
         if (sourceFile(name) != null) {
-            return false;
+            isPackage = false;
+        } else if (classPathIndex.isPackage(name) || sourcePackage(name)) {
+            isPackage = true;
+        } else if (classPathIndex.isComplete()) {
+            isPackage = false;
+        } else {
+            // The JDK classes are not indexed, assume a package unless a class has this name
+            String resourceName = name.replace('.', '/') + ".class";
+            isPackage = classLoader.getResource(resourceName) == null;
         }
-        String resourceName = '/' + name.replace('.', '/') + ".class";
-        URL url = classLoader.getResource(resourceName);
-        return url == null;
+        packages.put(name, Boolean.valueOf(isPackage));
+        return isPackage;
+    }
+
+    /**
+     * Returns true if a source location contains the given package.
+     * 
+     * @param name
+     * @return
+     */
+    private boolean sourcePackage(String name) {
+        String path = name.replace('.', File.separatorChar);
+        for (String sourceLocation : sourceLocations) {
+            if (new File(sourceLocation, path).isDirectory()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -152,31 +278,46 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
      * @return
      */
     private NameEnvironmentAnswer nameAnswer(String className) {
+        typeLookups++;
+        if (missingTypes.contains(className)) {
+            missingTypeHits++;
+            return null;
+        }
         try {
+            boolean stale = staleTypes.contains(className);
+            if (binaryDirectory != null && !stale) {
+                File classFile = new File(binaryDirectory, className.replace('.', '/') + ".class");
+                if (classFile.isFile()) {
+                    byte[] classBytes = ClassPathIndex.read(new FileInputStream(classFile), classFile.length());
+                    bytesRead += classBytes.length;
+                    ClassFileReader classFileReader = new ClassFileReader(classBytes, className.toCharArray(), true);
+                    return new NameEnvironmentAnswer(classFileReader, null);
+                }
+            }
+
             File sourceFile = sourceFile(className);
             if (sourceFile != null) {
-                ICompilationUnit compilationUnit = new FileCompilationUnit(sourceFile.getAbsolutePath(), className);
+                ICompilationUnit compilationUnit = new FileCompilationUnit(sourceFile.getAbsolutePath(), className, encoding);
                 return new NameEnvironmentAnswer(compilationUnit, null);
             }
 
-            String resourceName = className.replace('.', '/') + ".class";
-            InputStream is = classLoader.getResourceAsStream(resourceName);
-            if (is == null) {
+            if (stale) {
+                // The class file in the output directory may also be found on the classpath
+                missingTypes.add(className);
                 return null;
             }
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] b = new byte[4096];
-            for (;;) {
-                int n = is.read(b);
-                if (n <= 0) {
-                    break;
+            ClassFileReader classFileReader = classPathIndex.readType(className);
+            if (classFileReader == null && !classPathIndex.isComplete()) {
+                byte[] classBytes = loadClass(className);
+                if (classBytes != null) {
+                    bytesRead += classBytes.length;
+                    classFileReader = new ClassFileReader(classBytes, className.toCharArray(), true);
                 }
-                bos.write(b, 0, n);
             }
-            is.close();
-            byte[] classBytes = bos.toByteArray();
-            
-            ClassFileReader classFileReader = new ClassFileReader(classBytes, className.toCharArray(), true);
+            if (classFileReader == null) {
+                missingTypes.add(className);
+                return null;
+            }
             return new NameEnvironmentAnswer(classFileReader, null);
             
         } catch (IOException e) {
@@ -186,4 +327,20 @@ class ClassLoaderNameEnvironment implements INameEnvironment {
         }
     }
 
+    /**
+     * Read the given class through the class loader.
+     * 
+     * @param className
+     * @return
+     * @throws IOException
+     */
+    private byte[] loadClass(String className) throws IOException {
+        String resourceName = className.replace('.', '/') + ".class";
+        InputStream is = classLoader.getResourceAsStream(resourceName);
+        if (is == null) {
+            return null;
+        }
+        return ClassPathIndex.read(is, -1);
+    }
+
 }
@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+
+/**
+ * An index of the packages found in a list of jars and class directories. A class is only looked up
+ * in the entries that contain its package, in classpath order.
+ * <p>
+ * The jars stay open while the index is in use and their class entries are kept in a table built when
+ * the jar is indexed, so a class is read with a single inflate into an array of its exact size. The types
+ * read from the jars are kept in the {@link BinaryTypeCache} for the compilations of the other modules.
+ * <p>
+ * The jars on the boot class path and in the extension directories of the JVM are indexed once per JVM,
+ * in an index shared by the compilations of all the modules. It lives in the class loader of the plugin,
+ * and its jars stay open until the end of the build.
+ *
+ * @version $Rev$ $Date$
+ */
+class ClassPathIndex {
+
+    // The index of the boot and extension jars, shared by all the compilations
+    private static ClassPathIndex bootIndex;
+
+    private ClassPathIndex boot;
+    private Map<String, List<Entry>> packages = new HashMap<String, List<Entry>>();
+    private List<Entry> entries = new ArrayList<Entry>();
+    private boolean complete;
+    private int cachedTypes;
+    private long bytesRead;
+
+    /**
+     * A jar or a class directory.
+     */
+    private static abstract class Entry {
+        protected File file;
+
+        Entry(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Returns the bytes of the given resource, or null if the entry doesn't contain it.
+         */
+        abstract byte[] read(String resourceName) throws IOException;
+
+        /**
+         * Returns the given type if it has been read before, possibly by another compilation.
+         */
+        ClassFileReader getCachedType(String resourceName) {
+            return null;
+        }
+
+        void cacheType(String resourceName, ClassFileReader type, int length) {
+        }
+
+        void close() {
+        }
+    }
+
+    private static class JarEntries extends Entry {
+        private JarFile jar;
+        private Map<String, ZipEntry> classes = new HashMap<String, ZipEntry>();
+        private long stamp;
+
+        JarEntries(File file, JarFile jar) {
+            super(file);
+            this.jar = jar;
+            stamp = AbiFingerprint.stamp(file);
+        }
+
+        byte[] read(String resourceName) throws IOException {
+            ZipEntry entry = classes.get(resourceName);
+            if (entry == null) {
+                return null;
+            }
+            return ClassPathIndex.read(jar.getInputStream(entry), entry.getSize());
+        }
+
+        ClassFileReader getCachedType(String resourceName) {
+            if (!classes.containsKey(resourceName)) {
+                return null;
+            }
+            return BinaryTypeCache.get(file, stamp, resourceName);
+        }
+
+        void cacheType(String resourceName, ClassFileReader type, int length) {
+            BinaryTypeCache.put(file, stamp, resourceName, type, length);
+        }
+
+        void close() {
+            try {
+                jar.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static class DirectoryEntries extends Entry {
+
+        DirectoryEntries(File file) {
+            super(file);
+        }
+
+        byte[] read(String resourceName) throws IOException {
+            File resource = new File(file, resourceName);
+            if (!resource.isFile()) {
+                return null;
+            }
+            return ClassPathIndex.read(new FileInputStream(resource), resource.length());
+        }
+    }
+
+    /**
+     * Index the given classpath entries. The classes of the JDK are looked up first in the shared index of
+     * the boot and extension jars, as they are found by the parent class loaders before the classpath
+     * entries.
+     *
+     * @param classpathEntries
+     * @throws IOException
+     */
+    ClassPathIndex(List<String> classpathEntries) throws IOException {
+        this(getBootIndex(), classpathEntries);
+    }
+
+    /**
+     * Index the given classpath entries, on top of the given index of the boot and extension jars.
+     *
+     * @param boot
+     * @param classpathEntries
+     * @throws IOException
+     */
+    ClassPathIndex(ClassPathIndex boot, List<String> classpathEntries) throws IOException {
+        this.boot = boot;
+        for (String classpathEntry : classpathEntries) {
+            File file = new File(classpathEntry);
+            if (file.isDirectory()) {
+                addDirectory(file);
+            } else if (file.isFile()) {
+                addJar(file);
+            }
+        }
+    }
+
+    /**
+     * Index the jars on the boot class path and in the extension directories of a JVM.
+     *
+     * @param bootClassPath The boot class path, null if the JDK classes are not in jars
+     * @param extDirs The extension directories, or null
+     * @throws IOException
+     */
+    ClassPathIndex(String bootClassPath, String extDirs) throws IOException {
+        boot = this;
+        if (bootClassPath == null) {
+            // The JDK classes are in modules, they are only found by the class loader
+            return;
+        }
+        complete = true;
+        StringTokenizer tokens = new StringTokenizer(bootClassPath, File.pathSeparator);
+        while (tokens.hasMoreTokens()) {
+            File file = new File(tokens.nextToken());
+            if (file.isFile()) {
+                addJar(file);
+            }
+        }
+        if (extDirs != null) {
+            tokens = new StringTokenizer(extDirs, File.pathSeparator);
+            while (tokens.hasMoreTokens()) {
+                File[] files = new File(tokens.nextToken()).listFiles();
+                if (files == null) {
+                    continue;
+                }
+                Arrays.sort(files);
+                for (File file : files) {
+                    if (file.isFile()) {
+                        addJar(file);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the boot and extension jars, building it on first use.
+     */
+    static synchronized ClassPathIndex getBootIndex() throws IOException {
+        if (bootIndex == null) {
+            bootIndex =
+                new ClassPathIndex(System.getProperty("sun.boot.class.path"), System.getProperty("java.ext.dirs"));
+        }
+        return bootIndex;
+    }
+
+    private void addJar(File file) throws IOException {
+        JarFile jar;
+        try {
+            jar = new JarFile(file, false);
+        } catch (IOException e) {
+            // Not a jar, the class loader would ignore it as well
+            return;
+        }
+        JarEntries entry = new JarEntries(file, jar);
+        entries.add(entry);
+        String last = null;
+        for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements();) {
+            ZipEntry zipEntry = e.nextElement();
+            String name = zipEntry.getName();
+            if (name.endsWith(".class")) {
+                entry.classes.put(name, zipEntry);
+            }
+            int index = name.lastIndexOf('/');
+            String packageName = index == -1 ? "" : name.substring(0, index).replace('/', '.');
+            if (!packageName.equals(last)) {
+                addPackage(packageName, entry);
+                last = packageName;
+            }
+        }
+    }
+
+    private void addDirectory(File dir) {
+        Entry entry = new DirectoryEntries(dir);
+        entries.add(entry);
+        addDirectory(dir, "", entry);
+    }
+
+    private void addDirectory(File dir, String packageName, Entry entry) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        addPackage(packageName, entry);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                String name = packageName.length() == 0 ? file.getName() : packageName + '.' + file.getName();
+                addDirectory(file, name, entry);
+            }
+        }
+    }
+
+    private void addPackage(String packageName, Entry entry) {
+        for (;;) {
+            List<Entry> list = packages.get(packageName);
+            if (list == null) {
+                list = new ArrayList<Entry>(1);
+                packages.put(packageName, list);
+            }
+            if (!list.isEmpty() && list.get(list.size() - 1) == entry) {
+                // The parent packages have been added for this entry already
+                return;
+            }
+            list.add(entry);
+
+            // The parent packages exist as well, a package such as java only contains other packages
+            int index = packageName.lastIndexOf('.');
+            if (index == -1) {
+                return;
+            }
+            packageName = packageName.substring(0, index);
+        }
+    }
+
+    /**
+     * Returns true if the index covers the classes of the JDK, otherwise the lookups that fail should
+     * be delegated to a class loader.
+     */
+    boolean isComplete() {
+        return boot.complete;
+    }
+
+    /**
+     * Returns true if one of the entries contains the given package.
+     *
+     * @param packageName A dotted package name
+     */
+    boolean isPackage(String packageName) {
+        return boot.packages.containsKey(packageName) || packages.containsKey(packageName);
+    }
+
+    /**
+     * Returns the given class, read from the first entry that contains it.
+     *
+     * @param className A dotted class name, with $ separating the nested classes
+     * @return The class, or null if the class is not found
+     * @throws IOException
+     * @throws ClassFormatException
+     */
+    ClassFileReader readType(String className) throws IOException, ClassFormatException {
+        int index = className.lastIndexOf('.');
+        String packageName = index == -1 ? "" : className.substring(0, index);
+        String resourceName = className.replace('.', '/') + ".class";
+        ClassFileReader type = readType(boot.packages.get(packageName), className, resourceName);
+        if (type == null) {
+            type = readType(packages.get(packageName), className, resourceName);
+        }
+        return type;
+    }
+
+    private ClassFileReader readType(List<Entry> list, String className, String resourceName)
+        throws IOException, ClassFormatException {
+        if (list == null) {
+            return null;
+        }
+        for (Entry entry : list) {
+            ClassFileReader type = entry.getCachedType(resourceName);
+            if (type != null) {
+                cachedTypes++;
+                return type;
+            }
+            byte[] bytes = entry.read(resourceName);
+            if (bytes != null) {
+                bytesRead += bytes.length;
+                type = new ClassFileReader(bytes, className.toCharArray(), true);
+                entry.cacheType(resourceName, type, bytes.length);
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of packages indexed for the classpath entries, the packages of the shared boot
+     * index are not counted.
+     */
+    int getPackageCount() {
+        return packages.size();
+    }
+
+    /**
+     * Returns the number of types found in the cache.
+     */
+    int getCachedTypeCount() {
+        return cachedTypes;
+    }
+
+    /**
+     * Returns the number of bytes of the classes read.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Close the jars of the classpath entries, the boot and extension jars stay open.
+     */
+    void close() {
+        for (Entry entry : entries) {
+            entry.close();
+        }
+    }
+
+    /**
+     * Read a stream into an array of the given size, and close it.
+     *
+     * @param is
+     * @param size The size of the content, -1 if it is unknown
+     * @return
+     * @throws IOException
+     */
+    static byte[] read(InputStream is, long size) throws IOException {
+        try {
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] b = new byte[4096];
+                for (;;) {
+                    int n = is.read(b);
+                    if (n <= 0) {
+                        break;
+                    }
+                    bos.write(b, 0, n);
+                }
+                return bos.toByteArray();
+            }
+            byte[] bytes = new byte[(int)size];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int n = is.read(bytes, offset, bytes.length - offset);
+                if (n < 0) {
+                    throw new EOFException("Unexpected end of stream after " + offset + " of " + size + " bytes");
+                }
+                offset += n;
+            }
+            return bytes;
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -20,29 +20,78 @@
 package org.apache.tuscany.maven.compiler;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.plexus.compiler.CompilerError;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.internal.compiler.ClassFile;
 import org.eclipse.jdt.internal.compiler.CompilationResult;
 import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
 
+/**
+ * Collects the problems reported by the compiler and writes the class files.
+ * <p>
+ * The class files are written by a small pool of threads so that the compiler doesn't wait for the
+ * disk, {@link #flush()} waits for the pending writes. A class file that already has the same content
+ * is not written again, so its timestamp is kept.
+ * <p>
+ * The results may be accepted from a compiler thread other than the one that started the compilation.
+ *
+ * @version $Rev$ $Date$
+ */
 class CompilerRequestor implements ICompilerRequestor {
+    private static final int WRITER_THREADS = 2;
+
     private String outputDirectory;
     private boolean showWarnings;
     private List<CompilerError> compilerErrors;
+    private DependencyGraph dependencyGraph;
+
+    private ExecutorService writer;
+    private List<Future<Object>> writes = new ArrayList<Future<Object>>();
+    // The directories known to exist
+    private Set<File> directories = new HashSet<File>();
+    private AtomicInteger writtenFiles = new AtomicInteger();
+    private AtomicInteger unchangedFiles = new AtomicInteger();
+    private AtomicLong writtenBytes = new AtomicLong();
+    private AtomicLong writeTime = new AtomicLong();
 
     public CompilerRequestor(String outputDirectory, boolean showWarnings, List<CompilerError> compilerErrors) {
+        this(outputDirectory, showWarnings, compilerErrors, null);
+    }
+
+    /**
+     * @param dependencyGraph The graph the compiled sources are recorded in, or null
+     */
+    public CompilerRequestor(String outputDirectory,
+                             boolean showWarnings,
+                             List<CompilerError> compilerErrors,
+                             DependencyGraph dependencyGraph) {
         this.outputDirectory = outputDirectory;
         this.showWarnings = showWarnings;
         this.compilerErrors = compilerErrors;
+        this.dependencyGraph = dependencyGraph;
     }
 
-    public void acceptResult(CompilationResult result) {
+    public synchronized void acceptResult(CompilationResult result) {
         boolean hasErrors = false;
         if (result.hasProblems()) {
             
@@ -74,7 +123,9 @@ class CompilerRequestor implements ICompilerRequestor {
         }
         
         // Write the class files 
+        Map<String, Long> types = null;
         if (!hasErrors) {
+            types = new TreeMap<String, Long>();
             ClassFile[] classFiles = result.getClassFiles();
             for (ClassFile classFile: classFiles) {
 
@@ -86,29 +137,186 @@ class CompilerRequestor implements ICompilerRequestor {
                     }
                     className.append(name);
                 }
-                File file = new File(outputDirectory, className.toString().replace('.', '/') + ".class");
-                if (!file.getParentFile().exists()) {
-                    file.getParentFile().mkdirs();
+                final File file = new File(outputDirectory, className.toString().replace('.', '/') + ".class");
+                final byte[] bytes = classFile.getBytes();
+                if (dependencyGraph != null) {
+                    try {
+                        types.put(className.toString(), AbiFingerprint.fingerprint(bytes, file.getPath()));
+                    } catch (ClassFormatException e) {
+                        throw new IllegalArgumentException(e);
+                    }
                 }
                 
                 // Write class file contents
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(file);
-                    fos.write(classFile.getBytes());
-                } catch (FileNotFoundException e) {
-                    throw new IllegalArgumentException(e);
-                } catch (IOException e) {
-                    throw new IllegalArgumentException(e);
-                } finally {
-                    if (fos != null) {
-                        try {
-                            fos.close();
-                        } catch (IOException e) {}
+                writes.add(getWriter().submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        long start = System.currentTimeMillis();
+                        writeClassFile(file, bytes);
+                        writeTime.addAndGet(System.currentTimeMillis() - start);
+                        return null;
                     }
+                }));
+            }
+        }
+
+        // Record the types produced and referenced by the source
+        if (dependencyGraph != null && result.compilationUnit instanceof FileCompilationUnit) {
+            String sourceFile = ((FileCompilationUnit)result.compilationUnit).getSourceFile();
+            try {
+                dependencyGraph.recordResult(sourceFile,
+                                             types,
+                                             toNames(result.qualifiedReferences),
+                                             toNames(result.simpleNameReferences));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newFixedThreadPool(WRITER_THREADS, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "class-file-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return writer;
+    }
+
+    private void writeClassFile(File file, byte[] bytes) throws IOException {
+        // Create the parent directories
+        File dir = file.getParentFile();
+        synchronized (directories) {
+            if (!directories.contains(dir)) {
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Unable to create directory " + dir);
+                }
+                directories.add(dir);
+            }
+        }
+
+        if (file.length() == bytes.length && hasContent(file, bytes)) {
+            unchangedFiles.incrementAndGet();
+            return;
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+        writtenFiles.incrementAndGet();
+        writtenBytes.addAndGet(bytes.length);
+    }
+
+    private static boolean hasContent(File file, byte[] bytes) {
+        try {
+            return Arrays.equals(ClassPathIndex.read(new FileInputStream(file), bytes.length), bytes);
+        } catch (IOException e) {
+            // The file has changed while it was read
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the class files to be written.
+     * 
+     * @throws IOException If a class file can't be written
+     */
+    void flush() throws IOException {
+        try {
+            for (Future<Object> write : writes) {
+                write.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the class files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            IOException ex = new IOException(e.getCause().getMessage());
+            ex.initCause(e.getCause());
+            throw ex;
+        } finally {
+            writes.clear();
+        }
+    }
+
+    /**
+     * Wait for the class files to be written and stop the writer threads.
+     * 
+     * @throws IOException If a class file can't be written
+     */
+    void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of class files written.
+     */
+    int getWrittenFiles() {
+        return writtenFiles.get();
+    }
+
+    /**
+     * Returns the number of class files which already had the right content.
+     */
+    int getUnchangedFiles() {
+        return unchangedFiles.get();
+    }
+
+    /**
+     * Returns the number of bytes of the class files written.
+     */
+    long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * Returns the time spent by the writer threads, in milliseconds.
+     */
+    long getWriteTime() {
+        return writeTime.get();
+    }
+
+    private static Set<String> toNames(char[][][] compoundNames) {
+        if (compoundNames == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<String>();
+        for (char[][] compoundName : compoundNames) {
+            StringBuffer name = new StringBuffer();
+            for (char[] part : compoundName) {
+                if (name.length() != 0) {
+                    name.append('.');
                 }
+                name.append(part);
             }
+            names.add(name.toString());
+        }
+        return names;
+    }
+
+    private static Set<String> toNames(char[][] simpleNames) {
+        if (simpleNames == null) {
+            return null;
+        }
+        Set<String> names = new HashSet<String>();
+        for (char[] simpleName : simpleNames) {
+            names.add(new String(simpleName));
         }
+        return names;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.tuscany.maven.compiler;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The time spent in the phases of a compilation and the counters of the name lookups and of the files
+ * read and written, summarized on a single line of <code>name=value</code> pairs.
+ *
+ * @version $Rev$ $Date$
+ */
+class CompilerStatistics {
+    /**
+     * The phases of a compilation, in the order they are reported.
+     */
+    enum Phase {
+        INDEX("index"),
+        SOURCES("sources"),
+        CHECK("check"),
+        PARSE("parse"),
+        RESOLVE("resolve"),
+        ANALYZE("analyze"),
+        GENERATE("generate"),
+        FLUSH("flush"),
+        WRITE("write"),
+        SAVE("save"),
+        OSGI("osgi");
+
+        private final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        public String toString() {
+            return label;
+        }
+    }
+
+    /**
+     * The counters of a compilation, in the order they are reported.
+     */
+    enum Counter {
+        LINES("lines"),
+        TYPE_LOOKUPS("findType"),
+        PACKAGE_LOOKUPS("isPackage"),
+        CLASS_BYTES_READ("classBytesRead"),
+        CLASS_FILES_WRITTEN("classFilesWritten"),
+        CLASS_FILE_BYTES_WRITTEN("classFileBytesWritten"),
+        CLASS_FILES_UNCHANGED("classFilesUnchanged");
+
+        private final String label;
+
+        private Counter(String label) {
+            this.label = label;
+        }
+
+        public String toString() {
+            return label;
+        }
+    }
+
+    private long start = System.currentTimeMillis();
+    private Map<Phase, Long> times = new EnumMap<Phase, Long>(Phase.class);
+    private Map<Counter, Long> counters = new EnumMap<Counter, Long>(Counter.class);
+
+    /**
+     * Add the time spent in a phase.
+     *
+     * @param phase
+     * @param millis
+     */
+    void addTime(Phase phase, long millis) {
+        add(times, phase, millis);
+    }
+
+    /**
+     * Add the time spent in a phase since the given start time.
+     *
+     * @param phase
+     * @param startMillis
+     */
+    void addTimeSince(Phase phase, long startMillis) {
+        add(times, phase, System.currentTimeMillis() - startMillis);
+    }
+
+    /**
+     * Add to a counter.
+     *
+     * @param counter
+     * @param value
+     */
+    void addCount(Counter counter, long value) {
+        add(counters, counter, value);
+    }
+
+    private static <K> void add(Map<K, Long> values, K name, long value) {
+        Long previous = values.get(name);
+        values.put(name, new Long(previous == null ? value : previous.longValue() + value));
+    }
+
+    /**
+     * Returns the summary line, with the times in milliseconds. Only the phases and counters that were
+     * added are reported.
+     */
+    public String toString() {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("total=").append(System.currentTimeMillis() - start).append("ms");
+        for (Map.Entry<Phase, Long> e : times.entrySet()) {
+            buffer.append(' ').append(e.getKey()).append('=').append(e.getValue()).append("ms");
+        }
+        for (Map.Entry<Counter, Long> e : counters.entrySet()) {
+            buffer.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        }
+        return buffer.toString();
+    }
+}
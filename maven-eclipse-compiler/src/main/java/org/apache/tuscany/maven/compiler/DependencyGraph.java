@@ -0,0 +1,470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * The sources compiled into an output directory, with the types each source produced, the ABI
+ * fingerprint of those types and the types each source references. It is stored next to the output
+ * directory and tells which sources have to be recompiled after a change.
+ *
+ * @version $Rev$ $Date$
+ */
+class DependencyGraph {
+    private static final int MAGIC = 0x54444702;
+
+    private long settings;
+    private List<ClasspathEntry> classpath = new ArrayList<ClasspathEntry>();
+    private Map<String, Source> sources = new HashMap<String, Source>();
+
+    // The state of the current compilation
+    private Set<String> compiledSources = new HashSet<String>();
+    private Set<String> changedTypes = new LinkedHashSet<String>();
+
+    /**
+     * A compiled source file.
+     */
+    static class Source {
+        private long length;
+        private long lastModified;
+        private long hash;
+        // The produced types, with $ separating the nested types, and their ABI fingerprint
+        private Map<String, Long> types = new TreeMap<String, Long>();
+        // The packages and types referenced, and the simple names used, null if unknown
+        private Set<String> qualifiedReferences;
+        private Set<String> simpleReferences;
+
+        Map<String, Long> getTypes() {
+            return types;
+        }
+
+        /**
+         * Returns true if the source may refer to the given type.
+         *
+         * @param typeName A dotted type name
+         */
+        boolean references(String typeName) {
+            if (qualifiedReferences == null) {
+                return true;
+            }
+            int nested = typeName.indexOf('$');
+            String topLevel = nested == -1 ? typeName : typeName.substring(0, nested);
+            int index = topLevel.lastIndexOf('.');
+            if (!simpleReferences.contains(topLevel.substring(index + 1))) {
+                return false;
+            }
+            return index == -1 || qualifiedReferences.contains(topLevel.substring(0, index))
+                || qualifiedReferences.contains(topLevel);
+        }
+    }
+
+    /**
+     * A jar or class directory the sources were compiled against.
+     */
+    private static class ClasspathEntry {
+        private String path;
+        private long stamp;
+        private long abi;
+    }
+
+    /**
+     * @param settings A hash of the compiler settings, a change of settings makes all the sources stale
+     */
+    DependencyGraph(long settings) {
+        this.settings = settings;
+    }
+
+    long getSettings() {
+        return settings;
+    }
+
+    /**
+     * Record the classpath the sources are compiled against. The classes of the entries are not read
+     * here: the fingerprint of an entry is only recorded if it is already known, otherwise it is taken
+     * when a later compilation finds the entry changed, see {@link #isClasspathCurrent(List, File)}.
+     *
+     * @param classpathEntries
+     * @param outputDirectory The output directory, which is left out of the classpath
+     * @throws IOException
+     */
+    void setClasspath(List<String> classpathEntries, File outputDirectory) throws IOException {
+        classpath.clear();
+        for (File file : getClasspath(classpathEntries, outputDirectory)) {
+            ClasspathEntry entry = new ClasspathEntry();
+            entry.path = file.getAbsolutePath();
+            entry.stamp = AbiFingerprint.stamp(file);
+            entry.abi = AbiFingerprint.knownFingerprint(file, entry.stamp);
+            classpath.add(entry);
+        }
+    }
+
+    /**
+     * Returns true if the given classpath has the same entries as the recorded one, with the same ABI.
+     * The entries which have been written since are fingerprinted again, an entry rebuilt without a change
+     * of ABI doesn't make the sources stale. An entry whose fingerprint was not recorded makes them stale
+     * the first time it changes, its new fingerprint is then known to {@link #setClasspath(List, File)}.
+     *
+     * @param classpathEntries
+     * @param outputDirectory The output directory, which is left out of the classpath
+     * @return
+     * @throws IOException
+     */
+    boolean isClasspathCurrent(List<String> classpathEntries, File outputDirectory) throws IOException {
+        List<File> files = getClasspath(classpathEntries, outputDirectory);
+        if (files.size() != classpath.size()) {
+            return false;
+        }
+        for (int i = 0; i < files.size(); i++) {
+            if (!files.get(i).getAbsolutePath().equals(classpath.get(i).path)) {
+                return false;
+            }
+        }
+        boolean current = true;
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            ClasspathEntry entry = classpath.get(i);
+            long stamp = AbiFingerprint.stamp(file);
+            if (stamp == entry.stamp) {
+                continue;
+            }
+            // Fingerprint all the changed entries, so that the next graph records them
+            long abi = AbiFingerprint.fingerprint(file, stamp);
+            if (entry.abi == 0 || abi != entry.abi) {
+                current = false;
+            } else {
+                entry.stamp = stamp;
+            }
+        }
+        return current;
+    }
+
+    private static List<File> getClasspath(List<String> classpathEntries, File outputDirectory) {
+        List<File> files = new ArrayList<File>();
+        for (String classpathEntry : classpathEntries) {
+            File file = new File(classpathEntry);
+            if (file.exists() && !file.getAbsoluteFile().equals(outputDirectory.getAbsoluteFile())) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Returns the ABI fingerprint of all the types produced by the sources.
+     */
+    long getAbiFingerprint() {
+        Map<String, Long> types = new HashMap<String, Long>();
+        for (Source source : sources.values()) {
+            types.putAll(source.types);
+        }
+        return AbiFingerprint.fingerprint(types);
+    }
+
+    /**
+     * Returns the file the graph of the given output directory is stored in.
+     *
+     * @param outputDirectory
+     * @return
+     */
+    static File getFile(File outputDirectory) {
+        return new File(outputDirectory.getParentFile(), outputDirectory.getName() + ".dependencies");
+    }
+
+    /**
+     * Load a graph, a missing or corrupted file gives null.
+     *
+     * @param file
+     * @return
+     */
+    static DependencyGraph load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (is.readInt() != MAGIC) {
+                    return null;
+                }
+                DependencyGraph graph = new DependencyGraph(is.readLong());
+                for (int i = is.readInt(); i > 0; i--) {
+                    ClasspathEntry entry = new ClasspathEntry();
+                    entry.path = is.readUTF();
+                    entry.stamp = is.readLong();
+                    entry.abi = is.readLong();
+                    graph.classpath.add(entry);
+                }
+                for (int i = is.readInt(); i > 0; i--) {
+                    String path = is.readUTF();
+                    Source source = new Source();
+                    source.length = is.readLong();
+                    source.lastModified = is.readLong();
+                    source.hash = is.readLong();
+                    for (int t = is.readInt(); t > 0; t--) {
+                        String type = is.readUTF();
+                        source.types.put(type, is.readLong());
+                    }
+                    int count = is.readInt();
+                    if (count >= 0) {
+                        source.qualifiedReferences = new HashSet<String>();
+                        for (; count > 0; count--) {
+                            source.qualifiedReferences.add(is.readUTF());
+                        }
+                        source.simpleReferences = new HashSet<String>();
+                        for (count = is.readInt(); count > 0; count--) {
+                            source.simpleReferences.add(is.readUTF());
+                        }
+                    }
+                    graph.sources.put(path, source);
+                }
+                return graph;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            // Everything will be recompiled
+            return null;
+        }
+    }
+
+    /**
+     * Save the graph.
+     *
+     * @param file
+     * @throws IOException
+     */
+    void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            os.writeInt(MAGIC);
+            os.writeLong(settings);
+            os.writeInt(classpath.size());
+            for (ClasspathEntry entry : classpath) {
+                os.writeUTF(entry.path);
+                os.writeLong(entry.stamp);
+                os.writeLong(entry.abi);
+            }
+            os.writeInt(sources.size());
+            for (Map.Entry<String, Source> e : sources.entrySet()) {
+                Source source = e.getValue();
+                os.writeUTF(e.getKey());
+                os.writeLong(source.length);
+                os.writeLong(source.lastModified);
+                os.writeLong(source.hash);
+                os.writeInt(source.types.size());
+                for (Map.Entry<String, Long> type : source.types.entrySet()) {
+                    os.writeUTF(type.getKey());
+                    os.writeLong(type.getValue());
+                }
+                if (source.qualifiedReferences == null) {
+                    os.writeInt(-1);
+                } else {
+                    os.writeInt(source.qualifiedReferences.size());
+                    for (String name : source.qualifiedReferences) {
+                        os.writeUTF(name);
+                    }
+                    os.writeInt(source.simpleReferences.size());
+                    for (String name : source.simpleReferences) {
+                        os.writeUTF(name);
+                    }
+                }
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Returns the given source, or null if it has not been compiled successfully.
+     *
+     * @param path
+     * @return
+     */
+    Source getSource(String path) {
+        return sources.get(path);
+    }
+
+    /**
+     * Returns true if the given source has changed since it was compiled. A source with a new timestamp
+     * is only stale if its content has changed.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    boolean isStale(String path) throws IOException {
+        Source source = sources.get(path);
+        if (source == null) {
+            return true;
+        }
+        File file = new File(path);
+        if (file.length() == source.length && file.lastModified() == source.lastModified) {
+            return false;
+        }
+        if (file.length() != source.length || hash(file) != source.hash) {
+            return true;
+        }
+        source.lastModified = file.lastModified();
+        return false;
+    }
+
+    /**
+     * Forget the sources which are not in the given set. Their types are reported as changed.
+     *
+     * @param paths The existing sources
+     * @return The types of the removed sources
+     */
+    Set<String> retainSources(Collection<String> paths) {
+        Set<String> types = new LinkedHashSet<String>();
+        for (String path : new HashSet<String>(sources.keySet())) {
+            if (!paths.contains(path)) {
+                types.addAll(sources.remove(path).types.keySet());
+            }
+        }
+        changedTypes.addAll(types);
+        return types;
+    }
+
+    /**
+     * Record the result of the compilation of a source. The types whose ABI has changed, or that have
+     * been added or removed, are collected.
+     *
+     * @param path The source file
+     * @param types The types produced and their ABI fingerprint, null if the source has errors
+     * @param qualifiedReferences The qualified names referenced by the source, null if unknown
+     * @param simpleReferences The simple names referenced by the source, null if unknown
+     * @throws IOException
+     */
+    void recordResult(String path,
+                      Map<String, Long> types,
+                      Set<String> qualifiedReferences,
+                      Set<String> simpleReferences) throws IOException {
+        compiledSources.add(path);
+        Source previous = sources.remove(path);
+        Map<String, Long> previousTypes = previous != null ? previous.types : new HashMap<String, Long>();
+        if (types == null) {
+            // The source will be recompiled by the next build
+            changedTypes.addAll(previousTypes.keySet());
+            return;
+        }
+        // The local and anonymous types have no fingerprint, no other source can refer to them
+        for (Map.Entry<String, Long> e : types.entrySet()) {
+            if (e.getValue() != 0 && !e.getValue().equals(previousTypes.get(e.getKey()))) {
+                changedTypes.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, Long> e : previousTypes.entrySet()) {
+            if (e.getValue() != 0 && !types.containsKey(e.getKey())) {
+                changedTypes.add(e.getKey());
+            }
+        }
+
+        File file = new File(path);
+        Source source = new Source();
+        source.length = file.length();
+        source.lastModified = file.lastModified();
+        source.hash = hash(file);
+        source.types.putAll(types);
+        if (qualifiedReferences != null && simpleReferences != null) {
+            source.qualifiedReferences = qualifiedReferences;
+            source.simpleReferences = simpleReferences;
+        }
+        sources.put(path, source);
+    }
+
+    /**
+     * Returns the sources that refer to the types changed since the last call and have not been compiled yet.
+     *
+     * @return
+     */
+    Set<String> getDependentSources() {
+        Set<String> dependents = new LinkedHashSet<String>();
+        if (changedTypes.isEmpty()) {
+            return dependents;
+        }
+        for (Map.Entry<String, Source> e : sources.entrySet()) {
+            if (compiledSources.contains(e.getKey())) {
+                continue;
+            }
+            for (String type : changedTypes) {
+                if (e.getValue().references(type)) {
+                    dependents.add(e.getKey());
+                    break;
+                }
+            }
+        }
+        changedTypes.clear();
+        return dependents;
+    }
+
+    /**
+     * Returns true if the given source has been compiled in the current compilation.
+     *
+     * @param path
+     */
+    boolean isCompiled(String path) {
+        return compiledSources.contains(path);
+    }
+
+    /**
+     * Returns a hash of the content of a file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static long hash(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] b = new byte[8192];
+            for (;;) {
+                int n = is.read(b);
+                if (n <= 0) {
+                    break;
+                }
+                crc.update(b, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return crc.getValue();
+    }
+}
@@ -19,53 +19,105 @@
 
 package org.apache.tuscany.maven.compiler;
 
-import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.StringTokenizer;
 
 import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
 
 /**
  * An implementation of ICompilationUnit that wraps a File.
+ * <p>
+ * The file is read in one go and decoded with the source encoding straight into an array of characters,
+ * which is kept as long as memory allows, as the compiler reads the contents again to report problems.
  *
  * @version $Rev$ $Date$
  */
 class FileCompilationUnit implements ICompilationUnit {
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
     private String className;
     private String sourceFile;
+    private String encoding;
+    private SoftReference<char[]> contents;
 
     FileCompilationUnit(String sourceFile, String className) {
+        this(sourceFile, className, null);
+    }
+
+    /**
+     * @param encoding The encoding of the source file, null for the platform encoding
+     */
+    FileCompilationUnit(String sourceFile, String className, String encoding) {
         this.className = className;
         this.sourceFile = sourceFile;
+        this.encoding = encoding;
     }
 
     public char[] getContents() {
+        char[] chars = contents == null ? null : contents.get();
+        if (chars != null) {
+            return chars;
+        }
         try {
-            InputStreamReader reader = new InputStreamReader(new FileInputStream(sourceFile));
-            CharArrayWriter writer = new CharArrayWriter(); 
-            char[] b = new char[4096];
-            for (;;) {
-                int n = reader.read(b);
-                if (n <= 0) {
-                    break;
-                }
-                writer.write(b, 0, n);
-            }
-            // Let's close the file handle
-            reader.close();
-            return writer.toCharArray();
-            
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException(e);
+            File file = new File(sourceFile);
+            byte[] bytes = ClassPathIndex.read(new FileInputStream(file), file.length());
+            chars = decode(bytes, encoding == null ? Charset.defaultCharset() : Charset.forName(encoding));
+            contents = new SoftReference<char[]>(chars);
+            return chars;
+
         } catch (IOException e) {
             throw new IllegalArgumentException(e);
         }
     }
 
+    /**
+     * Decode the given bytes into an array of the exact number of characters, without the byte order mark.
+     *
+     * @param bytes
+     * @param charset
+     * @return
+     * @throws CharacterCodingException
+     */
+    static char[] decode(byte[] bytes, Charset charset) throws CharacterCodingException {
+        CharsetDecoder decoder =
+            charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        char[] chars = new char[(int)Math.ceil(bytes.length * (double)decoder.maxCharsPerByte())];
+        CharBuffer out = CharBuffer.wrap(chars);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(bytes), out, true);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        result = decoder.flush(out);
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        int start = out.position() > 0 && chars[0] == BYTE_ORDER_MARK ? 1 : 0;
+        if (start == 0 && out.position() == chars.length) {
+            return chars;
+        }
+        char[] exact = new char[out.position() - start];
+        System.arraycopy(chars, start, exact, 0, exact.length);
+        return exact;
+    }
+
+    /**
+     * Returns the path of the source file.
+     */
+    String getSourceFile() {
+        return sourceFile;
+    }
+
     public char[] getFileName() {
         return (className.replace('.', File.separatorChar) + ".java").toCharArray();
     }
@@ -39,11 +39,17 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.tuscany.maven.compiler.CompilerStatistics.Counter;
+import org.apache.tuscany.maven.compiler.CompilerStatistics.Phase;
 import org.apache.tuscany.maven.compiler.osgi.BundleResolver;
 import org.apache.tuscany.maven.compiler.osgi.BundleUtil;
 import org.codehaus.plexus.compiler.AbstractCompiler;
@@ -51,9 +57,7 @@ import org.codehaus.plexus.compiler.CompilerConfiguration;
 import org.codehaus.plexus.compiler.CompilerError;
 import org.codehaus.plexus.compiler.CompilerException;
 import org.eclipse.jdt.internal.compiler.Compiler;
-import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
 import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
-import org.eclipse.jdt.internal.compiler.env.INameEnvironment;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
 import org.eclipse.osgi.service.resolver.BundleDescription;
@@ -61,6 +65,9 @@ import org.osgi.framework.BundleException;
 
 /**
  * A custom Plexus Java compiler plugin that uses the Eclipse compiler.
+ * <p>
+ * The time spent in each phase and the lookup and I/O counters are logged on a single line, at info level
+ * with the <code>statistics</code> compiler argument set to true, or at debug level.
  *
  * @version $Rev$ $Date$
  */
@@ -71,9 +78,8 @@ public class JavaCompiler extends AbstractCompiler {
     }
 
     public List<CompilerError> compile(CompilerConfiguration configuration) throws CompilerException {
-        BundleResolver stateController = new BundleResolver(getLogger());
-
         getLogger().info("Invoking Tuscany Eclipse JDT compiler");
+        CompilerStatistics statistics = new CompilerStatistics();
 
         List<URL> urls = new ArrayList<URL>();
         try {
@@ -112,16 +118,18 @@ public class JavaCompiler extends AbstractCompiler {
 
         // Create a compiler
         List<CompilerError> compilerErrors = new ArrayList<CompilerError>();
-        INameEnvironment nameEnvironment =
-            new ClassLoaderNameEnvironment(classLoader, configuration.getSourceLocations());
-        ICompilerRequestor requestor =
-            new CompilerRequestor(configuration.getOutputLocation(), configuration.isShowWarnings(), compilerErrors);
-        Compiler compiler =
-            new Compiler(nameEnvironment, proceedWithAllProblems(), new CompilerOptions(settings), requestor,
-                         new DefaultProblemFactory(Locale.getDefault()));
+        ClassPathIndex classPathIndex;
+        long start = System.currentTimeMillis();
+        try {
+            classPathIndex = new ClassPathIndex((List<String>)configuration.getClasspathEntries());
+        } catch (IOException e) {
+            throw new CompilerException(e.getMessage(), e);
+        }
+        statistics.addTimeSince(Phase.INDEX, start);
 
-        // Create compilation units for the source files
-        List<FileCompilationUnit> compilationUnits = new ArrayList<FileCompilationUnit>();
+        // Find the source files
+        start = System.currentTimeMillis();
+        Map<String, String> sourceFiles = new LinkedHashMap<String, String>();
 
         // Go over the input source locations
         List<String> sourceLocations = (List<String>)configuration.getSourceLocations();
@@ -146,18 +154,159 @@ public class JavaCompiler extends AbstractCompiler {
                     }
                 }
                 if (!excluded) {
-
-                    // Create a compilation unit for the source file
-                    FileCompilationUnit compilationUnit =
-                        new FileCompilationUnit(sourceFile, makeClassName(sourceFile, sourceLocation));
-                    compilationUnits.add(compilationUnit);
+                    sourceFiles.put(new File(sourceFile).getAbsolutePath(), makeClassName(sourceFile, sourceLocation));
                 }
             }
         }
 
-        // Compile all the compilation units
-        getLogger().info("Compiling " + compilationUnits.size() + " to " + configuration.getOutputLocation());
-        compiler.compile((ICompilationUnit[])compilationUnits.toArray(new ICompilationUnit[compilationUnits.size()]));
+        statistics.addTimeSince(Phase.SOURCES, start);
+
+        File outputDirectory = new File(configuration.getOutputLocation());
+        File dependencyFile = DependencyGraph.getFile(outputDirectory);
+        boolean incremental = !"false".equals(configuration.getCustomCompilerArguments().get("-incremental"));
+        String encoding = settings.get(OPTION_Encoding);
+        try {
+            // Find the sources that have changed since the last compilation, and the sources that
+            // depend on the types of the deleted sources
+            start = System.currentTimeMillis();
+            Set<String> staleSources = sourceFiles.keySet();
+            DependencyGraph dependencyGraph = null;
+            File binaryDirectory = null;
+            List<String> classpathEntries = (List<String>)configuration.getClasspathEntries();
+            if (incremental) {
+                long settingsHash = AbiFingerprint.hash(new TreeMap<String, String>(settings).toString());
+                dependencyGraph = DependencyGraph.load(dependencyFile);
+                if (dependencyGraph != null && dependencyGraph.getSettings() == settingsHash
+                    && dependencyGraph.isClasspathCurrent(classpathEntries, outputDirectory)) {
+                    binaryDirectory = outputDirectory;
+                    staleSources = new LinkedHashSet<String>();
+                    for (String sourceFile : sourceFiles.keySet()) {
+                        if (dependencyGraph.isStale(sourceFile)) {
+                            staleSources.add(sourceFile);
+                        }
+                    }
+                    deleteClassFiles(outputDirectory, dependencyGraph.retainSources(sourceFiles.keySet()));
+                    staleSources.addAll(dependencyGraph.getDependentSources());
+                } else {
+                    dependencyGraph = new DependencyGraph(settingsHash);
+                    dependencyGraph.setClasspath(classpathEntries, outputDirectory);
+                }
+            }
+
+            // The graph and the ABI fingerprint are only valid once the compilation is complete
+            dependencyFile.delete();
+            AbiFingerprint.getFile(outputDirectory).delete();
+            statistics.addTimeSince(Phase.CHECK, start);
+
+            if (staleSources.isEmpty()) {
+                getLogger().info("Nothing to compile - all classes are up to date");
+            }
+
+            CompilerOptions compilerOptions = new CompilerOptions(settings);
+            compilerOptions.produceReferenceInfo = dependencyGraph != null;
+            CompilerRequestor requestor =
+                new CompilerRequestor(configuration.getOutputLocation(), configuration.isShowWarnings(),
+                                      compilerErrors, dependencyGraph);
+            try {
+                // Compile the stale sources, then the sources that depend on the types whose ABI has changed
+                Set<String> sources = staleSources;
+                boolean dependents = false;
+                while (!sources.isEmpty()) {
+
+                    // Create compilation units for the source files, the types they produced before are
+                    // hidden from the compiler as some of them may not be produced anymore
+                    List<FileCompilationUnit> compilationUnits = new ArrayList<FileCompilationUnit>();
+                    Map<String, Set<String>> previousTypes = new HashMap<String, Set<String>>();
+                    Set<String> staleTypes = new HashSet<String>();
+                    for (String sourceFile : sources) {
+                        DependencyGraph.Source source =
+                            dependencyGraph != null ? dependencyGraph.getSource(sourceFile) : null;
+                        if (source != null) {
+                            previousTypes.put(sourceFile, new HashSet<String>(source.getTypes().keySet()));
+                            staleTypes.addAll(source.getTypes().keySet());
+                        }
+                        if (getLogger().isDebugEnabled()) {
+                            getLogger().debug("Compiling " + sourceFile);
+                        }
+                        compilationUnits.add(new FileCompilationUnit(sourceFile, sourceFiles.get(sourceFile), encoding));
+                    }
+
+                    // Compile all the compilation units
+                    if (dependents) {
+                        getLogger().info("Compiling " + compilationUnits.size()
+                            + " dependent sources to "
+                            + configuration.getOutputLocation());
+                    } else {
+                        getLogger().info("Compiling " + compilationUnits.size() + " to " + configuration.getOutputLocation());
+                    }
+                    ClassLoaderNameEnvironment nameEnvironment =
+                        new ClassLoaderNameEnvironment(classLoader, classPathIndex, sourceLocations, binaryDirectory,
+                                                       staleTypes, encoding, getLogger());
+                    Compiler compiler =
+                        new Compiler(nameEnvironment, proceedWithAllProblems(), compilerOptions, requestor,
+                                     new DefaultProblemFactory(Locale.getDefault()));
+                    try {
+                        compiler.compile((ICompilationUnit[])compilationUnits.toArray(new ICompilationUnit[compilationUnits.size()]));
+                    } finally {
+                        nameEnvironment.close();
+                    }
+                    statistics.addTime(Phase.PARSE, compiler.stats.parseTime);
+                    statistics.addTime(Phase.RESOLVE, compiler.stats.resolveTime);
+                    statistics.addTime(Phase.ANALYZE, compiler.stats.analyzeTime);
+                    statistics.addTime(Phase.GENERATE, compiler.stats.generateTime);
+                    statistics.addCount(Counter.LINES, compiler.stats.lineCount);
+                    statistics.addCount(Counter.TYPE_LOOKUPS, nameEnvironment.getTypeLookups());
+                    statistics.addCount(Counter.PACKAGE_LOOKUPS, nameEnvironment.getPackageLookups());
+                    statistics.addCount(Counter.CLASS_BYTES_READ, nameEnvironment.getBytesRead());
+
+                    start = System.currentTimeMillis();
+                    requestor.flush();
+                    statistics.addTimeSince(Phase.FLUSH, start);
+
+                    // Delete the class files that are not produced anymore
+                    for (Map.Entry<String, Set<String>> e : previousTypes.entrySet()) {
+                        DependencyGraph.Source source = dependencyGraph.getSource(e.getKey());
+                        if (source != null) {
+                            e.getValue().removeAll(source.getTypes().keySet());
+                        }
+                        deleteClassFiles(outputDirectory, e.getValue());
+                    }
+
+                    if (dependencyGraph == null) {
+                        break;
+                    }
+                    sources = dependencyGraph.getDependentSources();
+                    dependents = true;
+                    binaryDirectory = outputDirectory;
+                }
+            } finally {
+                requestor.close();
+            }
+            statistics.addTime(Phase.WRITE, requestor.getWriteTime());
+            statistics.addCount(Counter.CLASS_FILES_WRITTEN, requestor.getWrittenFiles());
+            statistics.addCount(Counter.CLASS_FILE_BYTES_WRITTEN, requestor.getWrittenBytes());
+            statistics.addCount(Counter.CLASS_FILES_UNCHANGED, requestor.getUnchangedFiles());
+            statistics.addCount(Counter.CLASS_BYTES_READ, classPathIndex.getBytesRead());
+            if (getLogger().isDebugEnabled()) {
+                getLogger().debug("Wrote " + requestor.getWrittenFiles()
+                    + " class files, "
+                    + requestor.getUnchangedFiles()
+                    + " class files were unchanged");
+            }
+
+            if (dependencyGraph != null) {
+                start = System.currentTimeMillis();
+                dependencyGraph.save(dependencyFile);
+                if (outputDirectory.isDirectory()) {
+                    AbiFingerprint.write(outputDirectory, dependencyGraph.getAbiFingerprint());
+                }
+                statistics.addTimeSince(Phase.SAVE, start);
+            }
+        } catch (IOException e) {
+            throw new CompilerException(e.getMessage(), e);
+        } finally {
+            classPathIndex.close();
+        }
 
         // getLogger().info(configuration.getCustomCompilerArguments().toString());
         boolean osgi = "true".equals(configuration.getCustomCompilerArguments().get("-osgi"));
@@ -175,25 +324,29 @@ public class JavaCompiler extends AbstractCompiler {
 
         if (osgi && symbol != null) {
             getLogger().info("Resolving OSGi bundle: "+symbol);
+            // The states are kept for the other modules of the build and only updated with the changes
+            start = System.currentTimeMillis();
+            List<File> bundleLocations = new ArrayList<File>();
             for (String entry : (List<String>)configuration.getClasspathEntries()) {
-                try {
-                    File cp = new File(entry);
-                    if (cp.exists()) {
-                        stateController.addBundle(cp);
-                    }
-                } catch (BundleException e) {
-                    getLogger().error(e.getMessage(), e);
+                File cp = new File(entry);
+                if (cp.exists()) {
+                    bundleLocations.add(cp);
                 }
             }
+            BundleResolver stateController = BundleResolver.acquire(bundleLocations, getLogger());
+            int changes = stateController.setBundles(bundleLocations, getLogger());
+            if (getLogger().isDebugEnabled()) {
+                getLogger().debug("Updated " + changes + " bundles of the OSGi state");
+            }
 
-            stateController.resolveState();
+            stateController.resolveState(getLogger());
             BundleDescription b = stateController.getBundleDescription(proj);
             if (b != null) {
                 try {
                     stateController.assertResolved(b);
                     getLogger().info("OSGi bundle is resolved: " + b.getSymbolicName());
                 } catch (BundleException e) {
-                    stateController.analyzeErrors(b);
+                    stateController.analyzeErrors(b, getLogger());
                     if(getLogger().isDebugEnabled()) {
                         getLogger().debug(stateController.reportErrors(b));
                     }
@@ -201,11 +354,32 @@ public class JavaCompiler extends AbstractCompiler {
                     // throw new CompilerException(e.getMessage(), e);
                 }
             }
+            BundleResolver.release(stateController);
+            statistics.addTimeSince(Phase.OSGI, start);
+        }
+
+        // A single line of name=value pairs, that can be compared between builds
+        if ("true".equals(configuration.getCustomCompilerArguments().get("-statistics"))) {
+            getLogger().info("Compiler statistics: " + statistics);
+        } else if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Compiler statistics: " + statistics);
         }
 
         return compilerErrors;
     }
 
+    /**
+     * Delete the class files of the given types.
+     * 
+     * @param outputDirectory
+     * @param types The dotted type names
+     */
+    private static void deleteClassFiles(File outputDirectory, Set<String> types) {
+        for (String type : types) {
+            new File(outputDirectory, type.replace('.', '/') + ".class").delete();
+        }
+    }
+
     public String[] createCommandLine(CompilerConfiguration config) throws CompilerException {
         return null;
     }
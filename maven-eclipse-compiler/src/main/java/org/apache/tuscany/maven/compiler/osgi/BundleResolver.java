@@ -32,12 +32,14 @@ import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.jar.Attributes;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.apache.maven.project.MavenProject;
@@ -59,10 +61,20 @@ public class BundleResolver {
     private static final String PROP_MAVEN_PROJECT = "MavenProject";
     private static final String PROP_MANIFEST = "BundleManifest";
 
+    // The maximum number of idle resolvers kept for the compilations of the build
+    private static final int MAX_IDLE_RESOLVERS = 4;
+
+    // The idle resolvers, the most recently released last
+    private static final List<BundleResolver> idleResolvers = new ArrayList<BundleResolver>();
+
     private StateObjectFactory factory = StateObjectFactory.defaultFactory;
     private State state;
     private long id = 0;
-    private Logger logger;
+    private final Logger logger;
+
+    // The stamps of the locations set with setBundles, and their bundles
+    private Map<String, Long> stamps = new HashMap<String, Long>();
+    private Map<String, BundleDescription> locations = new HashMap<String, BundleDescription>();
 
     public static BundleDescription[] getDependentBundles(BundleDescription root) {
         if (root == null)
@@ -110,6 +122,157 @@ public class BundleResolver {
         }
     }
 
+    /**
+     * Takes a resolver for the given bundle locations from the resolvers kept for the compilations of the
+     * build, or creates one. The resolver whose state was last set with the most of these locations is
+     * chosen, so that {@link #setBundles(List, Logger)} and {@link #resolveState(Logger)} only process the
+     * differences. In a parallel build each module gets its own resolver, and the modules with similar
+     * classpaths keep reusing the same states instead of replacing the bundles of a single shared one.
+     * <p>
+     * The resolver is used by the calling thread only, and given back with {@link #release(BundleResolver)}.
+     * 
+     * @param bundleLocations
+     * @param logger The logger of a new resolver, the methods used on a pooled resolver should be given
+     *            the logger of the caller
+     * @return
+     */
+    public static BundleResolver acquire(List<File> bundleLocations, Logger logger) {
+        BundleResolver best = null;
+        synchronized (idleResolvers) {
+            int bestOverlap = -1;
+            for (BundleResolver resolver : idleResolvers) {
+                int overlap = 0;
+                for (File bundleLocation : bundleLocations) {
+                    if (resolver.stamps.containsKey(bundleLocation.getAbsolutePath())) {
+                        overlap++;
+                    }
+                }
+                if (overlap > bestOverlap) {
+                    best = resolver;
+                    bestOverlap = overlap;
+                }
+            }
+            if (best != null) {
+                idleResolvers.remove(best);
+            }
+        }
+        if (best == null) {
+            best = new BundleResolver(logger);
+        }
+        return best;
+    }
+
+    /**
+     * Gives back a resolver taken with {@link #acquire(List, Logger)}. At most a few idle resolvers are
+     * kept, the least recently released one is dropped. A resolver whose use failed should not be given
+     * back, as its state may not match the locations it was set with.
+     * 
+     * @param resolver
+     */
+    public static void release(BundleResolver resolver) {
+        synchronized (idleResolvers) {
+            idleResolvers.add(resolver);
+            if (idleResolvers.size() > MAX_IDLE_RESOLVERS) {
+                idleResolvers.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Make the state contain the bundles of the given locations.
+     * 
+     * @param bundleLocations
+     * @return The number of bundles added, updated or removed
+     * @see #setBundles(List, Logger)
+     */
+    public int setBundles(List<File> bundleLocations) {
+        return setBundles(bundleLocations, logger);
+    }
+
+    /**
+     * Make the state contain the bundles of the given locations. The manifests are only read for the
+     * locations that are new or have changed since the last call, the bundles of the locations that are
+     * not given anymore are removed.
+     * 
+     * @param bundleLocations
+     * @param logger The logger of the caller
+     * @return The number of bundles added, updated or removed
+     */
+    public int setBundles(List<File> bundleLocations, Logger logger) {
+        int changes = 0;
+        Set<String> paths = new HashSet<String>();
+        for (File bundleLocation : bundleLocations) {
+            String path = bundleLocation.getAbsolutePath();
+            paths.add(path);
+            long stamp = stamp(bundleLocation);
+            Long previous = stamps.get(path);
+            if (previous != null && previous.longValue() == stamp) {
+                continue;
+            }
+            stamps.put(path, new Long(stamp));
+            BundleDescription existing = locations.remove(path);
+            try {
+                Dictionary manifest = loadManifestAttributes(bundleLocation);
+                if (manifest == null) {
+                    if (existing != null) {
+                        state.removeBundle(existing);
+                        changes++;
+                    }
+                    continue;
+                }
+                BundleDescription descriptor;
+                if (existing != null) {
+                    // Keep the id, so that the state re-resolves the bundles wired to the old one
+                    descriptor = factory.createBundleDescription(state, manifest, path, existing.getBundleId());
+                    setUserProperty(descriptor, PROP_MANIFEST, manifest);
+                    state.updateBundle(descriptor);
+                } else {
+                    descriptor = addBundle(manifest, bundleLocation, false);
+                }
+                locations.put(path, descriptor);
+                changes++;
+            } catch (BundleException e) {
+                logger.error(e.getMessage(), e);
+                // Don't leave the old bundle in the state, and read the manifest again on the next call
+                stamps.remove(path);
+                if (existing != null) {
+                    state.removeBundle(existing);
+                    changes++;
+                }
+            }
+        }
+
+        for (Iterator<Map.Entry<String, Long>> i = stamps.entrySet().iterator(); i.hasNext();) {
+            String path = i.next().getKey();
+            if (!paths.contains(path)) {
+                i.remove();
+                BundleDescription existing = locations.remove(path);
+                if (existing != null) {
+                    state.removeBundle(existing);
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns a stamp of a bundle location, that changes whenever its manifest may have changed.
+     */
+    private static long stamp(File bundleLocation) {
+        if (bundleLocation.isDirectory()) {
+            // The manifest is either in the directory, or in the project of a target/classes directory
+            File mf = new File(bundleLocation, JarFile.MANIFEST_NAME);
+            File projectMf = new File(bundleLocation, "../../" + JarFile.MANIFEST_NAME);
+            return 31 * fileStamp(mf) + fileStamp(projectMf);
+        }
+        return fileStamp(bundleLocation);
+    }
+
+    private static long fileStamp(File file) {
+        return 31 * file.lastModified() + file.length();
+    }
+
     private long getNextId() {
         return ++id;
     }
@@ -200,8 +363,23 @@ public class BundleResolver {
         return null;
     }
 
+    /**
+     * Resolve the state.
+     * 
+     * @see #resolveState(Logger)
+     */
     public void resolveState() {
-        state.resolve(false);
+        resolveState(logger);
+    }
+
+    /**
+     * Resolve the state, only the bundles that are not resolved yet and the ones affected by the changes
+     * since the last resolution are resolved.
+     * 
+     * @param logger The logger of the caller
+     */
+    public void resolveState(Logger logger) {
+        state.resolve(true);
 
         if (logger.isDebugEnabled()) {
             StringBuilder sb = new StringBuilder("Resolved OSGi state\n");
@@ -251,7 +429,7 @@ public class BundleResolver {
         }
     }
 
-    private void logError(BundleDescription bundle, int level, Object object) {
+    private static void logError(BundleDescription bundle, int level, Object object, Logger logger) {
         StringBuffer msg = new StringBuffer();
         for (int i = 0; i < level; i++) {
             msg.append("--");
@@ -262,17 +440,27 @@ public class BundleResolver {
     }
 
     public void analyzeErrors(BundleDescription bundle) {
-        analyzeErrors(bundle, new HashSet<BundleDescription>(), 1);
+        analyzeErrors(bundle, logger);
+    }
+
+    /**
+     * Log the errors that prevent the given bundle from being resolved, and their causes.
+     * 
+     * @param bundle
+     * @param logger The logger of the caller
+     */
+    public void analyzeErrors(BundleDescription bundle, Logger logger) {
+        analyzeErrors(bundle, new HashSet<BundleDescription>(), 1, logger);
     }
 
-    private void analyzeErrors(BundleDescription bundle, Set<BundleDescription> bundles, int level) {
+    private void analyzeErrors(BundleDescription bundle, Set<BundleDescription> bundles, int level, Logger logger) {
         if (bundles.contains(bundle)) {
             return;
         }
         bundles.add(bundle);
         ResolverError[] errors = state.getResolverErrors(bundle);
         for (ResolverError error : errors) {
-            logError(bundle, level, error);
+            logError(bundle, level, error, logger);
             VersionConstraint constraint = error.getUnsatisfiedConstraint();
             switch (error.getType()) {
                 case MISSING_IMPORT_PACKAGE:
@@ -282,11 +470,11 @@ public class BundleResolver {
                             if (pkg.getName().equals(pkgSpec.getName())) {
                                 if (pkgSpec.getVersionRange().isIncluded(pkg.getVersion())) {
                                     if (!pkg.getExporter().isResolved()) {
-                                        logError(b, level, "Bundle unresolved: " + pkg);
-                                        analyzeErrors(pkg.getExporter(), bundles, level + 1);
+                                        logError(b, level, "Bundle unresolved: " + pkg, logger);
+                                        analyzeErrors(pkg.getExporter(), bundles, level + 1, logger);
                                     }
                                 } else {
-                                    logError(b, level, "Version mismatch: " + pkgSpec + " " + pkg);
+                                    logError(b, level, "Version mismatch: " + pkgSpec + " " + pkg, logger);
                                 }
                             }
                         }
@@ -302,9 +490,9 @@ public class BundleResolver {
                         if (b.getSymbolicName().equals(constraint.getName())) {
                             if (constraint.getVersionRange().isIncluded(b.getVersion())) {
                                 // There must be something wrong in the bundle
-                                analyzeErrors(b, bundles, level);
+                                analyzeErrors(b, bundles, level, logger);
                             } else {
-                                logError(bundle, level, "Version mismatch: " + constraint + " " + b);
+                                logError(bundle, level, "Version mismatch: " + constraint + " " + b, logger);
                             }
                         }
                     }
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the index of the boot and extension jars shared by the compilations, and the lookups of the
+ * classpath indexes built on top of it.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ClassPathIndexTestCase extends TestCase {
+    private static final String TYPE = ClassPathIndexTestCase.class.getName();
+
+    private File root;
+    private File bootJar;
+    private File extDir;
+    private File classpathJar;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/classpath-index");
+        delete(root);
+        root.mkdirs();
+        bootJar = createJar(new File(root, "boot/rt.jar"), "boot/Boot.class", new byte[] {1});
+        extDir = new File(root, "ext");
+        // A class of an extension jar, found before the classpath entries
+        String resourceName = TYPE.replace('.', '/') + ".class";
+        createJar(new File(extDir, "ext.jar"), resourceName, ClassPathIndex.read(getClass()
+            .getResourceAsStream('/' + resourceName), -1));
+        classpathJar = createJar(new File(root, "lib/test.jar"), "test/Test.class", new byte[] {1});
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testBootIndexShared() throws Exception {
+        ClassPathIndex boot = ClassPathIndex.getBootIndex();
+        assertSame(boot, ClassPathIndex.getBootIndex());
+        ClassPathIndex index = new ClassPathIndex(Collections.<String> emptyList());
+        assertEquals(boot.isComplete(), index.isComplete());
+        index.close();
+    }
+
+    public void testExtensionJars() throws Exception {
+        ClassPathIndex boot = new ClassPathIndex(bootJar.getPath(), extDir.getPath());
+        assertTrue(boot.isComplete());
+        List<String> classpath = Collections.singletonList(classpathJar.getPath());
+
+        ClassPathIndex index = new ClassPathIndex(boot, classpath);
+        assertTrue(index.isPackage("boot"));
+        assertTrue(index.isPackage("org.apache.tuscany.maven.compiler"));
+        assertTrue(index.isPackage("test"));
+        assertFalse(index.isPackage("missing"));
+        // The packages of the boot index are not counted for each classpath
+        assertEquals(1, index.getPackageCount());
+        assertNotNull(index.readType(TYPE));
+        assertTrue(index.getBytesRead() > 0);
+        index.close();
+
+        // The next compilation finds the type in the cache, and the extension jar is still open
+        index = new ClassPathIndex(boot, classpath);
+        assertNotNull(index.readType(TYPE));
+        assertEquals(1, index.getCachedTypeCount());
+        assertEquals(0, index.getBytesRead());
+        index.close();
+    }
+
+    public void testNoBootClassPath() throws Exception {
+        // The JDK classes are in modules, the lookups that fail go to the class loader
+        ClassPathIndex boot = new ClassPathIndex(null, extDir.getPath());
+        assertFalse(boot.isComplete());
+        ClassPathIndex index = new ClassPathIndex(boot, Collections.<String> emptyList());
+        assertFalse(index.isComplete());
+        assertFalse(index.isPackage("org.apache.tuscany.maven.compiler"));
+        index.close();
+    }
+
+    private static File createJar(File file, String name, byte[] content) throws IOException {
+        file.getParentFile().mkdirs();
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            jos.putNextEntry(new ZipEntry(name));
+            jos.write(content);
+            jos.closeEntry();
+        } finally {
+            jos.close();
+        }
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
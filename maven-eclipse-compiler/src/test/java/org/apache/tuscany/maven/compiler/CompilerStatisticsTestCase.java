@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import junit.framework.TestCase;
+
+import org.apache.tuscany.maven.compiler.CompilerStatistics.Counter;
+import org.apache.tuscany.maven.compiler.CompilerStatistics.Phase;
+
+/**
+ * Checks the summary line of the compiler statistics, which is compared between builds.
+ *
+ * @version $Rev$ $Date$
+ */
+public class CompilerStatisticsTestCase extends TestCase {
+
+    public void testFormat() {
+        CompilerStatistics statistics = new CompilerStatistics();
+        // Added out of order, and twice for some of them
+        statistics.addCount(Counter.CLASS_FILES_WRITTEN, 3);
+        statistics.addTime(Phase.GENERATE, 20);
+        statistics.addCount(Counter.LINES, 100);
+        statistics.addTime(Phase.PARSE, 5);
+        statistics.addTime(Phase.PARSE, 7);
+        statistics.addCount(Counter.CLASS_FILES_WRITTEN, 2);
+        statistics.addCount(Counter.TYPE_LOOKUPS, 0);
+
+        String line = statistics.toString();
+        assertTrue(line, line.matches("total=\\d+ms .*"));
+        assertEquals("parse=12ms generate=20ms lines=100 findType=0 classFilesWritten=5",
+                     line.substring(line.indexOf(' ') + 1));
+    }
+
+    public void testEmpty() {
+        assertTrue(new CompilerStatistics().toString().matches("total=\\d+ms"));
+    }
+
+    public void testLabels() {
+        assertEquals("index", Phase.INDEX.toString());
+        assertEquals("osgi", Phase.OSGI.toString());
+        assertEquals("isPackage", Counter.PACKAGE_LOOKUPS.toString());
+        assertEquals("classFileBytesWritten", Counter.CLASS_FILE_BYTES_WRITTEN.toString());
+    }
+}
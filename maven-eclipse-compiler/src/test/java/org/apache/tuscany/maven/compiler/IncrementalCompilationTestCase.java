@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerError;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Compiles a small tree of sources, then edits, deletes and renames some of them and checks which
+ * sources are compiled again and which class files are left in the output directory.
+ *
+ * @version $Rev$ $Date$
+ */
+public class IncrementalCompilationTestCase extends TestCase {
+    private File root;
+    private File sourceDir;
+    private File outputDir;
+    private List<CompilerError> errors;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/incremental").getAbsoluteFile();
+        delete(root);
+        sourceDir = new File(root, "src");
+        outputDir = new File(root, "classes");
+        outputDir.mkdirs();
+
+        write("test/A.java", "package test; public class A { public int value() { return 1; } public static class Nested {} }");
+        write("test/B.java", "package test; public class B { int get() { return new A().value(); } }");
+        write("test/C.java", "package test; public class C { }");
+        assertEquals("[test/A.java, test/B.java, test/C.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class", "test/C.class");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testUnchanged() throws Exception {
+        assertEquals("[]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class", "test/C.class");
+    }
+
+    public void testTouched() throws Exception {
+        File file = new File(sourceDir, "test/C.java");
+        file.setLastModified(file.lastModified() + 10000);
+        assertEquals("[]", compile().toString());
+    }
+
+    public void testBodyChanged() throws Exception {
+        // The ABI of A is unchanged, B doesn't need to be compiled again
+        write("test/A.java", "package test; public class A { public int value() { return 2; } public static class Nested {} }");
+        assertEquals("[test/A.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class", "test/C.class");
+    }
+
+    public void testAbiChanged() throws Exception {
+        write("test/A.java", "package test; public class A { public int value() { return 2; } public void added() {} public static class Nested {} }");
+        assertEquals("[test/A.java, test/B.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class", "test/C.class");
+    }
+
+    public void testNestedTypeRemoved() throws Exception {
+        write("test/A.java", "package test; public class A { public int value() { return 1; } }");
+        assertEquals("[test/A.java, test/B.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/B.class", "test/C.class");
+    }
+
+    public void testDeleted() throws Exception {
+        // Nothing refers to C
+        assertTrue(new File(sourceDir, "test/C.java").delete());
+        assertEquals("[]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class");
+    }
+
+    public void testReferencedDeleted() throws Exception {
+        // B is compiled again, and doesn't compile anymore
+        assertTrue(new File(sourceDir, "test/A.java").delete());
+        assertEquals("[test/B.java]", compile().toString());
+        assertFalse(errors.isEmpty());
+        assertFalse(new File(outputDir, "test/A.class").exists());
+        assertFalse(new File(outputDir, "test/A$Nested.class").exists());
+
+        // B is still stale after the failed compilation
+        write("test/A.java", "package test; public class A { public int value() { return 1; } }");
+        assertEquals("[test/A.java, test/B.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/B.class", "test/C.class");
+    }
+
+    public void testRenamed() throws Exception {
+        assertTrue(new File(sourceDir, "test/C.java").delete());
+        write("test/D.java", "package test; public class D { }");
+        assertEquals("[test/D.java]", compile().toString());
+        assertClassFiles("test/A.class", "test/A$Nested.class", "test/B.class", "test/D.class");
+    }
+
+    public void testMovedToAnotherPackage() throws Exception {
+        assertTrue(new File(sourceDir, "test/C.java").delete());
+        write("other/C.java", "package other; public class C { }");
+        assertEquals("[other/C.java]", compile().toString());
+        assertClassFiles("other/C.class", "test/A.class", "test/A$Nested.class", "test/B.class");
+    }
+
+    /**
+     * Compile the sources and return the ones that have been compiled, relative to the source directory.
+     */
+    private Set<String> compile() throws Exception {
+        JavaCompiler compiler = new JavaCompiler();
+        RecordingLogger logger = new RecordingLogger();
+        compiler.enableLogging(logger);
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.addSourceLocation(sourceDir.getPath());
+        configuration.setOutputLocation(outputDir.getPath());
+        configuration.setSourceVersion("1.5");
+        configuration.setTargetVersion("1.5");
+        errors = new ArrayList<CompilerError>();
+        for (CompilerError error : compiler.compile(configuration)) {
+            if (error.isError()) {
+                errors.add(error);
+            }
+        }
+        Set<String> compiled = new TreeSet<String>();
+        String prefix = "Compiling " + sourceDir.getPath() + File.separator;
+        for (String message : logger.messages) {
+            if (message.startsWith(prefix)) {
+                compiled.add(message.substring(prefix.length()).replace(File.separatorChar, '/'));
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Check the class files in the output directory.
+     */
+    private void assertClassFiles(String... expected) {
+        Set<String> files = new TreeSet<String>();
+        list(outputDir, "", files);
+        Set<String> names = new TreeSet<String>();
+        for (String name : expected) {
+            names.add(name);
+        }
+        assertEquals(names, files);
+    }
+
+    private static void list(File dir, String path, Set<String> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                list(child, path + child.getName() + "/", files);
+            } else if (child.getName().endsWith(".class")) {
+                files.add(path + child.getName());
+            }
+        }
+    }
+
+    /**
+     * Write a source, its stamp is moved forward so that the change is seen whatever the timestamp
+     * resolution of the file system.
+     */
+    private void write(String path, String content) throws IOException {
+        File file = new File(sourceDir, path);
+        long lastModified = file.lastModified();
+        file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+        if (lastModified != 0) {
+            file.setLastModified(lastModified + 10000);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class RecordingLogger extends ConsoleLogger {
+        private List<String> messages = new ArrayList<String>();
+
+        RecordingLogger() {
+            super(Logger.LEVEL_DEBUG, "compiler");
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return true;
+        }
+
+        @Override
+        public void debug(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void info(String message) {
+            messages.add(message);
+        }
+    }
+}
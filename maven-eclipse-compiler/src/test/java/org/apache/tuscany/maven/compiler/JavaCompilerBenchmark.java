@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tuscany.maven.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerError;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Generates a tree of source files and compiles it, reporting the best time of the compilations.
+ * <p>
+ * The system properties are:
+ * <ul>
+ * <li>dir: the directory where the sources are generated and compiled, a temporary directory by default
+ * <li>files: the number of source files, 2000 by default, in packages of 100 files
+ * <li>iterations: the number of measured compilations, 3 by default, after one warm up compilation
+ * </ul>
+ * The benchmark is not a test case and is not run by the build. Run it from the test classes, with the
+ * dependencies of the plugin on the classpath.
+ *
+ * @version $Rev$ $Date$
+ */
+public class JavaCompilerBenchmark {
+    private static final int FILES_PER_PACKAGE = 100;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("dir", System.getProperty("java.io.tmpdir") + "/compiler-benchmark"));
+        int files = Integer.parseInt(System.getProperty("files", "2000"));
+        int iterations = Integer.parseInt(System.getProperty("iterations", "3"));
+
+        File sourceDir = new File(dir, "src");
+        System.out.println("Generating " + files + " source files in " + sourceDir);
+        generate(sourceDir, files);
+
+        JavaCompiler compiler = new JavaCompiler();
+        compiler.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "compiler"));
+        long best = Long.MAX_VALUE;
+        for (int i = -1; i < iterations; i++) {
+            File outputDir = new File(dir, "classes");
+            delete(outputDir);
+            outputDir.mkdirs();
+            CompilerConfiguration configuration = new CompilerConfiguration();
+            configuration.addSourceLocation(sourceDir.getPath());
+            configuration.setOutputLocation(outputDir.getPath());
+            configuration.setSourceVersion("1.5");
+            configuration.setTargetVersion("1.5");
+            Map<String, String> arguments = new HashMap<String, String>();
+            arguments.put("-incremental", "false");
+            configuration.setCustomCompilerArguments(arguments);
+
+            long start = System.nanoTime();
+            List<CompilerError> errors = compiler.compile(configuration);
+            long elapsed = System.nanoTime() - start;
+            for (CompilerError error : errors) {
+                if (error.isError()) {
+                    throw new IllegalStateException("Compilation failed: " + error);
+                }
+            }
+            if (i >= 0) {
+                // The first compilation is a warm up
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.println("Best time " + best / 1000000 + " ms over " + iterations + " compilations");
+    }
+
+    /**
+     * Generate classes that extend and call the previous class of their package, and use the first class
+     * of the previous package, so that the compiler resolves types across the sources.
+     */
+    private static void generate(File sourceDir, int files) throws IOException {
+        for (int f = 0; f < files; f++) {
+            int p = f / FILES_PER_PACKAGE;
+            int c = f % FILES_PER_PACKAGE;
+            File file = new File(sourceDir, "bench/p" + p + "/C" + c + ".java");
+            if (file.isFile()) {
+                continue;
+            }
+            file.getParentFile().mkdirs();
+            PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            try {
+                writer.println("package bench.p" + p + ";");
+                writer.println();
+                writer.println("import java.util.ArrayList;");
+                writer.println("import java.util.List;");
+                writer.println();
+                writer.print("public class C" + c);
+                if (c > 0) {
+                    writer.print(" extends C" + (c - 1));
+                }
+                writer.println(" {");
+                writer.println("    private List<String> values = new ArrayList<String>();");
+                if (p > 0) {
+                    writer.println("    private bench.p" + (p - 1) + ".C0 previous = new bench.p" + (p - 1) + ".C0();");
+                }
+                for (int m = 0; m < 10; m++) {
+                    writer.println();
+                    writer.println("    public int method" + c + "_" + m + "(int value) {");
+                    writer.println("        int result = value;");
+                    writer.println("        for (String s : values) {");
+                    writer.println("            result += s.length() * " + (m + 1) + ";");
+                    writer.println("        }");
+                    if (c > 0) {
+                        writer.println("        result += method" + (c - 1) + "_" + m + "(result);");
+                    }
+                    if (p > 0) {
+                        writer.println("        result += previous.method0_" + m + "(result);");
+                    }
+                    writer.println("        values.add(String.valueOf(result));");
+                    writer.println("        return result;");
+                    writer.println("    }");
+                }
+                writer.println("}");
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.compiler.osgi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+
+/**
+ * Resolves bundles from several threads at the same time, as the compilations of a parallel build do,
+ * both with a resolver per thread and with the resolvers kept for the build.
+ *
+ * @version $Rev$ $Date$
+ */
+public class BundleResolverConcurrencyTestCase extends TestCase {
+    private static final int THREADS = 8;
+    private static final int CHAINS = 4;
+
+    private File root;
+    private List<File> bundles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/resolver-concurrency");
+        delete(root);
+        root.mkdirs();
+        // Chains of bundles, each one importing the package exported by the previous one
+        bundles = new ArrayList<File>();
+        for (int i = 0; i < CHAINS; i++) {
+            for (int j = 0; j < 3; j++) {
+                String name = "test.chain" + i + ".bundle" + j;
+                String imports = j == 0 ? null : "test.chain" + i + ".bundle" + (j - 1);
+                bundles.add(createBundle(new File(root, name + ".jar"), name, imports));
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testResolverPerThread() throws Exception {
+        run(new Resolution() {
+            public void resolve(Logger logger) throws Exception {
+                BundleResolver resolver = new BundleResolver(logger);
+                resolver.setBundles(bundles);
+                resolver.resolveState();
+                assertResolved(resolver);
+            }
+        });
+    }
+
+    public void testPooledResolvers() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            run(new Resolution() {
+                public void resolve(Logger logger) throws Exception {
+                    BundleResolver resolver = BundleResolver.acquire(bundles, logger);
+                    resolver.setBundles(bundles, logger);
+                    resolver.resolveState(logger);
+                    assertResolved(resolver);
+                    BundleResolver.release(resolver);
+                }
+            });
+        }
+    }
+
+    public void testAcquireMostOverlapping() throws Exception {
+        Logger logger = new ConsoleLogger(Logger.LEVEL_WARN, "test");
+        // Bundles of their own, as the resolvers released by the other tests contain the chains
+        List<File> chain0 = new ArrayList<File>();
+        chain0.add(createBundle(new File(root, "test.a.jar"), "test.a", null));
+        List<File> chain1 = new ArrayList<File>();
+        chain1.add(createBundle(new File(root, "test.b.jar"), "test.b", null));
+        BundleResolver resolver0 = BundleResolver.acquire(chain0, logger);
+        resolver0.setBundles(chain0, logger);
+        BundleResolver resolver1 = BundleResolver.acquire(chain1, logger);
+        resolver1.setBundles(chain1, logger);
+        BundleResolver.release(resolver0);
+        BundleResolver.release(resolver1);
+
+        // The state already containing the bundles is reused, whatever the release order
+        BundleResolver resolver = BundleResolver.acquire(chain0, logger);
+        assertSame(resolver0, resolver);
+        assertEquals(0, resolver.setBundles(chain0, logger));
+        BundleResolver.release(resolver);
+        resolver = BundleResolver.acquire(chain1, logger);
+        assertSame(resolver1, resolver);
+        BundleResolver.release(resolver);
+    }
+
+    public void testIdleResolversLimited() throws Exception {
+        Logger logger = new ConsoleLogger(Logger.LEVEL_WARN, "test");
+        List<BundleResolver> released = new ArrayList<BundleResolver>();
+        for (int i = 0; i < 6; i++) {
+            BundleResolver resolver = new BundleResolver(logger);
+            released.add(resolver);
+            BundleResolver.release(resolver);
+        }
+        // Only the last released ones are kept
+        int reused = 0;
+        for (int i = 0; i < 6; i++) {
+            int index = released.indexOf(BundleResolver.acquire(bundles, logger));
+            if (index != -1) {
+                assertTrue(String.valueOf(index), index >= 2);
+                reused++;
+            }
+        }
+        assertEquals(4, reused);
+    }
+
+    private void assertResolved(BundleResolver resolver) {
+        for (int i = 0; i < CHAINS; i++) {
+            for (int j = 0; j < 3; j++) {
+                String name = "test.chain" + i + ".bundle" + j;
+                BundleDescription bundle = resolver.getResolvedBundle(name);
+                assertNotNull(name, bundle);
+            }
+        }
+    }
+
+    private interface Resolution {
+        void resolve(Logger logger) throws Exception;
+    }
+
+    private static void run(final Resolution resolution) throws Exception {
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final Logger logger = new ConsoleLogger(Logger.LEVEL_WARN, "thread" + i);
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        resolution.resolve(logger);
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        start.countDown();
+        done.await();
+        if (!failures.isEmpty()) {
+            Throwable e = failures.get(0);
+            AssertionFailedError error = new AssertionFailedError(failures.size() + " resolution(s) failed: " + e);
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    private static File createBundle(File file, String name, String imports) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Manifest-Version", "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", name);
+        attributes.putValue("Bundle-Version", "1.0.0");
+        attributes.putValue("Export-Package", name);
+        if (imports != null) {
+            attributes.putValue("Import-Package", imports);
+        }
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+        jos.close();
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
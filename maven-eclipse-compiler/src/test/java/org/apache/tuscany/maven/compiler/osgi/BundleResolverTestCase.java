@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.compiler.osgi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Updates the state of a resolver with setBundles as the bundle locations change between compilations.
+ *
+ * @version $Rev$ $Date$
+ */
+public class BundleResolverTestCase extends TestCase {
+    private File root;
+    private Logger logger;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/resolver");
+        delete(root);
+        root.mkdirs();
+        logger = new ConsoleLogger(Logger.LEVEL_WARN, "test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testChangedAndRemovedBundles() throws Exception {
+        File a = createBundle(new File(root, "test.a.jar"), "test.a", "1.0.0", null);
+        File b = createBundle(new File(root, "test.b.jar"), "test.b", "1.0.0", "test.a");
+        List<File> bundles = new ArrayList<File>();
+        bundles.add(a);
+        bundles.add(b);
+        BundleResolver resolver = new BundleResolver(logger);
+        assertEquals(2, resolver.setBundles(bundles, logger));
+        assertEquals(0, resolver.setBundles(bundles, logger));
+        resolver.resolveState(logger);
+        assertNotNull(resolver.getResolvedBundle("test.b"));
+
+        touch(createBundle(a, "test.a", "2.0.0", null));
+        assertEquals(1, resolver.setBundles(bundles, logger));
+        resolver.resolveState(logger);
+        assertEquals("2.0.0", resolver.getResolvedBundle("test.a").getVersion().toString());
+        assertNotNull(resolver.getResolvedBundle("test.b"));
+
+        bundles.remove(a);
+        assertEquals(1, resolver.setBundles(bundles, logger));
+        resolver.resolveState(logger);
+        assertEquals(0, resolver.getState().getBundles("test.a").length);
+        assertNull(resolver.getResolvedBundle("test.b"));
+    }
+
+    public void testInvalidManifest() throws Exception {
+        File a = createBundle(new File(root, "test.a.jar"), "test.a", "1.0.0", null);
+        List<File> bundles = new ArrayList<File>();
+        bundles.add(a);
+        BundleResolver resolver = new BundleResolver(logger);
+        assertEquals(1, resolver.setBundles(bundles, logger));
+
+        // The same package imported twice is rejected, the old description must not stay in the state
+        touch(createBundle(a, "test.a", "2.0.0", "test.c, test.c"));
+        assertEquals(1, resolver.setBundles(bundles, logger));
+        assertEquals(0, resolver.getState().getBundles("test.a").length);
+
+        // The manifest is read again until it can be added
+        assertEquals(0, resolver.setBundles(bundles, logger));
+        createBundle(a, "test.a", "3.0.0", null);
+        assertEquals(1, resolver.setBundles(bundles, logger));
+        resolver.resolveState(logger);
+        assertEquals("3.0.0", resolver.getResolvedBundle("test.a").getVersion().toString());
+    }
+
+    /**
+     * Make sure the stamp of a rewritten file changes, even with a coarse timestamp resolution
+     */
+    private static void touch(File file) {
+        file.setLastModified(file.lastModified() + 10000);
+    }
+
+    private static File createBundle(File file, String name, String version, String imports) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Manifest-Version", "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", name);
+        attributes.putValue("Bundle-Version", version);
+        attributes.putValue("Export-Package", name + ";version=" + version);
+        if (imports != null) {
+            attributes.putValue("Import-Package", imports);
+        }
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+        jos.close();
+        return file;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.compiler.osgi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.apache.tuscany.maven.osgi.ExecutionEnvironmentProfile;
+import org.eclipse.osgi.framework.internal.core.Constants;
+
+/**
+ * Tests the lookup of the VM profile used to resolve the bundles.
+ *
+ * @version $Rev$ $Date$
+ */
+public class VMProfileTestCase extends TestCase {
+
+    public void testFoundOnce() throws Exception {
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        ExecutionEnvironmentProfile profile = BundleUtil.findVMProfile(props);
+        assertNotNull(profile);
+        assertNotNull(profile.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES));
+        assertSame(profile, BundleUtil.findVMProfile(props));
+    }
+
+    public void testFailureNotKept() throws Exception {
+        File file = new File("target/vm-profile/Test-1.0.profile").getAbsoluteFile();
+        file.delete();
+        file.getParentFile().mkdirs();
+        Properties props = new Properties();
+        props.putAll(System.getProperties());
+        System.setProperty(Constants.OSGI_JAVA_PROFILE, file.toURI().toURL().toString());
+        try {
+            // The profile cannot be read yet
+            ExecutionEnvironmentProfile profile = BundleUtil.findVMProfile(props);
+            assertNull(profile.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES));
+
+            Properties testProfile = new Properties();
+            testProfile.setProperty(Constants.OSGI_JAVA_PROFILE_NAME, "Test-1.0");
+            testProfile.setProperty(Constants.FRAMEWORK_SYSTEMPACKAGES, "test.a,test.b");
+            OutputStream os = new FileOutputStream(file);
+            try {
+                testProfile.store(os, null);
+            } finally {
+                os.close();
+            }
+
+            profile = BundleUtil.findVMProfile(props);
+            assertEquals("Test-1.0", profile.getName());
+            assertEquals("test.a,test.b", profile.getProperty(Constants.FRAMEWORK_SYSTEMPACKAGES));
+            assertSame(profile, BundleUtil.findVMProfile(props));
+        } finally {
+            System.getProperties().remove(Constants.OSGI_JAVA_PROFILE);
+            file.delete();
+        }
+    }
+}
@@ -53,7 +53,7 @@ public class Java2WSDLGeneratorFactory {
 	/**
 	 * @return the singleton instance of this generator factory
 	 */
-	public static Java2WSDLGeneratorFactory getInstance() {
+	public static synchronized Java2WSDLGeneratorFactory getInstance() {
 		if (factory == null) {
 			factory = new Java2WSDLGeneratorFactory();
 		}
@@ -57,7 +57,7 @@ import commonj.sdo.helper.XSDHelper;
 public class SchemaBuilder implements TuscanyJava2WSDLConstants {
     public static final String NAME_SPACE_PREFIX = "stn_";
 
-    private static int prefixCount = 1;
+    private int prefixCount = 1;
 
     public static final String MIXED = "mixed";
 
@@ -42,7 +42,7 @@ public class TuscanyJava2OMBuilder implements TuscanyJava2WSDLConstants {
 
     private TuscanyTypeTable typeTable = null;
 
-    private static int prefixCount = 1;
+    private int prefixCount = 1;
 
     private static final String NAMESPACE_PREFIX = "ns";
 
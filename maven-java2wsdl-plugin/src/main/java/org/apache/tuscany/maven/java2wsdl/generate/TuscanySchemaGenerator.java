@@ -48,7 +48,7 @@ import org.codehaus.jam.JamServiceParams;
 public class TuscanySchemaGenerator implements TuscanyJava2WSDLConstants {
     public static final String NAME_SPACE_PREFIX = "stn_";
     public static final String PERIOD_SEPARATOR = ".";
-    private static int prefixCount = 1;
+    private int prefixCount = 1;
 
     protected String attrFormDefault = null;
     protected String elementFormDefault = null;
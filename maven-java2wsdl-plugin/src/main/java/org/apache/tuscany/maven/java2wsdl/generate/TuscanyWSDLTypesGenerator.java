@@ -50,7 +50,7 @@ public class TuscanyWSDLTypesGenerator implements TuscanyJava2WSDLConstants {
 
     public static final String PERIOD_SEPARATOR = ".";
 
-    private static int prefixCount = 1;
+    private int prefixCount = 1;
 
     protected GenerationParameters generationParams;
 
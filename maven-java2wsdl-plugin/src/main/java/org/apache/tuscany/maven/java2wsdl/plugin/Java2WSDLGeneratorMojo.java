@@ -30,6 +30,7 @@ import org.apache.ws.java2wsdl.utils.Java2WSDLCommandLineOption;
 /**
  * @version $Rev$ $Date$
  * @goal generate
+ * @threadSafe
  * @phase generate-sources
  * @description Generate WSDL from a given Java class / interface
  */
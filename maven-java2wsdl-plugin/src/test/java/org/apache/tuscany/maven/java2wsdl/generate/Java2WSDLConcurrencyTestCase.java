@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.java2wsdl.generate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+
+/**
+ * Generates the same WSDL from several threads at the same time, as the java2wsdl goal does in a
+ * parallel build. The namespace prefixes are numbered per generator, so every output must be
+ * identical to the one generated alone.
+ */
+public class Java2WSDLConcurrencyTestCase extends TestCase {
+    private static final int THREADS = 8;
+    private static final String OUTPUT = "target/java2wsdl-concurrency";
+
+    public void testConcurrentGeneration() throws Exception {
+        String[] classNames =
+            new String[] {"org.apache.tuscany.maven.java2wsdl.generate.CustomerValue",
+                          "org.apache.tuscany.maven.java2wsdl.generate.CustomerWithAccount"};
+        for (String className : classNames) {
+            checkConcurrentGeneration(className);
+        }
+    }
+
+    private void checkConcurrentGeneration(final String className) throws Exception {
+        final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        generate(className, OUTPUT + "/reference");
+        final byte[] expected = read(new File(OUTPUT + "/reference/" + simpleName + ".wsdl"));
+
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final String output = OUTPUT + "/" + simpleName + i;
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        generate(className, output);
+                        byte[] actual = read(new File(output, simpleName + ".wsdl"));
+                        assertTrue(output, Arrays.equals(expected, actual));
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        start.countDown();
+        done.await();
+        if (!failures.isEmpty()) {
+            Throwable e = failures.get(0);
+            AssertionFailedError error = new AssertionFailedError(failures.size() + " generation(s) failed: " + e);
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    private static void generate(String className, String output) {
+        Java2WSDL.main(new String[] {"-cn", className, "-o", output});
+    }
+
+    private static byte[] read(File file) throws IOException {
+        assertTrue(file.toString(), file.isFile());
+        FileInputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int len = is.read(buf); len > 0; len = is.read(buf)) {
+                bos.write(buf, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
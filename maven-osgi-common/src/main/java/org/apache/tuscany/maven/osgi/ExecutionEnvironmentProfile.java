@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable execution environment profile, such as <code>JavaSE-1.6</code>, with its system
+ * packages. Profiles are parsed once and kept in a registry shared by everything loaded from the
+ * same plugin realm.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class ExecutionEnvironmentProfile {
+    public static final String SYSTEM_PACKAGES = "org.osgi.framework.system.packages";
+
+    private static final ConcurrentMap<String, ExecutionEnvironmentProfile> registry =
+        new ConcurrentHashMap<String, ExecutionEnvironmentProfile>();
+
+    // Marks the names for which there is no profile resource
+    private static final ExecutionEnvironmentProfile MISSING =
+        new ExecutionEnvironmentProfile("", new Properties());
+
+    private final String name;
+    private final Properties properties;
+    private final Set<String> systemPackages;
+
+    private ExecutionEnvironmentProfile(String name, Properties props) {
+        this.name = name;
+        this.properties = new Properties();
+        this.properties.putAll(props);
+
+        Set<String> packages = new HashSet<String>();
+        String pkgs = props.getProperty(SYSTEM_PACKAGES);
+        if (pkgs != null) {
+            for (String p : pkgs.split(",")) {
+                packages.add(p.trim().intern());
+            }
+        }
+        this.systemPackages = Collections.unmodifiableSet(packages);
+    }
+
+    /**
+     * Returns the profile with the given name, loading <code>/&lt;name&gt;.profile</code> from the
+     * classpath the first time it is requested.
+     *
+     * @param name
+     * @return the profile, or null if there is no such profile
+     * @throws IOException
+     */
+    public static ExecutionEnvironmentProfile forName(String name) throws IOException {
+        ExecutionEnvironmentProfile profile = registry.get(name);
+        if (profile == null) {
+            profile = MISSING;
+            InputStream is = ExecutionEnvironmentProfile.class.getResourceAsStream("/" + name + ".profile");
+            if (is != null) {
+                profile = new ExecutionEnvironmentProfile(name, load(is));
+            }
+            ExecutionEnvironmentProfile existing = registry.putIfAbsent(name, profile);
+            if (existing != null) {
+                profile = existing;
+            }
+        }
+        return profile == MISSING ? null : profile;
+    }
+
+    /**
+     * Returns the profile registered with the given name, loading it from the URL if there
+     * isn't one yet.
+     *
+     * @param name
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    public static ExecutionEnvironmentProfile forURL(String name, URL url) throws IOException {
+        ExecutionEnvironmentProfile profile = registry.get(name);
+        if (profile == null || profile == MISSING) {
+            profile = new ExecutionEnvironmentProfile(name, load(url.openStream()));
+            registry.put(name, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Creates a profile without registering it.
+     *
+     * @param name
+     * @param properties
+     * @return
+     */
+    public static ExecutionEnvironmentProfile create(String name, Properties properties) {
+        return new ExecutionEnvironmentProfile(name, properties);
+    }
+
+    /**
+     * Registers a profile, replacing any existing profile with the same name.
+     *
+     * @param name
+     * @param properties
+     * @return the registered profile
+     */
+    public static ExecutionEnvironmentProfile register(String name, Properties properties) {
+        ExecutionEnvironmentProfile profile = new ExecutionEnvironmentProfile(name, properties);
+        registry.put(name, profile);
+        return profile;
+    }
+
+    private static Properties load(InputStream is) throws IOException {
+        Properties props = new Properties();
+        try {
+            props.load(new BufferedInputStream(is));
+        } finally {
+            is.close();
+        }
+        return props;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProperty(String key) {
+        return properties.getProperty(key);
+    }
+
+    public String getProperty(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Returns the entries of the system packages property, such as
+     * <code>javax.xml.parsers</code> or <code>javax.activation;version=1.1</code>.
+     *
+     * @return
+     */
+    public Set<String> getSystemPackages() {
+        return systemPackages;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
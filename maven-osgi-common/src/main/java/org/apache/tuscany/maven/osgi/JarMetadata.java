@@ -0,0 +1,436 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * An immutable summary of a JAR file: the manifest, the entry names, the packages that contain
+ * classes and the size and CRC of every class. Each JAR is opened once per plugin realm as long
+ * as it is not modified: Maven loads every plugin in its own class realm, so each plugin that uses
+ * this class has its own in-memory cache.
+ * <p>
+ * The records are kept in a bounded cache of soft references. A module drops its references to
+ * the records when it is done, and weak references would then be cleared by the next collection,
+ * before the following module of the build could reuse them. Soft references are only cleared
+ * when the heap runs low.
+ * <p>
+ * If the system property <code>jarmetadata.cache.dir</code> is set, the records are also
+ * persisted in that directory so that other plugins and later builds can reuse them. The records
+ * are written with {@link #writeTo(DataOutputStream)}, in the same format for all the plugins.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class JarMetadata {
+    public static final String CACHE_DIR_PROPERTY = "jarmetadata.cache.dir";
+
+    private static final int MAX_CACHE_SIZE = 512;
+    private static final int MAGIC = 0x4A4D4401;
+
+    private static final Map<String, SoftReference<JarMetadata>> cache =
+        new LinkedHashMap<String, SoftReference<JarMetadata>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SoftReference<JarMetadata>> eldest) {
+                return size() > MAX_CACHE_SIZE;
+            }
+        };
+
+    private static final Comparator<JarEntry> ENTRY_ORDER = new Comparator<JarEntry>() {
+        public int compare(JarEntry e1, JarEntry e2) {
+            return e1.getName().compareTo(e2.getName());
+        }
+    };
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final byte[] manifest;
+    // Sorted entry names
+    private final String[] entries;
+    // Indexes into entries for the class files
+    private final int[] classes;
+    private final long[] classSizes;
+    private final long[] classCrcs;
+    private final Set<String> packages;
+
+    private JarMetadata(File file,
+                        long length,
+                        long lastModified,
+                        byte[] manifest,
+                        String[] entries,
+                        int[] classes,
+                        long[] classSizes,
+                        long[] classCrcs) {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.manifest = manifest;
+        this.entries = entries;
+        this.classes = classes;
+        this.classSizes = classSizes;
+        this.classCrcs = classCrcs;
+
+        Set<String> pkgs = new TreeSet<String>();
+        for (int i = 0; i < classes.length; i++) {
+            String name = entries[classes[i]];
+            int index = name.lastIndexOf('/');
+            if (index > 0 && !name.startsWith(".") && Character.isJavaIdentifierStart(name.charAt(0))) {
+                pkgs.add(name.substring(0, index).replace('/', '.'));
+            }
+        }
+        this.packages = Collections.unmodifiableSet(pkgs);
+    }
+
+    /**
+     * Returns the metadata for the given JAR file, reading the file only if it has not been seen
+     * before or has changed since.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static JarMetadata get(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        JarMetadata metadata = null;
+        synchronized (cache) {
+            SoftReference<JarMetadata> ref = cache.get(key);
+            if (ref != null) {
+                metadata = ref.get();
+            }
+        }
+        if (metadata != null && metadata.isCurrent(length, lastModified)) {
+            return metadata;
+        }
+
+        File cacheDir = getCacheDirectory();
+        metadata = null;
+        if (cacheDir != null) {
+            metadata = load(cacheFile(cacheDir, key), file, length, lastModified);
+        }
+        if (metadata == null) {
+            metadata = read(file, length, lastModified);
+            if (cacheDir != null) {
+                store(cacheDir, key, metadata);
+            }
+        }
+
+        synchronized (cache) {
+            cache.put(key, new SoftReference<JarMetadata>(metadata));
+        }
+        return metadata;
+    }
+
+    private boolean isCurrent(long length, long lastModified) {
+        return this.length == length && this.lastModified == lastModified;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a new copy of the manifest, or null if the JAR doesn't have one.
+     *
+     * @return
+     * @throws IOException
+     */
+    public Manifest getManifest() throws IOException {
+        if (manifest == null) {
+            return null;
+        }
+        return new Manifest(new ByteArrayInputStream(manifest));
+    }
+
+    /**
+     * Returns the sorted names of all the entries.
+     *
+     * @return
+     */
+    public List<String> getEntries() {
+        return Collections.unmodifiableList(Arrays.asList(entries));
+    }
+
+    /**
+     * Tests if there is at least one entry whose name starts with the given prefix.
+     *
+     * @param prefix
+     * @return
+     */
+    public boolean hasEntriesUnder(String prefix) {
+        int index = Arrays.binarySearch(entries, prefix);
+        if (index >= 0) {
+            return true;
+        }
+        index = -index - 1;
+        return index < entries.length && entries[index].startsWith(prefix);
+    }
+
+    /**
+     * Returns the sorted names of the packages that contain classes.
+     *
+     * @return
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    public int getClassCount() {
+        return classes.length;
+    }
+
+    /**
+     * Returns the entry name of the n-th class file, for example <code>org/example/Foo.class</code>.
+     *
+     * @param index
+     * @return
+     */
+    public String getClassEntry(int index) {
+        return entries[classes[index]];
+    }
+
+    public long getClassSize(int index) {
+        return classSizes[index];
+    }
+
+    public long getClassCrc(int index) {
+        return classCrcs[index];
+    }
+
+    private static JarMetadata read(File file, long length, long lastModified) throws IOException {
+        JarFile jar = new JarFile(file, false);
+        try {
+            List<JarEntry> jarEntries = new ArrayList<JarEntry>();
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                jarEntries.add(e.nextElement());
+            }
+            Collections.sort(jarEntries, ENTRY_ORDER);
+            String[] names = new String[jarEntries.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = jarEntries.get(i).getName();
+            }
+
+            int count = 0;
+            for (String name : names) {
+                if (name.endsWith(".class")) {
+                    count++;
+                }
+            }
+            int[] classes = new int[count];
+            long[] sizes = new long[count];
+            long[] crcs = new long[count];
+            int c = 0;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].endsWith(".class")) {
+                    JarEntry entry = jarEntries.get(i);
+                    classes[c] = i;
+                    sizes[c] = entry.getSize();
+                    crcs[c] = entry.getCrc();
+                    c++;
+                }
+            }
+
+            byte[] manifest = null;
+            JarEntry mf = jar.getJarEntry(JarFile.MANIFEST_NAME);
+            if (mf != null) {
+                manifest = readFully(jar.getInputStream(mf));
+            }
+            return new JarMetadata(file, length, lastModified, manifest, names, classes, sizes, crcs);
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                bos.write(buf, 0, len);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static File getCacheDirectory() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir == null || dir.length() == 0) {
+            return null;
+        }
+        return new File(dir);
+    }
+
+    private static File cacheFile(File cacheDir, String key) {
+        String name = new File(key).getName();
+        return new File(cacheDir, name + "-" + Integer.toHexString(key.hashCode()) + ".jmd");
+    }
+
+    private static JarMetadata load(File cacheFile, File file, long length, long lastModified) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (is.readInt() != MAGIC) {
+                    return null;
+                }
+                JarMetadata metadata = readFrom(is);
+                if (!metadata.file.getPath().equals(file.getAbsolutePath())
+                    || !metadata.isCurrent(length, lastModified)) {
+                    return null;
+                }
+                return metadata;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            // Ignore a corrupted or stale cache file, it will be rewritten
+            return null;
+        }
+    }
+
+    private static void store(File cacheDir, String key, JarMetadata metadata) {
+        File cacheFile = cacheFile(cacheDir, key);
+        try {
+            cacheDir.mkdirs();
+            File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                os.writeInt(MAGIC);
+                metadata.writeTo(os);
+            } finally {
+                os.close();
+            }
+            // Another build may have written the same file concurrently
+            cacheFile.delete();
+            if (!tmp.renameTo(cacheFile)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // The persistent cache is only an optimization
+        }
+    }
+
+    /**
+     * Tests if the JAR file still has the length and modification time it had when it was read.
+     *
+     * @return
+     */
+    public boolean isCurrent() {
+        return isCurrent(file.length(), file.lastModified());
+    }
+
+    /**
+     * Writes the record in the binary format read by {@link #readFrom(DataInputStream)}.
+     *
+     * @param os
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream os) throws IOException {
+        os.writeUTF(file.getAbsolutePath());
+        os.writeLong(length);
+        os.writeLong(lastModified);
+        if (manifest == null) {
+            os.writeInt(-1);
+        } else {
+            os.writeInt(manifest.length);
+            os.write(manifest);
+        }
+        os.writeInt(entries.length);
+        for (String name : entries) {
+            os.writeUTF(name);
+        }
+        os.writeInt(classes.length);
+        for (int i = 0; i < classes.length; i++) {
+            os.writeInt(classes[i]);
+            os.writeLong(classSizes[i]);
+            os.writeLong(classCrcs[i]);
+        }
+    }
+
+    /**
+     * Reads a record written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param is
+     * @return
+     * @throws IOException
+     */
+    public static JarMetadata readFrom(DataInputStream is) throws IOException {
+        File file = new File(is.readUTF());
+        long length = is.readLong();
+        long lastModified = is.readLong();
+        byte[] manifest = null;
+        int size = is.readInt();
+        if (size >= 0) {
+            manifest = new byte[size];
+            is.readFully(manifest);
+        }
+        String[] names = new String[is.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = is.readUTF();
+        }
+        int count = is.readInt();
+        int[] classes = new int[count];
+        long[] sizes = new long[count];
+        long[] crcs = new long[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = is.readInt();
+            sizes[i] = is.readLong();
+            crcs[i] = is.readLong();
+        }
+        return new JarMetadata(file, length, lastModified, manifest, names, classes, sizes, crcs);
+    }
+
+    @Override
+    public String toString() {
+        return "JarMetadata [file=" + file + ", entries=" + entries.length + ", classes=" + classes.length + "]";
+    }
+}
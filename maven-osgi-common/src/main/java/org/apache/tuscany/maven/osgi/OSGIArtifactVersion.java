@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.util.Comparator;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.osgi.framework.Version;
+
+/**
+ * A maven version that can be converted into an OSGi version. It is parsed and ordered the same way as
+ * the maven <code>DefaultArtifactVersion</code>, so it can replace it where maven versions are compared.
+ * <p>
+ * The components of a version are parsed into an immutable {@link Components} object, which
+ * {@link #parse(String)} caches by the version string and shares between the versions it returns.
+ * {@link #parseVersion(String)} replaces the components of a version, it never changes the shared ones.
+ *
+ * @version $Rev$ $Date$
+ */
+public class OSGIArtifactVersion implements ArtifactVersion {
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    private static final ConcurrentMap<String, Components> cache = new ConcurrentHashMap<String, Components>();
+
+    /**
+     * Orders versions the same way as {@link #compareTo(Object)}.
+     */
+    public static final Comparator<ArtifactVersion> COMPARATOR = new Comparator<ArtifactVersion>() {
+        public int compare(ArtifactVersion v1, ArtifactVersion v2) {
+            if (v1 instanceof OSGIArtifactVersion) {
+                return ((OSGIArtifactVersion)v1).compareTo(v2);
+            }
+            if (v2 instanceof OSGIArtifactVersion) {
+                return -((OSGIArtifactVersion)v2).compareTo(v1);
+            }
+            return v1.compareTo(v2);
+        }
+    };
+
+    /**
+     * The parsed components of a version string.
+     */
+    private static final class Components {
+        private final int majorVersion;
+        private final int minorVersion;
+        private final int incrementalVersion;
+        private final int buildNumber;
+        private final String qualifier;
+        private final String unparsed;
+        private final int hashCode;
+        private volatile Version osgiVersion;
+
+        private Components(String version) {
+            this.unparsed = version;
+
+            int major = 0;
+            int minor = 0;
+            int incremental = 0;
+            int build = 0;
+            String qualifier = null;
+
+            int index = version.indexOf("-");
+
+            String part1;
+            String part2 = null;
+
+            if (index < 0) {
+                part1 = version;
+            } else {
+                part1 = version.substring(0, index);
+                part2 = version.substring(index + 1);
+            }
+
+            if (part2 != null) {
+                try {
+                    if ((part2.length() == 1) || !part2.startsWith("0")) {
+                        build = Integer.parseInt(part2);
+                    } else {
+                        qualifier = part2;
+                    }
+                } catch (NumberFormatException e) {
+                    qualifier = part2;
+                }
+            }
+
+            if ((part1.indexOf(".") < 0) && !part1.startsWith("0")) {
+                try {
+                    major = Integer.parseInt(part1);
+                } catch (NumberFormatException e) {
+                    // qualifier is the whole version, including "-"
+                    qualifier = version;
+                    build = 0;
+                }
+            } else {
+                StringTokenizer tok = new StringTokenizer(part1, ".");
+
+                String s;
+
+                if (tok.hasMoreTokens()) {
+                    s = tok.nextToken();
+                    try {
+                        major = Integer.parseInt(s);
+
+                        if (tok.hasMoreTokens()) {
+                            s = tok.nextToken();
+                            try {
+                                minor = Integer.parseInt(s);
+                                if (tok.hasMoreTokens()) {
+
+                                    s = tok.nextToken();
+                                    try {
+                                        incremental = Integer.parseInt(s);
+
+                                    } catch (NumberFormatException e) {
+                                        qualifier = s;
+                                    }
+                                }
+                            } catch (NumberFormatException e) {
+                                qualifier = s;
+                            }
+                        }
+                    } catch (NumberFormatException e) {
+                        qualifier = s;
+                    }
+                }
+
+                if (tok.hasMoreTokens()) {
+                    StringBuffer buf = new StringBuffer(qualifier != null ? qualifier : "");
+                    buf.append(tok.nextToken());
+                    while (tok.hasMoreTokens()) {
+                        buf.append("_");
+                        buf.append(tok.nextToken());
+                    }
+
+                    qualifier = buf.toString();
+                }
+
+            }
+
+            this.majorVersion = major;
+            this.minorVersion = minor;
+            this.incrementalVersion = incremental;
+            this.buildNumber = build;
+            this.qualifier = qualifier;
+
+            int result = 1229;
+
+            result = 1223 * result + majorVersion;
+            result = 1223 * result + minorVersion;
+            result = 1223 * result + incrementalVersion;
+            result = 1223 * result + buildNumber;
+
+            if (null != qualifier) {
+                result = 1223 * result + qualifier.hashCode();
+            }
+            this.hashCode = result;
+        }
+    }
+
+    private volatile Components components;
+
+    public OSGIArtifactVersion(String version) {
+        parseVersion(version);
+    }
+
+    private OSGIArtifactVersion(Components components) {
+        this.components = components;
+    }
+
+    /**
+     * Returns a version for the given version string, sharing the components parsed before for the same
+     * string.
+     *
+     * @param version
+     * @return
+     */
+    public static OSGIArtifactVersion parse(String version) {
+        return new OSGIArtifactVersion(getComponents(version));
+    }
+
+    private static Components getComponents(String version) {
+        Components components = cache.get(version);
+        if (components == null) {
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            components = new Components(version);
+            Components existing = cache.putIfAbsent(version, components);
+            if (existing != null) {
+                components = existing;
+            }
+        }
+        return components;
+    }
+
+    public int compareTo(Object o) {
+        if (o instanceof OSGIArtifactVersion) {
+            return compare(components, ((OSGIArtifactVersion)o).components);
+        }
+        ArtifactVersion otherVersion = (ArtifactVersion)o;
+        return compare(components,
+                       otherVersion.getMajorVersion(),
+                       otherVersion.getMinorVersion(),
+                       otherVersion.getIncrementalVersion(),
+                       otherVersion.getBuildNumber(),
+                       otherVersion.getQualifier());
+    }
+
+    private static int compare(Components c, Components other) {
+        if (c == other) {
+            return 0;
+        }
+        return compare(c,
+                       other.majorVersion,
+                       other.minorVersion,
+                       other.incrementalVersion,
+                       other.buildNumber,
+                       other.qualifier);
+    }
+
+    private static int compare(Components c, int major, int minor, int incremental, int build, String otherQualifier) {
+        int result = c.majorVersion - major;
+        if (result == 0) {
+            result = c.minorVersion - minor;
+        }
+        if (result == 0) {
+            result = c.incrementalVersion - incremental;
+        }
+        if (result == 0) {
+            if (c.qualifier != null) {
+                if (otherQualifier != null) {
+                    if ((c.qualifier.length() > otherQualifier.length()) && c.qualifier.startsWith(otherQualifier)) {
+                        // here, the longer one that otherwise match is
+                        // considered older
+                        result = -1;
+                    } else if ((c.qualifier.length() < otherQualifier.length()) && otherQualifier
+                        .startsWith(c.qualifier)) {
+                        // here, the longer one that otherwise match is
+                        // considered older
+                        result = 1;
+                    } else {
+                        result = c.qualifier.compareTo(otherQualifier);
+                    }
+                } else {
+                    // otherVersion has no qualifier but we do - that's newer
+                    result = -1;
+                }
+            } else if (otherQualifier != null) {
+                // otherVersion has a qualifier but we don't, we're newer
+                result = 1;
+            } else {
+                result = c.buildNumber - build;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (false == (other instanceof ArtifactVersion)) {
+            return false;
+        }
+
+        return 0 == compareTo(other);
+    }
+
+    public int getBuildNumber() {
+        return components.buildNumber;
+    }
+
+    public int getIncrementalVersion() {
+        return components.incrementalVersion;
+    }
+
+    public int getMajorVersion() {
+        return components.majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return components.minorVersion;
+    }
+
+    public String getQualifier() {
+        return components.qualifier;
+    }
+
+    /**
+     * Returns the OSGi version for this maven version. Characters that are not legal in an OSGi
+     * qualifier are replaced with '_'.
+     *
+     * @return
+     */
+    public Version toOSGiVersion() {
+        Components c = components;
+        Version version = c.osgiVersion;
+        if (version == null) {
+            String qualifer = c.qualifier;
+            if (qualifer != null) {
+                StringBuffer buf = new StringBuffer(qualifer);
+                for (int i = 0; i < buf.length(); i++) {
+                    char ch = buf.charAt(i);
+                    if (Character.isLetterOrDigit(ch) || ch == '-' || ch == '_') {
+                        // Keep as-is
+                    } else {
+                        buf.setCharAt(i, '_');
+                    }
+                }
+                qualifer = buf.toString();
+            }
+            version = new Version(c.majorVersion, c.minorVersion, c.incrementalVersion, qualifer);
+            c.osgiVersion = version;
+        }
+        return version;
+    }
+
+    @Override
+    public int hashCode() {
+        return components.hashCode;
+    }
+
+    public void parseVersion(String version) {
+        this.components = getComponents(version);
+    }
+
+    @Override
+    public String toString() {
+        return components.unparsed;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+import org.osgi.framework.Version;
+
+/**
+ * An immutable OSGi version range such as <code>[1.0,2.0)</code> or <code>1.0</code> (at least 1.0).
+ * Bounds are compared with OSGi semantics.
+ *
+ * @version $Rev$ $Date$
+ */
+public final class OSGIVersionRange {
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private static final ConcurrentMap<String, OSGIVersionRange> cache =
+        new ConcurrentHashMap<String, OSGIVersionRange>();
+
+    private final String unparsed;
+    private final Version floor;
+    private final boolean floorInclusive;
+    // null means no upper bound
+    private final Version ceiling;
+    private final boolean ceilingInclusive;
+
+    private OSGIVersionRange(String range) {
+        this.unparsed = range;
+        String spec = range.trim();
+        int comma = spec.indexOf(',');
+        if (comma == -1) {
+            floor = toVersion(spec);
+            floorInclusive = true;
+            ceiling = null;
+            ceilingInclusive = false;
+        } else {
+            if (spec.length() < 5) {
+                throw new IllegalArgumentException("Invalid version range: " + range);
+            }
+            char first = spec.charAt(0);
+            char last = spec.charAt(spec.length() - 1);
+            if ((first != '[' && first != '(') || (last != ']' && last != ')')) {
+                throw new IllegalArgumentException("Invalid version range: " + range);
+            }
+            floorInclusive = first == '[';
+            ceilingInclusive = last == ']';
+            floor = toVersion(spec.substring(1, comma).trim());
+            ceiling = toVersion(spec.substring(comma + 1, spec.length() - 1).trim());
+        }
+    }
+
+    private static Version toVersion(String version) {
+        if (version.startsWith("\"") && version.endsWith("\"") && version.length() >= 2) {
+            version = version.substring(1, version.length() - 1);
+        }
+        return Version.parseVersion(version);
+    }
+
+    /**
+     * Returns the shared instance for the given range string.
+     *
+     * @param range
+     * @return
+     */
+    public static OSGIVersionRange parse(String range) {
+        OSGIVersionRange result = cache.get(range);
+        if (result == null) {
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            result = new OSGIVersionRange(range);
+            OSGIVersionRange existing = cache.putIfAbsent(range, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    public boolean includes(Version version) {
+        int c = floor.compareTo(version);
+        if (c > 0 || (c == 0 && !floorInclusive)) {
+            return false;
+        }
+        if (ceiling == null) {
+            return true;
+        }
+        c = ceiling.compareTo(version);
+        return c > 0 || (c == 0 && ceilingInclusive);
+    }
+
+    /**
+     * Tests a maven version against the range after converting it into an OSGi version.
+     *
+     * @param version
+     * @return
+     */
+    public boolean includes(ArtifactVersion version) {
+        OSGIArtifactVersion ver =
+            (version instanceof OSGIArtifactVersion) ? (OSGIArtifactVersion)version : OSGIArtifactVersion
+                .parse(version.toString());
+        return includes(ver.toOSGiVersion());
+    }
+
+    public Version getFloor() {
+        return floor;
+    }
+
+    public Version getCeiling() {
+        return ceiling;
+    }
+
+    @Override
+    public String toString() {
+        return unparsed;
+    }
+}
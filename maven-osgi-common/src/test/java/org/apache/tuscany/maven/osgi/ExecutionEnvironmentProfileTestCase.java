@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the execution environment profiles are parsed once and shared.
+ *
+ * @version $Rev$ $Date$
+ */
+public class ExecutionEnvironmentProfileTestCase extends TestCase {
+
+    public void testLoadedOnce() throws Exception {
+        ExecutionEnvironmentProfile profile = ExecutionEnvironmentProfile.forName("JavaSE-1.6");
+        assertNotNull(profile);
+        assertTrue(profile.getSystemPackages().contains("javax.xml.parsers"));
+        assertSame(profile, ExecutionEnvironmentProfile.forName("JavaSE-1.6"));
+    }
+
+    public void testLoadedOnceConcurrently() throws Exception {
+        final int threads = 8;
+        final List<ExecutionEnvironmentProfile> profiles = new ArrayList<ExecutionEnvironmentProfile>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        ExecutionEnvironmentProfile profile = ExecutionEnvironmentProfile.forName("J2SE-1.5");
+                        synchronized (profiles) {
+                            profiles.add(profile);
+                        }
+                    } catch (Exception e) {
+                        // The missing profile fails the test below
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            thread.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(threads, profiles.size());
+        for (ExecutionEnvironmentProfile profile : profiles) {
+            assertNotNull(profile);
+            assertSame(profiles.get(0), profile);
+        }
+    }
+
+    public void testMissingProfile() throws Exception {
+        assertNull(ExecutionEnvironmentProfile.forName("NoSuchProfile-1.0"));
+        assertNull(ExecutionEnvironmentProfile.forName("NoSuchProfile-1.0"));
+    }
+
+    public void testSystemPackages() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ExecutionEnvironmentProfile.SYSTEM_PACKAGES,
+                          "test.a;version=1.2, test.b, test.c;uses:=\"test.a\";version=\"2.0.1\"");
+        ExecutionEnvironmentProfile profile = ExecutionEnvironmentProfile.register("Test-1.0", props);
+        assertSame(profile, ExecutionEnvironmentProfile.forName("Test-1.0"));
+
+        // The entries are kept as they are written in the profile
+        assertEquals(3, profile.getSystemPackages().size());
+        assertTrue(profile.getSystemPackages().contains("test.a;version=1.2"));
+        assertTrue(profile.getSystemPackages().contains("test.b"));
+        assertTrue(profile.getSystemPackages().contains("test.c;uses:=\"test.a\";version=\"2.0.1\""));
+        assertFalse(profile.getSystemPackages().contains("test.a"));
+    }
+
+    public void testCreateDoesNotRegister() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ExecutionEnvironmentProfile.SYSTEM_PACKAGES, "test.a");
+        ExecutionEnvironmentProfile profile = ExecutionEnvironmentProfile.create("Unregistered-1.0", props);
+        assertTrue(profile.getSystemPackages().contains("test.a"));
+        assertNull(ExecutionEnvironmentProfile.forName("Unregistered-1.0"));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the JarMetadata records and the binary format shared by the plugins.
+ *
+ * @version $Rev$ $Date$
+ */
+public class JarMetadataTestCase extends TestCase {
+    private File root;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        root = new File("target/jar-metadata");
+        delete(root);
+        root.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        System.getProperties().remove(JarMetadata.CACHE_DIR_PROPERTY);
+        delete(root);
+        super.tearDown();
+    }
+
+    public void testRead() throws Exception {
+        File jar = new File(root, "test.jar");
+        createJar(jar, "test.bundle", "test/a/A.class", "test/b/B.class", "test/b/b.properties");
+
+        JarMetadata metadata = JarMetadata.get(jar);
+        assertEquals("test.bundle", metadata.getManifest().getMainAttributes().getValue("Bundle-SymbolicName"));
+        assertEquals(2, metadata.getClassCount());
+        assertEquals("[test.a, test.b]", metadata.getPackages().toString());
+        assertTrue(metadata.hasEntriesUnder("test/b/"));
+        assertFalse(metadata.hasEntriesUnder("test/c/"));
+        assertTrue(metadata.isCurrent());
+        assertSame(metadata, JarMetadata.get(jar));
+    }
+
+    public void testWriteAndRead() throws Exception {
+        File jar = new File(root, "test.jar");
+        createJar(jar, "test.bundle", "test/a/A.class", "test/b/b.properties");
+        JarMetadata metadata = JarMetadata.get(jar);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        metadata.writeTo(os);
+        os.close();
+        JarMetadata copy = JarMetadata.readFrom(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+
+        assertEquals(jar.getAbsoluteFile(), copy.getFile());
+        assertEquals(metadata.getEntries(), copy.getEntries());
+        assertEquals(metadata.getPackages(), copy.getPackages());
+        assertEquals(metadata.getClassCount(), copy.getClassCount());
+        assertEquals(metadata.getClassEntry(0), copy.getClassEntry(0));
+        assertEquals(metadata.getClassSize(0), copy.getClassSize(0));
+        assertEquals(metadata.getClassCrc(0), copy.getClassCrc(0));
+        assertEquals(metadata.getManifest().getMainAttributes(), copy.getManifest().getMainAttributes());
+        assertTrue(copy.isCurrent());
+    }
+
+    public void testChangedJar() throws Exception {
+        File jar = new File(root, "test.jar");
+        createJar(jar, null, "test/a/A.class");
+        long lastModified = jar.lastModified();
+        JarMetadata metadata = JarMetadata.get(jar);
+        assertNull(metadata.getManifest());
+
+        createJar(jar, null, "test/a/A.class", "test/b/B.class");
+        jar.setLastModified(lastModified - 10000);
+        assertFalse(metadata.isCurrent());
+        assertEquals(2, JarMetadata.get(jar).getClassCount());
+    }
+
+    public void testCacheDirectory() throws Exception {
+        File cacheDir = new File(root, "cache");
+        System.setProperty(JarMetadata.CACHE_DIR_PROPERTY, cacheDir.getPath());
+
+        File jar = new File(root, "cached.jar");
+        createJar(jar, "test.bundle", "test/a/A.class");
+        JarMetadata.get(jar);
+        File[] files = cacheDir.listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName(), files[0].getName().startsWith("cached.jar-"));
+    }
+
+    private static void createJar(File file, String bsn, String... entries) throws IOException {
+        Manifest manifest = null;
+        if (bsn != null) {
+            manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            manifest.getMainAttributes().putValue("Bundle-SymbolicName", bsn);
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        JarOutputStream jos = manifest == null ? new JarOutputStream(fos) : new JarOutputStream(fos, manifest);
+        try {
+            for (String entry : entries) {
+                jos.putNextEntry(new ZipEntry(entry));
+                jos.write(entry.getBytes("UTF-8"));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing and the ordering of OSGIArtifactVersion.
+ *
+ * @version $Rev$ $Date$
+ */
+public class OSGIArtifactVersionTestCase extends TestCase {
+
+    public void testComponents() {
+        OSGIArtifactVersion version = new OSGIArtifactVersion("1.2.3-4");
+        assertEquals(1, version.getMajorVersion());
+        assertEquals(2, version.getMinorVersion());
+        assertEquals(3, version.getIncrementalVersion());
+        assertEquals(4, version.getBuildNumber());
+        assertNull(version.getQualifier());
+
+        version = new OSGIArtifactVersion("1.0-SNAPSHOT");
+        assertEquals(1, version.getMajorVersion());
+        assertEquals(0, version.getMinorVersion());
+        assertEquals("SNAPSHOT", version.getQualifier());
+
+        version = new OSGIArtifactVersion("2.0.0.RC1");
+        assertEquals(2, version.getMajorVersion());
+        assertEquals("RC1", version.getQualifier());
+        assertEquals("2.0.0.RC1", version.toString());
+    }
+
+    public void testOrdering() {
+        List<String> expected =
+            Arrays.asList(new String[] {"1.0-SNAPSHOT", "1.0", "1.0-1", "1.0-2", "1.0.1", "1.2", "1.10", "2.0"});
+        List<OSGIArtifactVersion> versions = new ArrayList<OSGIArtifactVersion>();
+        for (int i = expected.size() - 1; i >= 0; i--) {
+            versions.add(OSGIArtifactVersion.parse(expected.get(i)));
+        }
+        Collections.sort(versions, OSGIArtifactVersion.COMPARATOR);
+        List<String> sorted = new ArrayList<String>();
+        for (OSGIArtifactVersion version : versions) {
+            sorted.add(version.toString());
+        }
+        assertEquals(expected, sorted);
+    }
+
+    public void testQualifiers() {
+        // A longer qualifier that starts with the other one is older
+        assertTrue(OSGIArtifactVersion.parse("1.0-alpha-1").compareTo(OSGIArtifactVersion.parse("1.0-alpha")) < 0);
+        assertTrue(OSGIArtifactVersion.parse("1.0-alpha").compareTo(OSGIArtifactVersion.parse("1.0-alpha-1")) > 0);
+        assertTrue(OSGIArtifactVersion.parse("1.0-alpha").compareTo(OSGIArtifactVersion.parse("1.0-beta")) < 0);
+    }
+
+    public void testEquals() {
+        OSGIArtifactVersion v1 = new OSGIArtifactVersion("1.0.0");
+        OSGIArtifactVersion v2 = OSGIArtifactVersion.parse("1.0.0");
+        assertEquals(v1, v2);
+        assertEquals(v1.hashCode(), v2.hashCode());
+        assertEquals(0, v1.compareTo(v2));
+        assertFalse(v1.equals(OSGIArtifactVersion.parse("1.0.1")));
+    }
+
+    public void testParseVersion() {
+        OSGIArtifactVersion v1 = OSGIArtifactVersion.parse("1.0");
+        OSGIArtifactVersion v2 = OSGIArtifactVersion.parse("1.0");
+        v1.parseVersion("2.1-SNAPSHOT");
+        assertEquals(2, v1.getMajorVersion());
+        assertEquals(1, v1.getMinorVersion());
+        assertEquals("SNAPSHOT", v1.getQualifier());
+        assertEquals("2.1-SNAPSHOT", v1.toString());
+        assertEquals("2.1.0.SNAPSHOT", v1.toOSGiVersion().toString());
+
+        // The versions parsed from the same string are not affected
+        assertEquals(1, v2.getMajorVersion());
+        assertEquals(1, OSGIArtifactVersion.parse("1.0").getMajorVersion());
+        assertEquals("1.0.0", OSGIArtifactVersion.parse("1.0").toOSGiVersion().toString());
+    }
+
+    public void testToOSGiVersion() {
+        assertEquals("1.0.0.SNAPSHOT", OSGIArtifactVersion.parse("1.0.0-SNAPSHOT").toOSGiVersion().toString());
+        assertEquals("1.2.0.beta_1", OSGIArtifactVersion.parse("1.2-beta+1").toOSGiVersion().toString());
+        assertEquals("3.0.0", OSGIArtifactVersion.parse("3").toOSGiVersion().toString());
+    }
+}
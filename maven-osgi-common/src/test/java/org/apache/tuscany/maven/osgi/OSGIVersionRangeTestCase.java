@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.tuscany.maven.osgi;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Version;
+
+/**
+ * Tests the bounds and the ordering of OSGIVersionRange.
+ *
+ * @version $Rev$ $Date$
+ */
+public class OSGIVersionRangeTestCase extends TestCase {
+
+    public void testHalfOpenRange() {
+        OSGIVersionRange range = OSGIVersionRange.parse("[1.0,2.0)");
+        assertFalse(range.includes(new Version(0, 9, 9)));
+        assertTrue(range.includes(new Version(1, 0, 0)));
+        assertTrue(range.includes(new Version(1, 5, 0)));
+        assertTrue(range.includes(new Version(1, 9, 9, "zzz")));
+        assertFalse(range.includes(new Version(2, 0, 0)));
+    }
+
+    public void testExclusiveFloor() {
+        OSGIVersionRange range = OSGIVersionRange.parse("(1.0,2.0]");
+        assertFalse(range.includes(new Version(1, 0, 0)));
+        assertTrue(range.includes(new Version(1, 0, 0, "a")));
+        assertTrue(range.includes(new Version(2, 0, 0)));
+        assertFalse(range.includes(new Version(2, 0, 0, "a")));
+    }
+
+    public void testAtLeast() {
+        OSGIVersionRange range = OSGIVersionRange.parse("1.6");
+        assertFalse(range.includes(new Version(1, 5, 9)));
+        assertTrue(range.includes(new Version(1, 6, 0)));
+        assertTrue(range.includes(new Version(10, 0, 0)));
+        assertNull(range.getCeiling());
+    }
+
+    public void testQualifiers() {
+        OSGIVersionRange range = OSGIVersionRange.parse("[1.0.0.b,1.0.0.d)");
+        assertFalse(range.includes(new Version(1, 0, 0, "a")));
+        assertTrue(range.includes(new Version(1, 0, 0, "b")));
+        assertTrue(range.includes(new Version(1, 0, 0, "c2")));
+        assertFalse(range.includes(new Version(1, 0, 0, "d")));
+    }
+
+    public void testArtifactVersion() {
+        OSGIVersionRange range = OSGIVersionRange.parse("[1.0,2.0)");
+        // 1.0-SNAPSHOT is 1.0.0.SNAPSHOT, above the floor in OSGi ordering
+        assertTrue(range.includes(OSGIArtifactVersion.parse("1.0-SNAPSHOT")));
+        assertTrue(range.includes(new OSGIArtifactVersion("1.9.9")));
+        assertFalse(range.includes(OSGIArtifactVersion.parse("2.0")));
+    }
+
+    public void testParse() {
+        assertSame(OSGIVersionRange.parse("[1.0,2.0)"), OSGIVersionRange.parse("[1.0,2.0)"));
+        assertEquals("[1.0,2.0)", OSGIVersionRange.parse("[1.0,2.0)").toString());
+        try {
+            OSGIVersionRange.parse("[1.0,2.0");
+            fail("Invalid range accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -55,7 +55,6 @@ import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.artifact.resolver.filter.ExcludesArtifactFilter;
-import org.apache.maven.artifact.versioning.ArtifactVersion;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.artifact.versioning.VersionRange;
@@ -77,9 +76,9 @@ import org.apache.maven.surefire.report.ForkingConsoleReporter;
 import org.apache.maven.surefire.report.XMLReporter;
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
+import org.apache.tuscany.maven.osgi.OSGIArtifactVersion;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
 import org.osgi.framework.Constants;
-import org.osgi.framework.Version;
 
 /**
  * Derived from maven-surefire-plugin 2.4.3
@@ -1215,24 +1214,7 @@ public class OSGiSurefirePlugin extends AbstractMojo {
      * @return
      */
     static String osgiVersion(String mavenVersion) {
-        ArtifactVersion ver = new DefaultArtifactVersion(mavenVersion);
-        String qualifer = ver.getQualifier();
-        if (qualifer != null) {
-            StringBuffer buf = new StringBuffer(qualifer);
-            for (int i = 0; i < buf.length(); i++) {
-                char c = buf.charAt(i);
-                if (Character.isLetterOrDigit(c) || c == '-' || c == '_') {
-                    // Keep as-is
-                } else {
-                    buf.setCharAt(i, '_');
-                }
-            }
-            qualifer = buf.toString();
-        }
-        Version osgiVersion =
-            new Version(ver.getMajorVersion(), ver.getMinorVersion(), ver.getIncrementalVersion(), qualifer);
-        String version = osgiVersion.toString();
-        return version;
+        return OSGIArtifactVersion.parse(mavenVersion).toOSGiVersion().toString();
     }
 
     private Manifest createMainBundle() throws IOException {
@@ -26,6 +26,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * Generate the exploded SCA ZIP contribution
  *
  * @goal exploded
+ * @threadSafe
  * @phase package
  * @requiresDependencyResolution runtime
  */
@@ -37,6 +37,7 @@ import org.codehaus.plexus.archiver.jar.ManifestException;
  * Based on code from the Maven WAR plugin 2.0.2 by Emmanuel Venisse
  * 
  * @goal zip
+ * @threadSafe
  * @phase package
  * @requiresDependencyResolution runtime
  */